@@ -1,7 +1,5 @@
 dependencies {
-    implementation(libs.json)
-
     testImplementation(libs.junit.jupiter)
     testImplementation(libs.assertj.core)
     testImplementation(libs.mockwebserver)
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+package io.pulseautomate.map.ha.client;
+
+import io.pulseautomate.map.ha.config.RetryPolicy;
+
+/**
+ * Opens after {@code threshold} consecutive failed attempts and rejects calls for the cooldown.
+ * Once it elapses a single probe is let through; its outcome closes or re-opens the circuit.
+ */
+final class CircuitBreaker {
+  private final int threshold;
+  private final long cooldownNanos;
+
+  private int failures;
+  private long openUntil;
+  private boolean probing;
+  private long opens;
+
+  CircuitBreaker(RetryPolicy policy) {
+    this.threshold = policy.breakerThreshold();
+    this.cooldownNanos = policy.breakerCooldown().toNanos();
+  }
+
+  synchronized boolean tryAcquire() {
+    if (threshold == 0 || failures < threshold) return true;
+    if (probing || System.nanoTime() - openUntil < 0) return false;
+    probing = true;
+    return true;
+  }
+
+  synchronized void success() {
+    failures = 0;
+    probing = false;
+  }
+
+  synchronized void failure() {
+    var probe = probing;
+    probing = false;
+    if (threshold == 0 || ++failures < threshold) return;
+    if (failures == threshold || probe) {
+      opens++;
+      openUntil = System.nanoTime() + cooldownNanos;
+    }
+  }
+
+  synchronized boolean isOpen() {
+    return threshold > 0 && failures >= threshold;
+  }
+
+  synchronized long opens() {
+    return opens;
+  }
+}
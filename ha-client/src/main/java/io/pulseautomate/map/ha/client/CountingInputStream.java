@@ -0,0 +1,53 @@
+package io.pulseautomate.map.ha.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Counts bytes read through it and the time spent blocked in {@code read}. */
+final class CountingInputStream extends FilterInputStream {
+  private long count;
+  private long nanos;
+
+  CountingInputStream(InputStream in) {
+    super(in);
+  }
+
+  long count() {
+    return count;
+  }
+
+  long nanos() {
+    return nanos;
+  }
+
+  @Override
+  public int read() throws IOException {
+    var started = System.nanoTime();
+    var b = super.read();
+    nanos += System.nanoTime() - started;
+    if (b >= 0) count++;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    var started = System.nanoTime();
+    var n = super.read(b, off, len);
+    nanos += System.nanoTime() - started;
+    if (n > 0) count += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    var skipped = super.skip(n);
+    count += skipped;
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+}
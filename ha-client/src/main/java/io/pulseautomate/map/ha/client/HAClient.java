@@ -1,14 +1,47 @@
 package io.pulseautomate.map.ha.client;
 
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
 import java.io.Closeable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface HAClient extends Closeable {
   List<Map<String, Object>> fetchStates() throws HAHttpException;
 
   List<Map<String, Object>> fetchServices() throws HAHttpException;
 
+  /**
+   * Passes each state to {@code sink} as soon as it has been read. Implementations that can read
+   * the response incrementally never hold more than one state in memory.
+   */
+  default void streamStates(Consumer<? super Map<String, Object>> sink) throws HAHttpException {
+    fetchStates().forEach(sink);
+  }
+
+  /** States in the compact typed form; see {@link #streamHAStates}. */
+  default List<HAState> fetchHAStates() throws HAHttpException {
+    var out = new ArrayList<HAState>();
+    streamHAStates(out::add);
+    return out;
+  }
+
+  /** Like {@link #streamStates} but typed; implementations should parse straight into it. */
+  default void streamHAStates(Consumer<? super HAState> sink) throws HAHttpException {
+    streamStates(state -> sink.accept(HAState.from(state)));
+  }
+
+  /** The states {@code filter} keeps; implementations should drop the others while parsing. */
+  default void streamHAStates(StateFilter filter, Consumer<? super HAState> sink)
+      throws HAHttpException {
+    streamHAStates(
+        state -> {
+          if (filter.keeps(state.entityId())) sink.accept(state);
+        });
+  }
+
   @Override
   default void close() {}
 }
@@ -1,77 +1,481 @@
 package io.pulseautomate.map.ha.client;
 
 import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.ha.json.JsonParseException;
+import io.pulseautomate.map.ha.json.JsonReader;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
-import org.json.JSONArray;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
 public final class HAHttpClient implements HAClient {
 
+  private static final int DECODE_BUFFER = 64 * 1024;
+
+  /** Streams 2xx bodies; error bodies are small, so they are buffered without blocking. */
+  private static final HttpResponse.BodyHandler<InputStream> BODY =
+      info ->
+          info.statusCode() / 100 == 2
+              ? HttpResponse.BodySubscribers.ofInputStream()
+              : HttpResponse.BodySubscribers.mapping(
+                  HttpResponse.BodySubscribers.ofByteArray(), ByteArrayInputStream::new);
+
   private final HAConfig cfg;
   private final HttpClient http;
+  private final boolean ownsHttp;
+  private final RequestListener listener;
+  private final Map<String, TransferStats> transfers = new ConcurrentHashMap<>();
+  private final CircuitBreaker breaker;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder waitedNanos = new LongAdder();
 
   public HAHttpClient(HAConfig cfg) {
+    this(cfg, RequestListener.jfr());
+  }
+
+  public HAHttpClient(HAConfig cfg, RequestListener listener) {
+    this(cfg, newHttpClient(cfg), true, listener);
+  }
+
+  /**
+   * Issues requests through {@code shared}, e.g. one client for many HA instances. {@link #close()}
+   * leaves it open; its owner closes it.
+   */
+  public HAHttpClient(HAConfig cfg, HttpClient shared, RequestListener listener) {
+    this(cfg, shared, false, listener);
+  }
+
+  private HAHttpClient(HAConfig cfg, HttpClient http, boolean ownsHttp, RequestListener listener) {
     this.cfg = cfg;
-    this.http =
-        HttpClient.newBuilder()
-            .connectTimeout(cfg.requestTimeout())
-            .version(HttpClient.Version.HTTP_1_1)
-            .build();
+    this.http = http;
+    this.ownsHttp = ownsHttp;
+    this.listener = listener;
+    this.breaker = new CircuitBreaker(cfg.retry());
+  }
+
+  /** An {@link HttpClient} configured the way {@code cfg} asks for. */
+  public static HttpClient newHttpClient(HAConfig cfg) {
+    return HttpClient.newBuilder()
+        .connectTimeout(cfg.requestTimeout())
+        .version(cfg.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+        .build();
+  }
+
+  /** Byte counts of the most recent successful response per request path. */
+  public Map<String, TransferStats> transferStats() {
+    return Map.copyOf(transfers);
+  }
+
+  public RetryStats retryStats() {
+    return new RetryStats(
+        requests.sum(),
+        retries.sum(),
+        Duration.ofNanos(waitedNanos.sum()),
+        breaker.opens(),
+        rejected.sum());
   }
 
   @Override
   public List<Map<String, Object>> fetchStates() throws HAHttpException {
-    var jsonBody = getJsonString("/api/states");
-    var jsonArray = new JSONArray(jsonBody);
-    return jsonArray.toList().stream().map(item -> (Map<String, Object>) item).toList();
+    var out = new ArrayList<Map<String, Object>>();
+    streamArray("/api/states", JsonReader::readObject, out::add, out::clear);
+    return out;
   }
 
   @Override
   public List<Map<String, Object>> fetchServices() throws HAHttpException {
-    var jsonBody = getJsonString("/api/services");
-    var jsonArray = new JSONArray(jsonBody);
-    return jsonArray.toList().stream().map(item -> (Map<String, Object>) item).toList();
+    var out = new ArrayList<Map<String, Object>>();
+    streamArray("/api/services", JsonReader::readObject, out::add, out::clear);
+    return out;
   }
 
-  private String getJsonString(String path) throws HAHttpException {
-    final var uri = resolve(path);
-    var attempts = 0;
-    HAHttpException last = null;
+  @Override
+  public List<HAState> fetchHAStates() throws HAHttpException {
+    var out = new ArrayList<HAState>();
+    streamArray("/api/states", HAState::read, out::add, out::clear);
+    return out;
+  }
+
+  @Override
+  public void streamStates(Consumer<? super Map<String, Object>> sink) throws HAHttpException {
+    streamArray("/api/states", JsonReader::readObject, sink, null);
+  }
+
+  @Override
+  public void streamHAStates(Consumer<? super HAState> sink) throws HAHttpException {
+    streamArray("/api/states", HAState::read, sink, null);
+  }
+
+  @Override
+  public void streamHAStates(StateFilter filter, Consumer<? super HAState> sink)
+      throws HAHttpException {
+    streamArray(
+        "/api/states",
+        reader -> HAState.read(reader, filter),
+        state -> {
+          if (state != null) sink.accept(state);
+        },
+        null);
+  }
 
-    while (attempts <= cfg.maxRetries()) {
-      attempts++;
+  /**
+   * {@link #streamHAStates(StateFilter, Consumer)} without blocking the caller. Attempts and their
+   * backoff are chained on futures, so no thread waits for a response or a retry; the body, which
+   * arrives as a blocking stream, is read on {@code reader}. The future fails with the {@link
+   * HAHttpException} the blocking call would throw.
+   */
+  public CompletableFuture<Void> streamHAStatesAsync(
+      StateFilter filter, Consumer<? super HAState> sink, Executor reader) {
+    requests.increment();
+    return streamArrayAsync(
+        "/api/states",
+        r -> HAState.read(r, filter),
+        state -> {
+          if (state != null) sink.accept(state);
+        },
+        reader,
+        1);
+  }
+
+  /** Releases pooled connections; keep one instance alive to reuse them across requests. */
+  @Override
+  public void close() {
+    if (ownsHttp) http.close();
+  }
+
+  @FunctionalInterface
+  private interface ElementReader<T> {
+    T read(JsonReader reader) throws IOException;
+  }
+
+  /**
+   * Reads the JSON array at {@code path} element by element into {@code sink}. A body cut off in
+   * transit is requested again, with the same backoff as a failed request, as long as nothing has
+   * reached the sink yet or {@code restart} can undo what did; malformed JSON is never retried.
+   */
+  private <T> void streamArray(
+      String path, ElementReader<T> element, Consumer<? super T> sink, Runnable restart)
+      throws HAHttpException {
+    requests.increment();
+    for (var attempt = 1; ; attempt++) {
+      var trace = new Trace();
+      HttpResponse<InputStream> res;
+      try {
+        res = getJsonStream(path, trace);
+      } catch (HAHttpException e) {
+        listener.onRequest(trace.event(path, e.status(), "identity", null, null, false));
+        throw e;
+      }
       try {
-        var req =
-            HttpRequest.newBuilder(uri)
-                .timeout(cfg.requestTimeout())
-                .header("Authorization", "Bearer " + cfg.token())
-                .header("Accept", "application/json")
-                .GET()
-                .build();
-
-        var res = http.send(req, HttpResponse.BodyHandlers.ofString());
-        var code = res.statusCode();
-        var body = res.body();
-
-        if (code >= 200 && code < 300) return body;
-
-        if (isTransient(code))
-          last = new HAHttpException("Transient HTTP " + code, code, uri.toString(), body);
-        else throw new HAHttpException("HTTP " + code + " from " + uri, code, uri.toString(), body);
-      } catch (IOException | InterruptedException ioe) {
-        last = new HAHttpException("I/O error calling " + uri, 0, uri.toString(), null, ioe);
+        readArray(path, res, trace, element, sink);
+        return;
+      } catch (HAHttpException e) {
+        var delay = bodyRetry(trace, attempt, restart != null);
+        if (delay == null) throw e;
+        if (restart != null) restart.run();
+        try {
+          Thread.sleep(delay.toMillis());
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new HAHttpException("Interrupted calling " + e.url(), 0, e.url(), null, ie);
+        }
       }
+    }
+  }
 
-      if (attempts <= cfg.maxRetries()) sleepBackoff(attempts);
+  private <T> CompletableFuture<Void> streamArrayAsync(
+      String path,
+      ElementReader<T> element,
+      Consumer<? super T> sink,
+      Executor reader,
+      int attempt) {
+    var trace = new Trace();
+    return request(path, trace)
+        .handleAsync(
+            (res, err) -> {
+              if (err != null) {
+                var cause = err instanceof CompletionException ce ? ce.getCause() : err;
+                var status = cause instanceof HAHttpException he ? he.status() : -1;
+                listener.onRequest(trace.event(path, status, "identity", null, null, false));
+                return CompletableFuture.<Void>failedFuture(cause);
+              }
+              try {
+                readArray(path, res, trace, element, sink);
+                return CompletableFuture.<Void>completedFuture(null);
+              } catch (HAHttpException e) {
+                var delay = bodyRetry(trace, attempt, false);
+                if (delay == null) return CompletableFuture.<Void>failedFuture(e);
+                var later =
+                    CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS);
+                return CompletableFuture.runAsync(() -> {}, later)
+                    .thenCompose(
+                        ignored -> streamArrayAsync(path, element, sink, reader, attempt + 1));
+              }
+            },
+            reader)
+        .thenCompose(Function.identity());
+  }
+
+  private <T> void readArray(
+      String path,
+      HttpResponse<InputStream> res,
+      Trace trace,
+      ElementReader<T> element,
+      Consumer<? super T> sink)
+      throws HAHttpException {
+    var url = res.uri().toString();
+    var encoding = contentEncoding(res);
+    var wire = new CountingInputStream(res.body());
+    CountingInputStream decoded = null;
+    var ok = false;
+    try (wire) {
+      decoded = new CountingInputStream(decode(wire, encoding));
+      try (var reader = new JsonReader(decoded)) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          var value = element.read(reader);
+          var handedOff = System.nanoTime();
+          trace.handedOff++;
+          sink.accept(value);
+          trace.sinkNanos += System.nanoTime() - handedOff;
+        }
+        reader.endArray();
+      }
+      ok = true;
+    } catch (JsonParseException e) {
+      throw new HAHttpException("Malformed JSON from " + url, res.statusCode(), url, null, e);
+    } catch (ZipException | UnsupportedEncodingException e) {
+      // the server's bytes are wrong, not their delivery: asking again will not help
+      throw new HAHttpException(
+          "Undecodable " + encoding + " body from " + url, res.statusCode(), url, null, e);
+    } catch (IOException ioe) {
+      trace.bodyFailed = true;
+      breaker.failure();
+      throw new HAHttpException(
+          "I/O error reading the body from " + url, res.statusCode(), url, null, ioe);
+    } finally {
+      var decodedBytes = decoded != null ? decoded.count() : 0;
+      transfers.put(
+          path,
+          new TransferStats(path, res.statusCode(), encoding, wire.count(), decodedBytes));
+      listener.onRequest(trace.event(path, res.statusCode(), encoding, wire, decoded, ok));
     }
+  }
 
-    throw last != null ? last : new HAHttpException("Unknown error", -1, uri.toString(), null);
+  /**
+   * The backoff before requesting a body again that failed in transit, or null if it is not
+   * retried: it was malformed, part of it is in a sink that cannot restart, or no retries are left.
+   */
+  private Duration bodyRetry(Trace trace, int attempt, boolean restartable) {
+    if (!trace.bodyFailed || (trace.handedOff > 0 && !restartable)) return null;
+    if (attempt > cfg.maxRetries()) return null;
+    var delay = cfg.retry().backoff(attempt, ThreadLocalRandom.current().nextDouble());
+    retries.increment();
+    waitedNanos.add(delay.toNanos());
+    return delay;
+  }
+
+  /** Waits for {@link #request}; the attempts themselves do not block this thread. */
+  private HttpResponse<InputStream> getJsonStream(String path, Trace trace)
+      throws HAHttpException {
+    var pending = request(path, trace);
+    try {
+      return pending.get();
+    } catch (InterruptedException ie) {
+      pending.cancel(true);
+      Thread.currentThread().interrupt();
+      var uri = resolve(path).toString();
+      throw new HAHttpException("Interrupted calling " + uri, 0, uri, null, ie);
+    } catch (ExecutionException ee) {
+      if (ee.getCause() instanceof HAHttpException he) throw he;
+      var uri = resolve(path).toString();
+      throw new HAHttpException("Unknown error", -1, uri, null, ee.getCause());
+    }
+  }
+
+  /** GETs {@code path}, retrying transient failures; done once a 2xx response's headers are in. */
+  private CompletableFuture<HttpResponse<InputStream>> request(String path, Trace trace) {
+    final var uri = resolve(path);
+    var rb =
+        HttpRequest.newBuilder(uri)
+            .timeout(cfg.requestTimeout())
+            .header("Authorization", "Bearer " + cfg.token())
+            .header("Accept", "application/json");
+    if (cfg.compression()) rb.header("Accept-Encoding", "gzip, deflate");
+    return send(uri, rb.GET().build(), 1, trace);
+  }
+
+  /**
+   * One attempt; on a transient failure schedules the next one on a delayed executor instead of
+   * sleeping, so no thread is parked while waiting out a backoff or {@code Retry-After}.
+   */
+  private CompletableFuture<HttpResponse<InputStream>> send(
+      URI uri, HttpRequest req, int attempt, Trace trace) {
+    trace.attempts = attempt;
+    if (!breaker.tryAcquire()) {
+      rejected.increment();
+      return CompletableFuture.failedFuture(
+          new HAHttpException("Circuit open, not calling " + uri, 0, uri.toString(), null));
+    }
+    var sent = System.nanoTime();
+    return http.sendAsync(req, BODY)
+        .handle(
+            (res, err) -> {
+              trace.headersAt = System.nanoTime();
+              trace.firstByteNanos = trace.headersAt - sent;
+              return outcome(uri, req, attempt, trace, res, err);
+            })
+        .thenCompose(Function.identity());
+  }
+
+  private CompletableFuture<HttpResponse<InputStream>> outcome(
+      URI uri,
+      HttpRequest req,
+      int attempt,
+      Trace trace,
+      HttpResponse<InputStream> res,
+      Throwable err) {
+    if (err != null) {
+      breaker.failure();
+      var cause = err instanceof CompletionException ce ? ce.getCause() : err;
+      var failure = new HAHttpException("I/O error calling " + uri, 0, uri.toString(), null, cause);
+      return retry(uri, req, attempt, trace, failure, null);
+    }
+
+    var code = res.statusCode();
+    if (code >= 200 && code < 300) {
+      breaker.success();
+      return CompletableFuture.completedFuture(res);
+    }
+
+    var body = errorBody(res);
+    if (!isTransient(code)) {
+      breaker.success();
+      return CompletableFuture.failedFuture(
+          new HAHttpException("HTTP " + code + " from " + uri, code, uri.toString(), body));
+    }
+
+    breaker.failure();
+    var retryAfter =
+        res.headers().firstValue("Retry-After").flatMap(v -> retryAfter(v, Instant.now()));
+    var failure = new HAHttpException("Transient HTTP " + code, code, uri.toString(), body);
+    return retry(uri, req, attempt, trace, failure, retryAfter.orElse(null));
+  }
+
+  private CompletableFuture<HttpResponse<InputStream>> retry(
+      URI uri,
+      HttpRequest req,
+      int attempt,
+      Trace trace,
+      HAHttpException failure,
+      Duration retryAfter) {
+    var policy = cfg.retry();
+    if (attempt > cfg.maxRetries()) return CompletableFuture.failedFuture(failure);
+    if (retryAfter != null && retryAfter.compareTo(policy.maxRetryAfter()) > 0)
+      return CompletableFuture.failedFuture(failure);
+
+    var delay = policy.backoff(attempt, ThreadLocalRandom.current().nextDouble());
+    if (retryAfter != null && retryAfter.compareTo(delay) > 0) delay = retryAfter;
+
+    retries.increment();
+    waitedNanos.add(delay.toNanos());
+    var later = CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS);
+    return CompletableFuture.runAsync(() -> {}, later)
+        .thenCompose(ignored -> send(uri, req, attempt + 1, trace));
+  }
+
+  /** {@code Retry-After} is either delay-seconds or an HTTP-date (RFC 9110 section 10.2.3). */
+  static Optional<Duration> retryAfter(String value, Instant now) {
+    var v = value.trim();
+    try {
+      if (!v.isEmpty() && v.chars().allMatch(Character::isDigit))
+        return Optional.of(Duration.ofSeconds(Long.parseLong(v)));
+      var at = ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+      var d = Duration.between(now, at);
+      return Optional.of(d.isNegative() ? Duration.ZERO : d);
+    } catch (DateTimeParseException | NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static String errorBody(HttpResponse<InputStream> res) {
+    try {
+      return drain(decode(res.body(), contentEncoding(res)));
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static String contentEncoding(HttpResponse<?> res) {
+    return res.headers()
+        .firstValue("Content-Encoding")
+        .map(v -> v.trim().toLowerCase(Locale.ROOT))
+        .orElse("identity");
+  }
+
+  /** Wraps {@code in} in a streaming decoder; nothing is buffered beyond the inflater window. */
+  private static InputStream decode(InputStream in, String encoding) throws IOException {
+    return switch (encoding) {
+      case "identity", "" -> in;
+      case "gzip", "x-gzip" -> new GZIPInputStream(in, DECODE_BUFFER);
+      case "deflate" -> inflate(in);
+      default -> {
+        in.close();
+        throw new UnsupportedEncodingException("Unsupported Content-Encoding: " + encoding);
+      }
+    };
+  }
+
+  /** HTTP "deflate" is meant to be zlib-wrapped, but some servers send a raw deflate stream. */
+  private static InputStream inflate(InputStream in) throws IOException {
+    var pb = new PushbackInputStream(in, 2);
+    var header = pb.readNBytes(2);
+    pb.unread(header);
+    var zlib =
+        header.length == 2
+            && (header[0] & 0x0F) == 8
+            && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+    return new InflaterInputStream(pb, new Inflater(!zlib), DECODE_BUFFER);
+  }
+
+  private static String drain(InputStream in) throws IOException {
+    try (in) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
   }
 
   private URI resolve(String path) {
@@ -84,12 +488,44 @@ public final class HAHttpClient implements HAClient {
     return status == 408 || status == 429 || status >= 500;
   }
 
-  private static void sleepBackoff(int attempt) {
-    var base = Math.min(1000L & (1L << Math.min(5, attempt - 1)), 8000L);
-    var jitter = ThreadLocalRandom.current().nextLong(0, 250);
-    try {
-      Thread.sleep(base + jitter);
-    } catch (InterruptedException ignored) {
+  /**
+   * Per-request timings. Written by the attempt chain and then by the reading thread; the future
+   * hand-off between them orders the writes.
+   */
+  private static final class Trace {
+    final long started = System.nanoTime();
+    int attempts;
+    long headersAt;
+    long firstByteNanos;
+    long sinkNanos;
+    long handedOff;
+    boolean bodyFailed;
+
+    RequestEvent event(
+        String path,
+        int status,
+        String encoding,
+        CountingInputStream wire,
+        CountingInputStream decoded,
+        boolean success) {
+      var now = System.nanoTime();
+      var total = now - started;
+      var network = wire != null ? wire.nanos() : 0;
+      var inDecoder = decoded != null ? decoded.nanos() : network;
+      var body = now - headersAt;
+      return new RequestEvent(
+          path,
+          status,
+          attempts,
+          encoding,
+          wire != null ? wire.count() : 0,
+          decoded != null ? decoded.count() : 0,
+          Duration.ofNanos(firstByteNanos),
+          Duration.ofNanos(network),
+          Duration.ofNanos(Math.max(0, inDecoder - network)),
+          Duration.ofNanos(wire != null ? Math.max(0, body - inDecoder - sinkNanos) : 0),
+          Duration.ofNanos(total),
+          success);
     }
   }
 }
@@ -0,0 +1,410 @@
+package io.pulseautomate.map.ha.client;
+
+import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.ha.json.JsonReader;
+import io.pulseautomate.map.ha.json.JsonWriter;
+import io.pulseautomate.map.ha.model.HARegistries;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * {@link HAClient} over Home Assistant's {@code /api/websocket}. A single authenticated connection
+ * is opened lazily and shared by all commands; responses are matched to requests by message id, so
+ * concurrent callers can have commands in flight at the same time.
+ *
+ * <p>Event listeners run on the WebSocket receive thread and should hand work off quickly.
+ * Subscriptions do not survive a dropped connection; {@link Subscription#done()} fails when it
+ * drops, so callers know to subscribe again.
+ */
+public final class HAWebSocketClient implements HAClient {
+
+  private final HAConfig cfg;
+  private final HttpClient http;
+  private final URI uri;
+
+  private final AtomicInteger ids = new AtomicInteger();
+  private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+  private final Map<Integer, Listener> listeners = new ConcurrentHashMap<>();
+
+  private Connection connection;
+
+  public HAWebSocketClient(HAConfig cfg) {
+    this.cfg = cfg;
+    this.http = HttpClient.newBuilder().connectTimeout(cfg.requestTimeout()).build();
+    this.uri = resolve(cfg.baseUrl());
+  }
+
+  @Override
+  public List<Map<String, Object>> fetchStates() throws HAHttpException {
+    var result = call(Map.of("type", "get_states"));
+    var out = new ArrayList<Map<String, Object>>();
+    if (result instanceof List<?> list) {
+      for (var it : list) if (it instanceof Map<?, ?> m) out.add(cast(m));
+    }
+    return out;
+  }
+
+  /**
+   * Returns services in the same shape as {@code /api/services}: one {@code {domain, services}}
+   * entry per domain.
+   */
+  @Override
+  public List<Map<String, Object>> fetchServices() throws HAHttpException {
+    var result = call(Map.of("type", "get_services"));
+    var out = new ArrayList<Map<String, Object>>();
+    if (result instanceof Map<?, ?> byDomain) {
+      byDomain.forEach(
+          (domain, services) -> {
+            var entry = new LinkedHashMap<String, Object>();
+            entry.put("domain", domain);
+            entry.put("services", services);
+            out.add(entry);
+          });
+    }
+    return out;
+  }
+
+  /** Fetches the entity, device and area registries, with all three commands in flight at once. */
+  public HARegistries fetchRegistries() throws HAHttpException {
+    var entities = callAsync(Map.of("type", "config/entity_registry/list"));
+    var devices = callAsync(Map.of("type", "config/device_registry/list"));
+    var areas = callAsync(Map.of("type", "config/area_registry/list"));
+    return HARegistries.from(
+        await(entities, "config/entity_registry/list"),
+        await(devices, "config/device_registry/list"),
+        await(areas, "config/area_registry/list"));
+  }
+
+  /** Sends an arbitrary command and waits for its {@code result} payload. */
+  public Object call(Map<String, Object> command) throws HAHttpException {
+    return await(callAsync(command), String.valueOf(command.get("type")));
+  }
+
+  public CompletableFuture<Object> callAsync(Map<String, Object> command) throws HAHttpException {
+    var future = new CompletableFuture<Object>();
+    connect().send(command, future, null);
+    return future;
+  }
+
+  /** Subscribes to raw events; {@code eventType} may be {@code null} for all events. */
+  public Subscription subscribeEvents(String eventType, Consumer<Map<String, Object>> listener)
+      throws HAHttpException {
+    var command = new LinkedHashMap<String, Object>();
+    command.put("type", "subscribe_events");
+    if (eventType != null) command.put("event_type", eventType);
+
+    var future = new CompletableFuture<Object>();
+    var subscribed = new Listener(listener, new CompletableFuture<>());
+    var id = connect().send(command, future, subscribed);
+    try {
+      await(future, "subscribe_events");
+    } catch (HAHttpException e) {
+      listeners.remove(id);
+      throw e;
+    }
+    return new Subscription(id, subscribed.done);
+  }
+
+  public Subscription subscribeStateChanges(Consumer<StateChange> listener)
+      throws HAHttpException {
+    return subscribeEvents(
+        "state_changed",
+        event -> {
+          if (!(event.get("data") instanceof Map<?, ?> data)) return;
+          listener.accept(
+              new StateChange(
+                  String.valueOf(data.get("entity_id")),
+                  data.get("old_state") instanceof Map<?, ?> o ? cast(o) : null,
+                  data.get("new_state") instanceof Map<?, ?> n ? cast(n) : null));
+        });
+  }
+
+  @Override
+  public void close() {
+    Connection conn;
+    synchronized (this) {
+      conn = connection;
+      connection = null;
+    }
+    if (conn != null) conn.close();
+    var error = new HAHttpException("Connection closed", 0, uri.toString(), null);
+    failPending(error);
+    endSubscriptions(error);
+  }
+
+  public final class Subscription implements AutoCloseable {
+    private final int id;
+    private final CompletableFuture<Void> done;
+
+    private Subscription(int id, CompletableFuture<Void> done) {
+      this.id = id;
+      this.done = done;
+    }
+
+    public int id() {
+      return id;
+    }
+
+    /**
+     * Completes when the subscription is closed, or fails with an {@link HAHttpException} when the
+     * connection it was made on drops; no more events arrive either way.
+     */
+    public CompletableFuture<Void> done() {
+      return done;
+    }
+
+    @Override
+    public void close() throws HAHttpException {
+      if (listeners.remove(id) == null) return;
+      done.complete(null);
+      call(Map.of("type", "unsubscribe_events", "subscription", id));
+    }
+  }
+
+  private record Listener(Consumer<Map<String, Object>> events, CompletableFuture<Void> done) {}
+
+  private synchronized Connection connect() throws HAHttpException {
+    if (connection != null && connection.isOpen()) return connection;
+
+    var conn = new Connection();
+    try {
+      http.newWebSocketBuilder()
+          .connectTimeout(cfg.requestTimeout())
+          .buildAsync(uri, conn)
+          .get(cfg.requestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      throw new HAHttpException("Could not connect to " + uri, 0, uri.toString(), null, cause(e));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HAHttpException("Interrupted connecting to " + uri, 0, uri.toString(), null, e);
+    }
+
+    try {
+      await(conn.authenticated, "auth");
+    } catch (HAHttpException e) {
+      conn.close();
+      throw e;
+    }
+    connection = conn;
+    return conn;
+  }
+
+  private Object await(CompletableFuture<Object> future, String what) throws HAHttpException {
+    try {
+      return future.get(cfg.requestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(false);
+      throw new HAHttpException("Timed out waiting for " + what, 0, uri.toString(), null, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof HAHttpException he) throw he;
+      throw new HAHttpException("Failed " + what, 0, uri.toString(), null, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HAHttpException("Interrupted waiting for " + what, 0, uri.toString(), null, e);
+    }
+  }
+
+  private void dispatch(Connection conn, Map<String, Object> msg) {
+    var type = String.valueOf(msg.get("type"));
+    switch (type) {
+      case "auth_required" ->
+          conn.send(JsonWriter.write(Map.of("type", "auth", "access_token", cfg.token())));
+      case "auth_ok" -> conn.authenticated.complete(msg.get("ha_version"));
+      case "auth_invalid" ->
+          conn.authenticated.completeExceptionally(
+              new HAHttpException(
+                  "Authentication rejected: " + msg.get("message"), 401, uri.toString(), null));
+      case "result" -> {
+        var future = pending.remove(idOf(msg));
+        if (future == null) return;
+        if (Boolean.TRUE.equals(msg.get("success"))) {
+          future.complete(msg.get("result"));
+        } else {
+          var error = msg.get("error") instanceof Map<?, ?> m ? m : Map.of();
+          future.completeExceptionally(
+              new HAHttpException(
+                  "Command failed: " + error.get("code") + " " + error.get("message"),
+                  0,
+                  uri.toString(),
+                  JsonWriter.write(error)));
+        }
+      }
+      case "event" -> {
+        var listener = listeners.get(idOf(msg));
+        if (listener != null && msg.get("event") instanceof Map<?, ?> event)
+          listener.events().accept(cast(event));
+      }
+      default -> {}
+    }
+  }
+
+  private void failPending(HAHttpException error) {
+    for (var id : List.copyOf(pending.keySet())) {
+      var future = pending.remove(id);
+      if (future != null) future.completeExceptionally(error);
+    }
+  }
+
+  private void endSubscriptions(HAHttpException error) {
+    for (var id : List.copyOf(listeners.keySet())) {
+      var listener = listeners.remove(id);
+      if (listener != null) listener.done().completeExceptionally(error);
+    }
+  }
+
+  private final class Connection implements WebSocket.Listener {
+    private final CompletableFuture<Object> authenticated = new CompletableFuture<>();
+    private final StringBuilder partial = new StringBuilder();
+    private CompletableFuture<WebSocket> sendChain;
+    private volatile WebSocket socket;
+
+    boolean isOpen() {
+      var ws = socket;
+      return ws != null && !ws.isOutputClosed() && !ws.isInputClosed();
+    }
+
+    /**
+     * Sends {@code command} under the next message id and returns the id. HA rejects an id that is
+     * not above the last one, so the id is taken, registered and its frame queued under one lock.
+     */
+    synchronized int send(
+        Map<String, Object> command, CompletableFuture<Object> future, Listener listener) {
+      var id = ids.incrementAndGet();
+      // Register before sending: HA may emit events immediately after the result frame.
+      if (listener != null) listeners.put(id, listener);
+      pending.put(id, future);
+      send(message(id, command))
+          .whenComplete(
+              (ws, err) -> {
+                if (err != null && pending.remove(id) != null)
+                  future.completeExceptionally(
+                      new HAHttpException("Send failed to " + uri, 0, uri.toString(), null, err));
+              });
+      return id;
+    }
+
+    /** Queues a text frame; the JDK WebSocket only allows one outstanding send at a time. */
+    synchronized CompletableFuture<WebSocket> send(String text) {
+      // Recover from a failed predecessor so one bad frame does not wedge the queue.
+      sendChain = sendChain.handle((ws, err) -> socket).thenCompose(ws -> ws.sendText(text, true));
+      return sendChain;
+    }
+
+    void close() {
+      var ws = socket;
+      if (ws == null) return;
+      synchronized (this) {
+        sendChain = sendChain.thenCompose(w -> w.sendClose(WebSocket.NORMAL_CLOSURE, ""));
+      }
+      try {
+        sendChain.get(cfg.requestTimeout().toMillis(), TimeUnit.MILLISECONDS);
+      } catch (Exception ignored) {
+        ws.abort();
+      }
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+      socket = webSocket;
+      synchronized (this) {
+        sendChain = CompletableFuture.completedFuture(webSocket);
+      }
+      webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+      partial.append(data);
+      if (last) {
+        var text = partial.toString();
+        partial.setLength(0);
+        try {
+          for (var msg : parse(text)) dispatch(this, msg);
+        } catch (IOException e) {
+          // the connection is still up, so subscriptions carry on; only the calls are lost
+          failPending(
+              new HAHttpException("Malformed message from " + uri, 0, uri.toString(), text, e));
+        }
+      }
+      webSocket.request(1);
+      return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+      var error =
+          new HAHttpException(
+              "Connection closed: " + statusCode + " " + reason, 0, uri.toString(), null);
+      authenticated.completeExceptionally(error);
+      failPending(error);
+      endSubscriptions(error);
+      return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+      var failure =
+          new HAHttpException("WebSocket error on " + uri, 0, uri.toString(), null, error);
+      authenticated.completeExceptionally(failure);
+      failPending(failure);
+      endSubscriptions(failure);
+    }
+  }
+
+  /** HA may coalesce several messages into one JSON array frame. */
+  private static List<Map<String, Object>> parse(String text) throws IOException {
+    try (var reader = new JsonReader(new StringReader(text))) {
+      if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+        var out = new ArrayList<Map<String, Object>>();
+        reader.beginArray();
+        while (reader.hasNext()) out.add(reader.readObject());
+        reader.endArray();
+        return out;
+      }
+      return List.of(reader.readObject());
+    }
+  }
+
+  private static String message(int id, Map<String, Object> command) {
+    var msg = new LinkedHashMap<String, Object>();
+    msg.put("id", id);
+    msg.putAll(command);
+    return JsonWriter.write(msg);
+  }
+
+  private static int idOf(Map<String, Object> msg) {
+    return msg.get("id") instanceof Number n ? n.intValue() : -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> cast(Map<?, ?> map) {
+    return (Map<String, Object>) map;
+  }
+
+  private static Throwable cause(Exception e) {
+    return e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private static URI resolve(URI base) {
+    var s = base.toString();
+    if (s.startsWith("https://")) s = "wss://" + s.substring("https://".length());
+    else if (s.startsWith("http://")) s = "ws://" + s.substring("http://".length());
+    if (!s.endsWith("/")) s += "/";
+    return URI.create(s + "api/websocket");
+  }
+}
@@ -0,0 +1,86 @@
+package io.pulseautomate.map.ha.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** Costs one {@code isEnabled()} check per request unless a recording is running. */
+final class JfrRequestListener implements RequestListener {
+  static final JfrRequestListener INSTANCE = new JfrRequestListener();
+
+  private JfrRequestListener() {}
+
+  @Override
+  public void onRequest(RequestEvent e) {
+    var jfr = new HARequest();
+    if (!jfr.isEnabled()) return;
+    jfr.path = e.path();
+    jfr.status = e.status();
+    jfr.attempts = e.attempts();
+    jfr.contentEncoding = e.contentEncoding();
+    jfr.wireBytes = e.wireBytes();
+    jfr.decodedBytes = e.decodedBytes();
+    jfr.timeToFirstByte = e.timeToFirstByte().toNanos();
+    jfr.network = e.network().toNanos();
+    jfr.decode = e.decode().toNanos();
+    jfr.parse = e.parse().toNanos();
+    jfr.total = e.total().toNanos();
+    jfr.success = e.success();
+    jfr.commit();
+  }
+
+  @Name("io.pulseautomate.ha.Request")
+  @Label("Home Assistant Request")
+  @Category({"Pulse Map", "Home Assistant"})
+  @Description("One REST request to Home Assistant, including retries")
+  @StackTrace(false)
+  static final class HARequest extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Status")
+    int status;
+
+    @Label("Attempts")
+    int attempts;
+
+    @Label("Content Encoding")
+    String contentEncoding;
+
+    @Label("Wire Bytes")
+    @DataAmount
+    long wireBytes;
+
+    @Label("Decoded Bytes")
+    @DataAmount
+    long decodedBytes;
+
+    @Label("Time To First Byte")
+    @Timespan
+    long timeToFirstByte;
+
+    @Label("Network")
+    @Timespan
+    long network;
+
+    @Label("Decode")
+    @Timespan
+    long decode;
+
+    @Label("Parse")
+    @Timespan
+    long parse;
+
+    @Label("Total")
+    @Timespan
+    long total;
+
+    @Label("Success")
+    boolean success;
+  }
+}
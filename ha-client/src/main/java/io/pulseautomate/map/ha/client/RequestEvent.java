@@ -0,0 +1,30 @@
+package io.pulseautomate.map.ha.client;
+
+import java.time.Duration;
+
+/**
+ * Timing of one logical {@link HAHttpClient} request, including its retries. The body phases
+ * overlap on the wire but not on the reading thread, so {@code network + decode + parse} is the
+ * time the caller spent pulling the body, minus the time spent in its own sink.
+ *
+ * @param status final HTTP status, or 0 when no response arrived
+ * @param attempts attempts made; {@code attempts - 1} were retries
+ * @param timeToFirstByte from sending the final attempt until its response headers arrived
+ * @param network time blocked reading the body from the connection
+ * @param decode time spent decompressing, on top of {@code network}
+ * @param parse time spent in the JSON reader
+ * @param total from the first attempt until the body was consumed or the request failed
+ */
+public record RequestEvent(
+    String path,
+    int status,
+    int attempts,
+    String contentEncoding,
+    long wireBytes,
+    long decodedBytes,
+    Duration timeToFirstByte,
+    Duration network,
+    Duration decode,
+    Duration parse,
+    Duration total,
+    boolean success) {}
@@ -0,0 +1,24 @@
+package io.pulseautomate.map.ha.client;
+
+/**
+ * Receives a {@link RequestEvent} after every {@link HAHttpClient} request, on the calling thread.
+ * Implementations must be cheap and must not throw.
+ */
+@FunctionalInterface
+public interface RequestListener {
+  void onRequest(RequestEvent event);
+
+  RequestListener NONE = event -> {};
+
+  /** Emits each request as a {@code io.pulseautomate.ha.Request} Flight Recorder event. */
+  static RequestListener jfr() {
+    return JfrRequestListener.INSTANCE;
+  }
+
+  default RequestListener andThen(RequestListener next) {
+    return event -> {
+      onRequest(event);
+      next.onRequest(event);
+    };
+  }
+}
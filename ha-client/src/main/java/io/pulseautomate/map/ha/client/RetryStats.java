@@ -0,0 +1,15 @@
+package io.pulseautomate.map.ha.client;
+
+import java.time.Duration;
+
+/**
+ * Retry counters for one {@link HAHttpClient}.
+ *
+ * @param requests logical requests, however many attempts each took
+ * @param retries attempts beyond the first
+ * @param waited total time spent waiting between attempts
+ * @param breakerOpens times the circuit breaker opened
+ * @param rejected requests failed fast because the circuit was open
+ */
+public record RetryStats(
+    long requests, long retries, Duration waited, long breakerOpens, long rejected) {}
@@ -0,0 +1,19 @@
+package io.pulseautomate.map.ha.client;
+
+import java.util.Map;
+
+/**
+ * A {@code state_changed} event. {@code oldState} is {@code null} for newly added entities and
+ * {@code newState} is {@code null} for removed ones.
+ */
+public record StateChange(
+    String entityId, Map<String, Object> oldState, Map<String, Object> newState) {
+
+  public boolean added() {
+    return oldState == null && newState != null;
+  }
+
+  public boolean removed() {
+    return newState == null;
+  }
+}
@@ -0,0 +1,16 @@
+package io.pulseautomate.map.ha.client;
+
+/**
+ * Byte counts for one response body.
+ *
+ * @param wireBytes bytes received from the network, before decompression
+ * @param decodedBytes bytes handed to the JSON parser
+ */
+public record TransferStats(
+    String path, int status, String contentEncoding, long wireBytes, long decodedBytes) {
+
+  /** Fraction of the decoded size that crossed the wire; 1.0 when uncompressed. */
+  public double ratio() {
+    return decodedBytes == 0 ? 1.0 : (double) wireBytes / decodedBytes;
+  }
+}
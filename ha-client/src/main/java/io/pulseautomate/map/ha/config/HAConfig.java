@@ -3,8 +3,43 @@ package io.pulseautomate.map.ha.config;
 import java.net.URI;
 import java.time.Duration;
 
-public record HAConfig(URI baseUrl, String token, Duration requestTimeout, int maxRetries) {
+/**
+ * Connection settings for Home Assistant.
+ *
+ * @param compression advertise {@code Accept-Encoding: gzip, deflate} and decode responses
+ * @param http2 negotiate HTTP/2 instead of pinning HTTP/1.1
+ * @param retry backoff and circuit-breaker settings for the {@code maxRetries} retries
+ */
+public record HAConfig(
+    URI baseUrl,
+    String token,
+    Duration requestTimeout,
+    int maxRetries,
+    boolean compression,
+    boolean http2,
+    RetryPolicy retry) {
+
+  public HAConfig {
+    if (retry == null) retry = RetryPolicy.defaults();
+  }
+
+  public HAConfig(URI baseUrl, String token, Duration requestTimeout, int maxRetries) {
+    this(baseUrl, token, requestTimeout, maxRetries, false, false, RetryPolicy.defaults());
+  }
+
   public static HAConfig of(URI baseUrl, String token) {
     return new HAConfig(baseUrl, token, Duration.ofSeconds(15), 2);
   }
+
+  public HAConfig withCompression(boolean compression) {
+    return new HAConfig(baseUrl, token, requestTimeout, maxRetries, compression, http2, retry);
+  }
+
+  public HAConfig withHttp2(boolean http2) {
+    return new HAConfig(baseUrl, token, requestTimeout, maxRetries, compression, http2, retry);
+  }
+
+  public HAConfig withRetry(int maxRetries, RetryPolicy retry) {
+    return new HAConfig(baseUrl, token, requestTimeout, maxRetries, compression, http2, retry);
+  }
 }
@@ -0,0 +1,48 @@
+package io.pulseautomate.map.ha.config;
+
+import java.time.Duration;
+
+/**
+ * How transient failures (408, 429, 5xx, I/O) are retried. The number of retries is {@link
+ * HAConfig#maxRetries()}; this record only shapes the waits between them.
+ *
+ * @param baseDelay wait before the first retry; doubled for each further one
+ * @param maxDelay cap on the exponential wait
+ * @param jitter fraction of each wait that is randomized, in {@code [0, 1]}
+ * @param maxRetryAfter give up instead of waiting when {@code Retry-After} asks for longer
+ * @param breakerThreshold consecutive failed attempts that open the circuit; 0 disables it
+ * @param breakerCooldown how long an open circuit rejects calls before letting one through
+ */
+public record RetryPolicy(
+    Duration baseDelay,
+    Duration maxDelay,
+    double jitter,
+    Duration maxRetryAfter,
+    int breakerThreshold,
+    Duration breakerCooldown) {
+
+  public RetryPolicy {
+    if (jitter < 0 || jitter > 1) throw new IllegalArgumentException("jitter must be in [0, 1]");
+    if (breakerThreshold < 0) throw new IllegalArgumentException("breakerThreshold must be >= 0");
+  }
+
+  public static RetryPolicy defaults() {
+    return new RetryPolicy(
+        Duration.ofMillis(500),
+        Duration.ofSeconds(8),
+        0.5,
+        Duration.ofSeconds(60),
+        5,
+        Duration.ofSeconds(30));
+  }
+
+  /**
+   * Wait before retry number {@code attempt} (1-based). {@code random} in {@code [0, 1)} removes up
+   * to {@code jitter} of the capped delay, so concurrent clients spread out.
+   */
+  public Duration backoff(int attempt, double random) {
+    var exp = baseDelay.toMillis() << Math.min(20, Math.max(0, attempt - 1));
+    var capped = Math.min(exp, maxDelay.toMillis());
+    return Duration.ofMillis(Math.round(capped * (1 - jitter * random)));
+  }
+}
@@ -0,0 +1,16 @@
+package io.pulseautomate.map.ha.json;
+
+import java.io.IOException;
+
+public final class JsonParseException extends IOException {
+  private final long offset;
+
+  public JsonParseException(String message, long offset) {
+    super(message + " at offset " + offset);
+    this.offset = offset;
+  }
+
+  public long offset() {
+    return offset;
+  }
+}
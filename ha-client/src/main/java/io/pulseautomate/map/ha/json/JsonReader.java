@@ -0,0 +1,402 @@
+package io.pulseautomate.map.ha.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal pull parser over a character stream. Only the value currently being read is held in
+ * memory, so arbitrarily large documents can be consumed element by element.
+ *
+ * <p>Materialized values are plain collections: {@link Map}, {@link List}, {@link String}, {@link
+ * Integer}/{@link Long}/{@link Double}, {@link Boolean} and {@code null}.
+ */
+public final class JsonReader implements Closeable {
+
+  public enum Token {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+  }
+
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_ARRAY = 2;
+  private static final int NONEMPTY_ARRAY = 3;
+  private static final int EMPTY_OBJECT = 4;
+  private static final int DANGLING_NAME = 5;
+  private static final int NONEMPTY_OBJECT = 6;
+
+  private final Reader in;
+  private final char[] buf = new char[8192];
+  private int pos;
+  private int limit;
+  private long consumed;
+
+  private int[] stack = new int[32];
+  private int depth;
+
+  private Token peeked;
+  private final StringBuilder scratch = new StringBuilder();
+
+  public JsonReader(InputStream in) {
+    this(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  public JsonReader(Reader in) {
+    this.in = in;
+    stack[depth++] = EMPTY_DOCUMENT;
+  }
+
+  public Token peek() throws IOException {
+    if (peeked == null) peeked = doPeek();
+    return peeked;
+  }
+
+  public boolean hasNext() throws IOException {
+    var t = peek();
+    return t != Token.END_ARRAY && t != Token.END_OBJECT && t != Token.END_DOCUMENT;
+  }
+
+  public void beginArray() throws IOException {
+    expect(Token.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  public void endArray() throws IOException {
+    expect(Token.END_ARRAY);
+    depth--;
+  }
+
+  public void beginObject() throws IOException {
+    expect(Token.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  public void endObject() throws IOException {
+    expect(Token.END_OBJECT);
+    depth--;
+  }
+
+  public String nextName() throws IOException {
+    expect(Token.NAME);
+    return readString();
+  }
+
+  public String nextString() throws IOException {
+    expect(Token.STRING);
+    return readString();
+  }
+
+  public Number nextNumber() throws IOException {
+    expect(Token.NUMBER);
+    return readNumber();
+  }
+
+  public boolean nextBoolean() throws IOException {
+    expect(Token.BOOLEAN);
+    if (peekChar() == 't') {
+      readLiteral("true");
+      return true;
+    }
+    readLiteral("false");
+    return false;
+  }
+
+  public void nextNull() throws IOException {
+    expect(Token.NULL);
+    readLiteral("null");
+  }
+
+  /** Reads the next value and materializes it into plain Java collections. */
+  public Object readValue() throws IOException {
+    return switch (peek()) {
+      case BEGIN_OBJECT -> readObject();
+      case BEGIN_ARRAY -> readArray();
+      case STRING -> nextString();
+      case NUMBER -> nextNumber();
+      case BOOLEAN -> nextBoolean();
+      case NULL -> {
+        nextNull();
+        yield null;
+      }
+      default -> throw syntaxError("Expected a value but was " + peeked);
+    };
+  }
+
+  public Map<String, Object> readObject() throws IOException {
+    beginObject();
+    var out = new LinkedHashMap<String, Object>();
+    while (hasNext()) {
+      var name = nextName();
+      out.put(name, readValue());
+    }
+    endObject();
+    return out;
+  }
+
+  public List<Object> readArray() throws IOException {
+    beginArray();
+    var out = new ArrayList<Object>();
+    while (hasNext()) out.add(readValue());
+    endArray();
+    return out;
+  }
+
+  /** Consumes the next value, including nested containers, without materializing it. */
+  public void skipValue() throws IOException {
+    var nesting = 0;
+    do {
+      switch (peek()) {
+        case BEGIN_ARRAY -> {
+          beginArray();
+          nesting++;
+        }
+        case BEGIN_OBJECT -> {
+          beginObject();
+          nesting++;
+        }
+        case END_ARRAY -> {
+          endArray();
+          nesting--;
+        }
+        case END_OBJECT -> {
+          endObject();
+          nesting--;
+        }
+        case NAME -> {
+          peeked = null;
+          skipString();
+        }
+        case STRING -> {
+          peeked = null;
+          skipString();
+        }
+        case NUMBER -> nextNumber();
+        case BOOLEAN -> nextBoolean();
+        case NULL -> nextNull();
+        case END_DOCUMENT -> throw syntaxError("Unexpected end of document");
+      }
+    } while (nesting > 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    peeked = null;
+    in.close();
+  }
+
+  private Token doPeek() throws IOException {
+    var top = stack[depth - 1];
+    switch (top) {
+      case EMPTY_ARRAY -> {
+        stack[depth - 1] = NONEMPTY_ARRAY;
+        if (nextNonWhitespace() == ']') return Token.END_ARRAY;
+        pos--;
+      }
+      case NONEMPTY_ARRAY -> {
+        var c = nextNonWhitespace();
+        if (c == ']') return Token.END_ARRAY;
+        if (c != ',') throw syntaxError("Expected ',' or ']' in array");
+      }
+      case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+        var c = nextNonWhitespace();
+        if (top == NONEMPTY_OBJECT) {
+          if (c == '}') return Token.END_OBJECT;
+          if (c != ',') throw syntaxError("Expected ',' or '}' in object");
+          c = nextNonWhitespace();
+        } else if (c == '}') {
+          return Token.END_OBJECT;
+        }
+        if (c != '"') throw syntaxError("Expected a quoted name");
+        stack[depth - 1] = DANGLING_NAME;
+        return Token.NAME;
+      }
+      case DANGLING_NAME -> {
+        if (nextNonWhitespace() != ':') throw syntaxError("Expected ':' after name");
+        stack[depth - 1] = NONEMPTY_OBJECT;
+      }
+      case EMPTY_DOCUMENT -> stack[depth - 1] = NONEMPTY_DOCUMENT;
+      case NONEMPTY_DOCUMENT -> {
+        if (!skipWhitespace()) return Token.END_DOCUMENT;
+        throw syntaxError("Trailing content after document");
+      }
+      default -> throw new IllegalStateException("Corrupt reader state " + top);
+    }
+
+    var c = nextNonWhitespace();
+    return switch (c) {
+      case '{' -> Token.BEGIN_OBJECT;
+      case '[' -> Token.BEGIN_ARRAY;
+      case '"' -> Token.STRING;
+      case 't', 'f' -> {
+        pos--;
+        yield Token.BOOLEAN;
+      }
+      case 'n' -> {
+        pos--;
+        yield Token.NULL;
+      }
+      default -> {
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          pos--;
+          yield Token.NUMBER;
+        }
+        throw syntaxError("Unexpected character '" + c + "'");
+      }
+    };
+  }
+
+  private void expect(Token expected) throws IOException {
+    var actual = peek();
+    if (actual != expected) throw syntaxError("Expected " + expected + " but was " + actual);
+    peeked = null;
+  }
+
+  private void push(int scope) {
+    if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+    stack[depth++] = scope;
+  }
+
+  /** Reads the remainder of a string whose opening quote was already consumed. */
+  private String readString() throws IOException {
+    // Fast path: the whole string is in the buffer and contains no escapes.
+    for (var i = pos; i < limit; i++) {
+      var c = buf[i];
+      if (c == '"') {
+        var s = new String(buf, pos, i - pos);
+        pos = i + 1;
+        return s;
+      }
+      if (c == '\\') break;
+    }
+
+    scratch.setLength(0);
+    while (true) {
+      var c = nextChar();
+      if (c == '"') return scratch.toString();
+      if (c == '\\') scratch.append(readEscape());
+      else scratch.append(c);
+    }
+  }
+
+  private void skipString() throws IOException {
+    while (true) {
+      var c = nextChar();
+      if (c == '"') return;
+      if (c == '\\') readEscape();
+    }
+  }
+
+  private char readEscape() throws IOException {
+    var c = nextChar();
+    return switch (c) {
+      case '"', '\\', '/' -> c;
+      case 'b' -> '\b';
+      case 'f' -> '\f';
+      case 'n' -> '\n';
+      case 'r' -> '\r';
+      case 't' -> '\t';
+      case 'u' -> {
+        var code = 0;
+        for (var i = 0; i < 4; i++) {
+          var d = Character.digit(nextChar(), 16);
+          if (d < 0) throw syntaxError("Invalid \\u escape");
+          code = (code << 4) | d;
+        }
+        yield (char) code;
+      }
+      default -> throw syntaxError("Invalid escape '\\" + c + "'");
+    };
+  }
+
+  private Number readNumber() throws IOException {
+    scratch.setLength(0);
+    var decimal = false;
+    while (fill()) {
+      var c = buf[pos];
+      if ((c >= '0' && c <= '9') || c == '-' || c == '+') {
+        scratch.append(c);
+      } else if (c == '.' || c == 'e' || c == 'E') {
+        scratch.append(c);
+        decimal = true;
+      } else {
+        break;
+      }
+      pos++;
+    }
+
+    var text = scratch.toString();
+    try {
+      if (!decimal && text.length() < 19) {
+        var l = Long.parseLong(text);
+        if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) return (int) l;
+        return l;
+      }
+      return Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Malformed number '" + text + "'");
+    }
+  }
+
+  private void readLiteral(String literal) throws IOException {
+    for (var i = 0; i < literal.length(); i++) {
+      if (nextChar() != literal.charAt(i)) throw syntaxError("Expected '" + literal + "'");
+    }
+  }
+
+  private char peekChar() throws IOException {
+    if (!fill()) throw syntaxError("Unexpected end of input");
+    return buf[pos];
+  }
+
+  private char nextChar() throws IOException {
+    if (!fill()) throw syntaxError("Unexpected end of input");
+    return buf[pos++];
+  }
+
+  private char nextNonWhitespace() throws IOException {
+    if (!skipWhitespace()) throw syntaxError("Unexpected end of input");
+    return buf[pos++];
+  }
+
+  /** Advances past whitespace; returns {@code false} at end of input. */
+  private boolean skipWhitespace() throws IOException {
+    while (fill()) {
+      var c = buf[pos];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return true;
+      pos++;
+    }
+    return false;
+  }
+
+  private boolean fill() throws IOException {
+    if (pos < limit) return true;
+    consumed += limit;
+    pos = 0;
+    limit = 0;
+    var n = in.read(buf, 0, buf.length);
+    if (n <= 0) return false;
+    limit = n;
+    return true;
+  }
+
+  private JsonParseException syntaxError(String message) {
+    return new JsonParseException(message, consumed + pos);
+  }
+}
@@ -0,0 +1,71 @@
+package io.pulseautomate.map.ha.json;
+
+import java.util.Map;
+
+/** Serializes plain collections (the shapes produced by {@link JsonReader}) back to JSON text. */
+public final class JsonWriter {
+  private JsonWriter() {}
+
+  public static String write(Object value) {
+    var sb = new StringBuilder();
+    append(sb, value);
+    return sb.toString();
+  }
+
+  public static void append(StringBuilder sb, Object value) {
+    if (value == null) {
+      sb.append("null");
+    } else if (value instanceof String s) {
+      quote(sb, s);
+    } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+      sb.append(value);
+    } else if (value instanceof Number n) {
+      var d = n.doubleValue();
+      if (Double.isNaN(d) || Double.isInfinite(d)) sb.append("null");
+      else sb.append(n);
+    } else if (value instanceof Map<?, ?> map) {
+      sb.append('{');
+      var first = true;
+      for (var e : map.entrySet()) {
+        if (!first) sb.append(',');
+        first = false;
+        quote(sb, String.valueOf(e.getKey()));
+        sb.append(':');
+        append(sb, e.getValue());
+      }
+      sb.append('}');
+    } else if (value instanceof Iterable<?> list) {
+      sb.append('[');
+      var first = true;
+      for (var it : list) {
+        if (!first) sb.append(',');
+        first = false;
+        append(sb, it);
+      }
+      sb.append(']');
+    } else {
+      quote(sb, value.toString());
+    }
+  }
+
+  public static void quote(StringBuilder sb, String s) {
+    sb.append('"');
+    for (var i = 0; i < s.length(); i++) {
+      var c = s.charAt(i);
+      switch (c) {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        case '\b' -> sb.append("\\b");
+        case '\f' -> sb.append("\\f");
+        default -> {
+          if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+          else sb.append(c);
+        }
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,252 @@
+package io.pulseautomate.map.ha.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable attributes of one HA state, stored as parallel arrays instead of a hash map.
+ *
+ * <p>Keys, list elements and the values of a few enum-like attributes such as units go through
+ * {@link StringDictionary#shared()}, so the same key or enum value across thousands of entities is
+ * one string and lookups with a constant key usually match by identity. Other string values, like
+ * names and readings, are mostly unique and are kept as they are. Numbers, and strings that parse
+ * as numbers, are kept as primitives next to the value, so {@link #number(String)} never parses or
+ * boxes.
+ */
+public final class HAAttributes {
+  private static final StringDictionary DICT = StringDictionary.shared();
+  private static final Set<String> ENUM_VALUED =
+      Set.of("unit_of_measurement", "temperature_unit", "device_class", "state_class");
+
+  public static final HAAttributes EMPTY = new Builder(0).build();
+
+  private static final byte OBJECT = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte NUMERIC_STRING = 3;
+
+  private final String[] keys;
+  private final Object[] refs;
+  private final long[] bits;
+  private final byte[] kinds;
+
+  private HAAttributes(String[] keys, Object[] refs, long[] bits, byte[] kinds) {
+    this.keys = keys;
+    this.refs = refs;
+    this.bits = bits;
+    this.kinds = kinds;
+  }
+
+  public static HAAttributes of(Map<String, ?> map) {
+    if (map == null || map.isEmpty()) return EMPTY;
+    var b = new Builder(map.size());
+    map.forEach(b::put);
+    return b.build();
+  }
+
+  public int size() {
+    return keys.length;
+  }
+
+  public boolean isEmpty() {
+    return keys.length == 0;
+  }
+
+  public String key(int i) {
+    return keys[i];
+  }
+
+  public boolean containsKey(String key) {
+    return indexOf(key) >= 0;
+  }
+
+  /** The value as the JSON parser would have produced it (Integer, Long, Double, String, List). */
+  public Object get(String key) {
+    var i = indexOf(key);
+    return i < 0 ? null : value(i);
+  }
+
+  public Object value(int i) {
+    return switch (kinds[i]) {
+      case LONG -> {
+        var l = bits[i];
+        if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) yield (int) l;
+        yield l;
+      }
+      case DOUBLE -> Double.longBitsToDouble(bits[i]);
+      default -> refs[i];
+    };
+  }
+
+  /** The numeric value of {@code key}, or {@code NaN} if it is absent or not a number. */
+  public double number(String key) {
+    var i = indexOf(key);
+    if (i < 0) return Double.NaN;
+    return switch (kinds[i]) {
+      case LONG -> bits[i];
+      case DOUBLE, NUMERIC_STRING -> Double.longBitsToDouble(bits[i]);
+      default -> Double.NaN;
+    };
+  }
+
+  /** {@code toString()} of the value, or null if it is absent or null. */
+  public String string(String key) {
+    var v = get(key);
+    return v == null ? null : v.toString();
+  }
+
+  /** Non-null elements of a list value as strings; empty if {@code key} is not a list. */
+  public List<String> strings(String key) {
+    if (!(get(key) instanceof List<?> list)) return List.of();
+    var out = new ArrayList<String>(list.size());
+    for (var it : list) if (it != null) out.add(it.toString());
+    return out;
+  }
+
+  public Map<String, Object> toMap() {
+    var out = new LinkedHashMap<String, Object>(keys.length * 4 / 3 + 1);
+    for (var i = 0; i < keys.length; i++) out.put(keys[i], value(i));
+    return out;
+  }
+
+  private int indexOf(String key) {
+    for (var i = 0; i < keys.length; i++) if (keys[i] == key) return i;
+    for (var i = 0; i < keys.length; i++) if (keys[i].equals(key)) return i;
+    return -1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof HAAttributes that
+        && Arrays.equals(keys, that.keys)
+        && Arrays.equals(refs, that.refs)
+        && Arrays.equals(bits, that.bits)
+        && Arrays.equals(kinds, that.kinds);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(keys) + Arrays.hashCode(bits);
+  }
+
+  @Override
+  public String toString() {
+    return toMap().toString();
+  }
+
+  /** Collects attributes in order; a repeated key replaces the earlier value, as JSON would. */
+  public static final class Builder {
+    private String[] keys;
+    private Object[] refs;
+    private long[] bits;
+    private byte[] kinds;
+    private int size;
+
+    public Builder() {
+      this(8);
+    }
+
+    public Builder(int capacity) {
+      keys = new String[capacity];
+      refs = new Object[capacity];
+      bits = new long[capacity];
+      kinds = new byte[capacity];
+    }
+
+    public Builder put(String key, Object value) {
+      if (isIntegral(value)) return putLong(key, ((Number) value).longValue());
+      if (value instanceof Number n) return putDouble(key, n.doubleValue());
+      if (value instanceof String str) {
+        var s = ENUM_VALUED.contains(key) ? DICT.intern(str) : str;
+        var d = parseNumber(s);
+        if (!Double.isNaN(d)) return slot(key, NUMERIC_STRING, s, Double.doubleToRawLongBits(d));
+        return slot(key, OBJECT, s, 0);
+      }
+      if (value instanceof List<?> list) return slot(key, OBJECT, immutable(list), 0);
+      if (value instanceof Map<?, ?> map) return slot(key, OBJECT, immutable(map), 0);
+      return slot(key, OBJECT, value, 0);
+    }
+
+    public Builder putLong(String key, long value) {
+      return slot(key, LONG, null, value);
+    }
+
+    public Builder putDouble(String key, double value) {
+      return slot(key, DOUBLE, null, Double.doubleToRawLongBits(value));
+    }
+
+    public HAAttributes build() {
+      if (size == 0 && EMPTY != null) return EMPTY;
+      return new HAAttributes(
+          Arrays.copyOf(keys, size),
+          Arrays.copyOf(refs, size),
+          Arrays.copyOf(bits, size),
+          Arrays.copyOf(kinds, size));
+    }
+
+    private Builder slot(String key, byte kind, Object ref, long bits) {
+      key = DICT.intern(key);
+      var i = 0;
+      while (i < size && !keys[i].equals(key)) i++;
+      if (i == size) {
+        if (size == keys.length) grow();
+        size++;
+      }
+      this.keys[i] = key;
+      this.refs[i] = ref;
+      this.bits[i] = bits;
+      this.kinds[i] = kind;
+      return this;
+    }
+
+    private void grow() {
+      var n = Math.max(8, keys.length * 2);
+      keys = Arrays.copyOf(keys, n);
+      refs = Arrays.copyOf(refs, n);
+      bits = Arrays.copyOf(bits, n);
+      kinds = Arrays.copyOf(kinds, n);
+    }
+  }
+
+  /** Parses plain decimal numbers ("21.5", "-3", "1e3"); anything else is NaN. */
+  private static double parseNumber(String s) {
+    if (s.isEmpty() || s.length() > 32) return Double.NaN;
+    var c = s.charAt(0);
+    if (!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.') return Double.NaN;
+    var last = s.charAt(s.length() - 1);
+    if (!(last >= '0' && last <= '9') && last != '.') return Double.NaN;
+    try {
+      return Double.parseDouble(s);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static boolean isIntegral(Object v) {
+    return v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte;
+  }
+
+  /**
+   * Copies {@code list} with its strings interned. {@code List.of} is the compact form but rejects
+   * nulls, which HA lists may contain.
+   */
+  private static List<?> immutable(List<?> list) {
+    var out = new Object[list.size()];
+    var hasNull = false;
+    var i = 0;
+    for (var it : list) {
+      hasNull |= it == null;
+      out[i++] = it instanceof String s ? DICT.intern(s) : it;
+    }
+    return hasNull ? Collections.unmodifiableList(Arrays.asList(out)) : List.of(out);
+  }
+
+  private static Map<?, ?> immutable(Map<?, ?> map) {
+    return Collections.unmodifiableMap(new LinkedHashMap<>(map));
+  }
+}
@@ -0,0 +1,89 @@
+package io.pulseautomate.map.ha.model;
+
+import io.pulseautomate.map.ha.json.JsonReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of Home Assistant's entity, device and area registries that the manifest uses, as
+ * returned by the websocket commands {@code config/entity_registry/list}, {@code
+ * config/device_registry/list} and {@code config/area_registry/list}.
+ */
+public record HARegistries(List<EntityEntry> entities, List<Device> devices, List<Area> areas) {
+  private static final StringDictionary DICT = StringDictionary.shared();
+
+  public static final HARegistries EMPTY = new HARegistries(List.of(), List.of(), List.of());
+
+  /** An entity registry entry; {@code deviceId} and {@code areaId} may be null. */
+  public record EntityEntry(String entityId, String deviceId, String areaId) {}
+
+  /** A device; {@code name} prefers the user's name over the integration's. */
+  public record Device(String id, String name, String manufacturer, String model, String areaId) {}
+
+  public record Area(String id, String name) {}
+
+  public HARegistries {
+    entities = List.copyOf(entities);
+    devices = List.copyOf(devices);
+    areas = List.copyOf(areas);
+  }
+
+  /** Builds from the raw {@code result} lists of the three registry commands. */
+  public static HARegistries from(Object entities, Object devices, Object areas) {
+    var e = new ArrayList<EntityEntry>();
+    for (var m : maps(entities)) {
+      var id = string(m, "entity_id");
+      if (id != null) e.add(new EntityEntry(id, string(m, "device_id"), string(m, "area_id")));
+    }
+    var d = new ArrayList<Device>();
+    for (var m : maps(devices)) {
+      var id = string(m, "id");
+      if (id == null) continue;
+      var name = string(m, "name_by_user");
+      d.add(
+          new Device(
+              id,
+              name != null ? name : string(m, "name"),
+              shared(m, "manufacturer"),
+              shared(m, "model"),
+              string(m, "area_id")));
+    }
+    var a = new ArrayList<Area>();
+    for (var m : maps(areas)) {
+      var id = string(m, "area_id");
+      if (id != null) a.add(new Area(id, string(m, "name")));
+    }
+    return new HARegistries(e, d, a);
+  }
+
+  /**
+   * Reads a local stand-in for the registries: one JSON object with {@code entities}, {@code
+   * devices} and {@code areas} lists, each in the websocket result format.
+   */
+  public static HARegistries read(Reader in) throws IOException {
+    var doc = new JsonReader(in).readObject();
+    return from(doc.get("entities"), doc.get("devices"), doc.get("areas"));
+  }
+
+  private static List<Map<?, ?>> maps(Object o) {
+    var out = new ArrayList<Map<?, ?>>();
+    if (o instanceof List<?> list) for (var it : list) if (it instanceof Map<?, ?> m) out.add(m);
+    return out;
+  }
+
+  private static String string(Map<?, ?> m, String key) {
+    return m.get(key) instanceof String s && !s.isEmpty() ? s : null;
+  }
+
+  /**
+   * Interned: only for the few values repeated across many devices. Ids and names are mostly
+   * unique and would take dictionary entries the attribute keys and values of states need.
+   */
+  private static String shared(Map<?, ?> m, String key) {
+    var s = string(m, key);
+    return s != null ? DICT.intern(s) : null;
+  }
+}
@@ -0,0 +1,157 @@
+package io.pulseautomate.map.ha.model;
+
+import io.pulseautomate.map.ha.json.JsonReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * One entry of {@code /api/states}, reduced to what discovery reads: the entity id (pre-split into
+ * domain and object id), the state string and the attributes. Timestamps and context are dropped.
+ */
+public final class HAState {
+  private static final StringDictionary DICT = StringDictionary.shared();
+
+  private final String entityId;
+  private final String domain;
+  private final String objectId;
+  private final String state;
+  private final HAAttributes attributes;
+
+  public HAState(String entityId, String state, HAAttributes attributes) {
+    this.entityId = entityId == null ? "" : entityId;
+    var dot = this.entityId.indexOf('.');
+    this.domain = DICT.intern(dot > 0 ? this.entityId.substring(0, dot) : this.entityId);
+    this.objectId = dot > 0 ? this.entityId.substring(dot + 1) : "";
+    this.state = state;
+    this.attributes = attributes == null ? HAAttributes.EMPTY : attributes;
+  }
+
+  /** Reads one state object without materializing intermediate maps. */
+  public static HAState read(JsonReader r) throws IOException {
+    return read(r, StateFilter.ALL);
+  }
+
+  /**
+   * Like {@link #read(JsonReader)}, but returns null for a state {@code filter} drops. HA sends
+   * {@code entity_id} first, so the attributes of a dropped state are skipped, not decoded.
+   */
+  public static HAState read(JsonReader r, StateFilter filter) throws IOException {
+    String entityId = null;
+    String state = null;
+    var attributes = HAAttributes.EMPTY;
+
+    r.beginObject();
+    while (r.hasNext()) {
+      switch (r.nextName()) {
+        case "entity_id" -> {
+          entityId = scalar(r);
+          if (!filter.keeps(entityId)) {
+            while (r.hasNext()) {
+              r.nextName();
+              r.skipValue();
+            }
+            r.endObject();
+            return null;
+          }
+        }
+        case "state" -> state = scalar(r);
+        case "attributes" -> attributes = readAttributes(r);
+        default -> r.skipValue();
+      }
+    }
+    r.endObject();
+    return new HAState(entityId, state, attributes);
+  }
+
+  public static HAState from(Map<String, Object> map) {
+    if (map == null) return new HAState("", null, HAAttributes.EMPTY);
+    var state = map.get("state");
+    @SuppressWarnings("unchecked")
+    var attributes = (Map<String, Object>) map.get("attributes");
+    return new HAState(
+        (String) map.getOrDefault("entity_id", ""),
+        state == null ? null : state.toString(),
+        HAAttributes.of(attributes));
+  }
+
+  public String entityId() {
+    return entityId;
+  }
+
+  public String domain() {
+    return domain;
+  }
+
+  public String objectId() {
+    return objectId;
+  }
+
+  public String state() {
+    return state;
+  }
+
+  public HAAttributes attributes() {
+    return attributes;
+  }
+
+  /** The {@code /api/states} shape: {@code entity_id}, {@code state} and {@code attributes}. */
+  public Map<String, Object> toMap() {
+    var out = new LinkedHashMap<String, Object>(4);
+    out.put("entity_id", entityId);
+    if (state != null) out.put("state", state);
+    out.put("attributes", attributes.toMap());
+    return out;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof HAState that
+        && entityId.equals(that.entityId)
+        && Objects.equals(state, that.state)
+        && attributes.equals(that.attributes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(entityId, state, attributes);
+  }
+
+  @Override
+  public String toString() {
+    return "HAState[" + entityId + "=" + state + ", " + attributes + "]";
+  }
+
+  private static String scalar(JsonReader r) throws IOException {
+    return switch (r.peek()) {
+      case STRING -> r.nextString();
+      case NULL -> {
+        r.nextNull();
+        yield null;
+      }
+      default -> String.valueOf(r.readValue());
+    };
+  }
+
+  private static HAAttributes readAttributes(JsonReader r) throws IOException {
+    if (r.peek() != JsonReader.Token.BEGIN_OBJECT) {
+      r.skipValue();
+      return HAAttributes.EMPTY;
+    }
+    var b = new HAAttributes.Builder();
+    r.beginObject();
+    while (r.hasNext()) {
+      var key = r.nextName();
+      if (r.peek() == JsonReader.Token.NUMBER) {
+        var n = r.nextNumber();
+        if (n instanceof Double d) b.putDouble(key, d);
+        else b.putLong(key, n.longValue());
+      } else {
+        b.put(key, r.readValue());
+      }
+    }
+    r.endObject();
+    return b.build();
+  }
+}
@@ -0,0 +1,133 @@
+package io.pulseautomate.map.ha.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Which states discovery keeps. A pattern without a dot names a domain ({@code light}); one with a
+ * dot is matched against the whole entity id, where {@code *} matches any run of characters and
+ * {@code ?} any one ({@code sensor.*_battery}). A state is kept if it matches an include pattern,
+ * or there are none, and matches no exclude pattern.
+ *
+ * <p>Only the entity id is needed, so readers test it as soon as {@code entity_id} has been read
+ * and skip the rest of a dropped state instead of decoding it.
+ */
+public final class StateFilter {
+  public static final StateFilter ALL = new StateFilter(List.of(), List.of());
+
+  private final List<String> include;
+  private final List<String> exclude;
+  private final Patterns in;
+  private final Patterns out;
+
+  private StateFilter(List<String> include, List<String> exclude) {
+    this.include = include;
+    this.exclude = exclude;
+    this.in = include.isEmpty() ? null : new Patterns(include);
+    this.out = exclude.isEmpty() ? null : new Patterns(exclude);
+  }
+
+  /**
+   * Patterns are de-duplicated and sorted, so equal filters print and record the same way.
+   *
+   * @throws IllegalArgumentException naming the first pattern that is empty or has whitespace
+   */
+  public static StateFilter of(Collection<String> include, Collection<String> exclude) {
+    if (include.isEmpty() && exclude.isEmpty()) return ALL;
+    return new StateFilter(normalize(include), normalize(exclude));
+  }
+
+  public boolean isAll() {
+    return in == null && out == null;
+  }
+
+  /** Whether a state with {@code entityId} is kept; null is treated as an empty id. */
+  public boolean keeps(String entityId) {
+    if (isAll()) return true;
+    var id = entityId == null ? "" : entityId;
+    return (in == null || in.matches(id)) && (out == null || !out.matches(id));
+  }
+
+  public List<String> include() {
+    return include;
+  }
+
+  public List<String> exclude() {
+    return exclude;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof StateFilter that
+        && include.equals(that.include)
+        && exclude.equals(that.exclude);
+  }
+
+  @Override
+  public int hashCode() {
+    return include.hashCode() * 31 + exclude.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "include=" + include + " exclude=" + exclude;
+  }
+
+  private static List<String> normalize(Collection<String> patterns) {
+    var out = new TreeSet<String>();
+    for (var p : patterns) {
+      if (p == null || p.isEmpty() || p.chars().anyMatch(Character::isWhitespace))
+        throw new IllegalArgumentException("invalid pattern \"" + p + "\"");
+      out.add(p);
+    }
+    return List.copyOf(out);
+  }
+
+  /** Plain domains and ids are hash lookups; globs share one compiled alternation. */
+  private static final class Patterns {
+    private final Set<String> domains = new HashSet<>();
+    private final Set<String> ids = new HashSet<>();
+    private final Pattern globs;
+
+    Patterns(List<String> patterns) {
+      var globbed = new ArrayList<String>();
+      for (var p : patterns) {
+        var wild = p.indexOf('*') >= 0 || p.indexOf('?') >= 0;
+        var domain = p.indexOf('.') < 0;
+        if (!wild) (domain ? domains : ids).add(p);
+        else globbed.add("(?:" + regex(p) + (domain ? "\\..*" : "") + ")");
+      }
+      globs = globbed.isEmpty() ? null : Pattern.compile(String.join("|", globbed));
+    }
+
+    boolean matches(String id) {
+      if (!domains.isEmpty()) {
+        var dot = id.indexOf('.');
+        if (dot > 0 && domains.contains(id.substring(0, dot))) return true;
+      }
+      return ids.contains(id) || (globs != null && globs.matcher(id).matches());
+    }
+
+    private static String regex(String glob) {
+      var sb = new StringBuilder();
+      var literal = new StringBuilder();
+      for (var i = 0; i < glob.length(); i++) {
+        var c = glob.charAt(i);
+        if (c != '*' && c != '?') {
+          literal.append(c);
+          continue;
+        }
+        if (!literal.isEmpty()) sb.append(Pattern.quote(literal.toString()));
+        literal.setLength(0);
+        sb.append(c == '*' ? ".*" : ".");
+      }
+      if (!literal.isEmpty()) sb.append(Pattern.quote(literal.toString()));
+      return sb.toString();
+    }
+  }
+}
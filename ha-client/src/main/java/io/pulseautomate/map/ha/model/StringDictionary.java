@@ -0,0 +1,80 @@
+package io.pulseautomate.map.ha.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe dictionary that collapses repeated short strings (attribute keys, domains,
+ * units, enum values) to one instance.
+ *
+ * <p>Canonical instances come from {@link String#intern()}, so they are identical to string
+ * constants in code. Strings longer than {@code maxLength}, and new strings once {@code maxEntries}
+ * is reached, are returned unchanged: unique values such as entity ids cannot grow it without
+ * limit.
+ */
+public final class StringDictionary {
+  public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+  public static final int DEFAULT_MAX_LENGTH = 64;
+
+  private static final StringDictionary SHARED =
+      new StringDictionary(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_LENGTH);
+
+  private final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+  private final int maxEntries;
+  private final int maxLength;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+
+  public StringDictionary(int maxEntries, int maxLength) {
+    if (maxEntries < 0 || maxLength < 0) throw new IllegalArgumentException("negative bound");
+    this.maxEntries = maxEntries;
+    this.maxLength = maxLength;
+  }
+
+  /** The process-wide dictionary used by parsing and manifest building. */
+  public static StringDictionary shared() {
+    return SHARED;
+  }
+
+  /** The canonical instance equal to {@code s}, or {@code s} itself if it is not admitted. */
+  public String intern(String s) {
+    if (s == null || s.length() > maxLength) return s;
+    var canon = map.get(s);
+    if (canon == null) {
+      misses.increment();
+      if (map.size() >= maxEntries) return s;
+      var interned = s.intern();
+      var prev = map.putIfAbsent(interned, interned);
+      canon = prev != null ? prev : interned;
+    }
+    if (canon != s) {
+      hits.increment();
+      bytesSaved.add(retainedSize(s));
+    }
+    return canon;
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  public Stats stats() {
+    return new Stats(map.size(), hits.sum(), misses.sum(), bytesSaved.sum());
+  }
+
+  /**
+   * Counters since the dictionary was created.
+   *
+   * @param entries distinct strings held
+   * @param hits lookups that returned an existing instance instead of the argument
+   * @param misses lookups of strings not yet in the dictionary
+   * @param bytesSaved estimated heap of the duplicate instances that were dropped
+   */
+  public record Stats(int entries, long hits, long misses, long bytesSaved) {}
+
+  /** Shallow String plus its backing array, assuming compact (Latin-1) strings and 8-byte align. */
+  static long retainedSize(String s) {
+    return 24 + ((16 + s.length() + 7) & ~7L);
+  }
+}
@@ -0,0 +1,32 @@
+package io.pulseautomate.map.ha.snapshot;
+
+/**
+ * Layout of a raw HA snapshot file.
+ *
+ * <pre>
+ * magic "PMSNAP" | u8 version | string ha_version | i64 captured_at_millis
+ * section services | section states
+ *
+ * section := i64 byte_length | varint count | value*
+ * value   := tag [payload]
+ * </pre>
+ *
+ * Strings are interned per section: the first occurrence is written inline and later ones as a
+ * varint back-reference, so repeated attribute keys and enum values cost a byte or two each.
+ */
+final class SnapshotFormat {
+  private SnapshotFormat() {}
+
+  static final byte[] MAGIC = {'P', 'M', 'S', 'N', 'A', 'P'};
+  static final int VERSION = 1;
+
+  static final byte T_NULL = 0;
+  static final byte T_FALSE = 1;
+  static final byte T_TRUE = 2;
+  static final byte T_INT = 3;
+  static final byte T_DOUBLE = 4;
+  static final byte T_STRING = 5;
+  static final byte T_STRING_REF = 6;
+  static final byte T_LIST = 7;
+  static final byte T_MAP = 8;
+}
@@ -0,0 +1,217 @@
+package io.pulseautomate.map.ha.snapshot;
+
+import static io.pulseautomate.map.ha.snapshot.SnapshotFormat.*;
+
+import io.pulseautomate.map.ha.model.StateFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Memory-mapped reader for files written by {@link SnapshotWriter}. Sections are decoded on demand
+ * from independent views of the mapping, so states and services may be read concurrently.
+ */
+public final class SnapshotReader {
+  private final ByteBuffer map;
+  private final String haVersion;
+  private final Instant capturedAt;
+  private final int servicesAt;
+  private final int statesAt;
+
+  private SnapshotReader(ByteBuffer map) throws IOException {
+    this.map = map;
+    var b = map.duplicate();
+
+    var magic = new byte[MAGIC.length];
+    b.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a pulse-map snapshot");
+    var version = b.get() & 0xFF;
+    if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+    this.haVersion = rawString(b);
+    this.capturedAt = Instant.ofEpochMilli(b.getLong());
+    this.servicesAt = b.position();
+    this.statesAt = Math.toIntExact(servicesAt + 8 + b.getLong(servicesAt));
+  }
+
+  public static SnapshotReader open(Path path) throws IOException {
+    try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (ch.size() > Integer.MAX_VALUE) throw new IOException("Snapshot larger than 2 GiB");
+      return new SnapshotReader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt snapshot " + path, e);
+    }
+  }
+
+  public String haVersion() {
+    return haVersion;
+  }
+
+  public Instant capturedAt() {
+    return capturedAt;
+  }
+
+  public List<Map<String, Object>> readStates() throws IOException {
+    var out = new ArrayList<Map<String, Object>>();
+    forEach(statesAt, StateFilter.ALL, out::add);
+    return out;
+  }
+
+  public List<Map<String, Object>> readServices() throws IOException {
+    var out = new ArrayList<Map<String, Object>>();
+    forEach(servicesAt, StateFilter.ALL, out::add);
+    return out;
+  }
+
+  /** Decodes states one at a time without materializing the whole section. */
+  public void forEachState(Consumer<? super Map<String, Object>> sink) throws IOException {
+    forEach(statesAt, StateFilter.ALL, sink);
+  }
+
+  /**
+   * Decodes only the states {@code filter} keeps. States are written with {@code entity_id} first,
+   * so the rest of a dropped state is stepped over without building its maps.
+   */
+  public void forEachState(StateFilter filter, Consumer<? super Map<String, Object>> sink)
+      throws IOException {
+    forEach(statesAt, filter, sink);
+  }
+
+  private void forEach(
+      int sectionAt, StateFilter filter, Consumer<? super Map<String, Object>> sink)
+      throws IOException {
+    try {
+      var b = map.duplicate().position(sectionAt + 8);
+      var count = varint(b);
+      var strings = new ArrayList<String>();
+      for (var i = 0L; i < count; i++) {
+        if (!filter.isAll() && dropped(b, strings, filter)) continue;
+        if (!(value(b, strings) instanceof Map<?, ?> m))
+          throw new IOException("Snapshot item " + i + " is not an object");
+        sink.accept(cast(m));
+      }
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt snapshot section at " + sectionAt, e);
+    }
+  }
+
+  private static Object value(ByteBuffer b, List<String> strings) throws IOException {
+    var tag = b.get();
+    return switch (tag) {
+      case T_NULL -> null;
+      case T_FALSE -> Boolean.FALSE;
+      case T_TRUE -> Boolean.TRUE;
+      case T_INT -> {
+        var z = varint(b);
+        var l = (z >>> 1) ^ -(z & 1);
+        if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) yield (int) l;
+        yield l;
+      }
+      case T_DOUBLE -> b.getDouble();
+      case T_STRING -> {
+        var s = rawString(b);
+        strings.add(s);
+        yield s;
+      }
+      case T_STRING_REF -> strings.get(Math.toIntExact(varint(b)));
+      case T_LIST -> {
+        var n = Math.toIntExact(varint(b));
+        var list = new ArrayList<Object>(n);
+        for (var i = 0; i < n; i++) list.add(value(b, strings));
+        yield list;
+      }
+      case T_MAP -> {
+        var n = Math.toIntExact(varint(b));
+        var m = new LinkedHashMap<String, Object>(Math.max(4, n * 4 / 3 + 1));
+        for (var i = 0; i < n; i++) {
+          if (!(value(b, strings) instanceof String key))
+            throw new IOException("Map key is not a string");
+          m.put(key, value(b, strings));
+        }
+        yield m;
+      }
+      default -> throw new IOException("Unknown tag " + tag + " at " + (b.position() - 1));
+    };
+  }
+
+  /**
+   * Steps over the item at the current position if it is an object whose leading {@code entity_id}
+   * {@code filter} drops; otherwise leaves the position and the string table as they were.
+   */
+  private static boolean dropped(ByteBuffer b, List<String> strings, StateFilter filter)
+      throws IOException {
+    var start = b.position();
+    var known = strings.size();
+    if (b.get() == T_MAP) {
+      var n = varint(b);
+      if (n > 0
+          && "entity_id".equals(value(b, strings))
+          && value(b, strings) instanceof String id
+          && !filter.keeps(id)) {
+        for (var i = 1L; i < n; i++) {
+          skip(b, strings);
+          skip(b, strings);
+        }
+        return true;
+      }
+    }
+    strings.subList(known, strings.size()).clear();
+    b.position(start);
+    return false;
+  }
+
+  /** Moves past one value, recording its strings so later references still resolve. */
+  private static void skip(ByteBuffer b, List<String> strings) throws IOException {
+    var tag = b.get();
+    switch (tag) {
+      case T_NULL, T_FALSE, T_TRUE -> {}
+      case T_INT, T_STRING_REF -> varint(b);
+      case T_DOUBLE -> b.position(b.position() + Double.BYTES);
+      case T_STRING -> strings.add(rawString(b));
+      case T_LIST -> {
+        var n = varint(b);
+        for (var i = 0L; i < n; i++) skip(b, strings);
+      }
+      case T_MAP -> {
+        var n = varint(b);
+        for (var i = 0L; i < n; i++) {
+          skip(b, strings);
+          skip(b, strings);
+        }
+      }
+      default -> throw new IOException("Unknown tag " + tag + " at " + (b.position() - 1));
+    }
+  }
+
+  private static String rawString(ByteBuffer b) {
+    var len = Math.toIntExact(varint(b));
+    var bytes = new byte[len];
+    b.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static long varint(ByteBuffer b) {
+    var result = 0L;
+    for (var shift = 0; shift < 64; shift += 7) {
+      var x = b.get();
+      result |= (long) (x & 0x7F) << shift;
+      if ((x & 0x80) == 0) return result;
+    }
+    throw new IllegalStateException("Malformed varint");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> cast(Map<?, ?> m) {
+    return (Map<String, Object>) m;
+  }
+}
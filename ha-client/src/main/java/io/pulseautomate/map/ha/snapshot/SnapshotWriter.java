@@ -0,0 +1,175 @@
+package io.pulseautomate.map.ha.snapshot;
+
+import static io.pulseautomate.map.ha.snapshot.SnapshotFormat.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Writes raw {@code /api/states} and {@code /api/services} payloads to a compact binary file. */
+public final class SnapshotWriter implements AutoCloseable {
+  private final FileChannel ch;
+  private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.BIG_ENDIAN);
+  private final Map<String, Integer> strings = new HashMap<>();
+  private long sectionStart = -1;
+
+  private SnapshotWriter(FileChannel ch) {
+    this.ch = ch;
+  }
+
+  public static void write(
+      Path path,
+      String haVersion,
+      Instant capturedAt,
+      List<Map<String, Object>> states,
+      List<Map<String, Object>> services)
+      throws IOException {
+    try (var w = open(path, haVersion, capturedAt)) {
+      w.beginSection(services.size());
+      for (var s : services) w.value(s);
+      w.endSection();
+
+      w.beginSection(states.size());
+      for (var s : states) w.value(s);
+      w.endSection();
+    }
+  }
+
+  static SnapshotWriter open(Path path, String haVersion, Instant capturedAt) throws IOException {
+    var parent = path.toAbsolutePath().getParent();
+    if (parent != null) Files.createDirectories(parent);
+    var ch =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    var w = new SnapshotWriter(ch);
+    w.bytes(MAGIC);
+    w.u8(VERSION);
+    w.rawString(haVersion == null ? "" : haVersion);
+    w.ensure(8);
+    w.buf.putLong(capturedAt.toEpochMilli());
+    return w;
+  }
+
+  void beginSection(int count) throws IOException {
+    flush();
+    sectionStart = ch.position();
+    ensure(8);
+    buf.putLong(0L);
+    varint(count);
+    strings.clear();
+  }
+
+  void endSection() throws IOException {
+    flush();
+    var end = ch.position();
+    var len = ByteBuffer.allocate(8).putLong(0, end - sectionStart - 8);
+    ch.write(len, sectionStart);
+    sectionStart = -1;
+  }
+
+  void value(Object v) throws IOException {
+    if (v == null) {
+      u8(T_NULL);
+    } else if (v instanceof Boolean b) {
+      u8(b ? T_TRUE : T_FALSE);
+    } else if (isIntegral(v)) {
+      u8(T_INT);
+      var l = ((Number) v).longValue();
+      varint((l << 1) ^ (l >> 63));
+    } else if (v instanceof Number n) {
+      u8(T_DOUBLE);
+      ensure(8);
+      buf.putDouble(n.doubleValue());
+    } else if (v instanceof Map<?, ?> m) {
+      u8(T_MAP);
+      varint(m.size());
+      for (var e : m.entrySet()) {
+        string(String.valueOf(e.getKey()));
+        value(e.getValue());
+      }
+    } else if (v instanceof List<?> list) {
+      u8(T_LIST);
+      varint(list.size());
+      for (var it : list) value(it);
+    } else {
+      string(v.toString());
+    }
+  }
+
+  private static boolean isIntegral(Object v) {
+    return v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte;
+  }
+
+  private void string(String s) throws IOException {
+    var ref = strings.get(s);
+    if (ref != null) {
+      u8(T_STRING_REF);
+      varint(ref);
+      return;
+    }
+    strings.put(s, strings.size());
+    u8(T_STRING);
+    rawString(s);
+  }
+
+  private void rawString(String s) throws IOException {
+    var b = s.getBytes(StandardCharsets.UTF_8);
+    varint(b.length);
+    bytes(b);
+  }
+
+  private void varint(long v) throws IOException {
+    ensure(10);
+    while ((v & ~0x7FL) != 0) {
+      buf.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    buf.put((byte) v);
+  }
+
+  private void u8(int b) throws IOException {
+    ensure(1);
+    buf.put((byte) b);
+  }
+
+  private void bytes(byte[] b) throws IOException {
+    var off = 0;
+    while (off < b.length) {
+      if (!buf.hasRemaining()) flush();
+      var n = Math.min(buf.remaining(), b.length - off);
+      buf.put(b, off, n);
+      off += n;
+    }
+  }
+
+  private void ensure(int n) throws IOException {
+    if (buf.remaining() < n) flush();
+  }
+
+  private void flush() throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) ch.write(buf);
+    buf.clear();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      ch.close();
+    }
+  }
+}
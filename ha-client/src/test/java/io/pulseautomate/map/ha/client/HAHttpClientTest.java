@@ -3,11 +3,21 @@ package io.pulseautomate.map.ha.client;
 import static org.assertj.core.api.Assertions.*;
 
 import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.ha.config.RetryPolicy;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
 import org.junit.jupiter.api.Test;
 
 class HAHttpClientTest {
@@ -72,6 +82,124 @@ class HAHttpClientTest {
     }
   }
 
+  @Test
+  void streamStates_delivers_each_state() throws Exception {
+    var body = new StringBuilder("[");
+    for (var i = 0; i < 1_000; i++) {
+      if (i > 0) body.append(',');
+      body.append("{\"entity_id\":\"light.l").append(i).append("\",\"attributes\":{}}");
+    }
+    body.append(']');
+
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().setResponseCode(200).setBody(body.toString()));
+      server.start();
+      var cfg =
+          new HAConfig(
+              URI.create(server.url("/").toString()), "TOKEN", java.time.Duration.ofSeconds(2), 0);
+      var client = new HAHttpClient(cfg);
+      var ids = new java.util.ArrayList<Object>();
+      client.streamStates(state -> ids.add(state.get("entity_id")));
+
+      assertThat(ids).hasSize(1_000).startsWith("light.l0").endsWith("light.l999");
+    }
+  }
+
+  @Test
+  void fetchHAStates_parsesIntoTypedStates() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(
+          new MockResponse().setResponseCode(200).setBody(readResource("fixtures/states.json")));
+      server.start();
+      var cfg =
+          new HAConfig(
+              URI.create(server.url("/").toString()), "TOKEN", java.time.Duration.ofSeconds(2), 0);
+      var client = new HAHttpClient(cfg);
+      var states = client.fetchHAStates();
+
+      assertThat(states).hasSize(1);
+      assertThat(states.getFirst().domain()).isEqualTo("light");
+      assertThat(states.getFirst().objectId()).isEqualTo("living_room");
+      assertThat(states.getFirst().attributes().number("brightness")).isEqualTo(180.0);
+    }
+  }
+
+  @Test
+  void malformedBody_isReported() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().setResponseCode(200).setBody("[{\"entity_id\":"));
+      server.start();
+      var cfg =
+          new HAConfig(
+              URI.create(server.url("/").toString()), "TOKEN", java.time.Duration.ofSeconds(2), 0);
+      var client = new HAHttpClient(cfg);
+      assertThatThrownBy(client::fetchStates)
+          .isInstanceOf(HAHttpException.class)
+          .hasMessageContaining("Malformed JSON");
+    }
+  }
+
+  @Test
+  void bodyCutOffInTransit_isRetried_butNotOnceStreamed() throws Exception {
+    var services = readResource("fixtures/services.json");
+    try (MockWebServer server = new MockWebServer()) {
+      for (var i = 0; i < 2; i++)
+        server.enqueue(
+            new MockResponse()
+                .setResponseCode(200)
+                .setBody(services)
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+      server.enqueue(new MockResponse().setResponseCode(200).setBody(services));
+      server.start();
+      var cfg =
+          new HAConfig(
+              URI.create(server.url("/").toString()), "TOKEN", java.time.Duration.ofSeconds(2), 2);
+      var client = new HAHttpClient(cfg);
+
+      assertThat(client.fetchServices()).isNotEmpty();
+      assertThat(server.getRequestCount()).isEqualTo(3);
+      assertThat(client.retryStats().retries()).isEqualTo(2);
+
+      server.enqueue(
+          new MockResponse()
+              .setResponseCode(200)
+              .setBody(readResource("fixtures/states.json"))
+              .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+      assertThatThrownBy(() -> client.streamStates(state -> {}))
+          .isInstanceOf(HAHttpException.class)
+          .hasMessageContaining("I/O error reading the body");
+    }
+  }
+
+  @Test
+  void compressedResponse_isDecoded_and_counted() throws Exception {
+    var json = readResource("fixtures/states.json").getBytes(StandardCharsets.UTF_8);
+    var gz = new okio.Buffer();
+    try (var out = new GZIPOutputStream(gz.outputStream())) {
+      out.write(json);
+    }
+
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(
+          new MockResponse()
+              .setResponseCode(200)
+              .setHeader("Content-Encoding", "gzip")
+              .setBody(gz));
+      server.start();
+      var cfg = HAConfig.of(URI.create(server.url("/").toString()), "TOKEN").withCompression(true);
+      var client = new HAHttpClient(cfg);
+      var states = client.fetchStates();
+
+      assertThat(states).hasSize(1);
+      assertThat(server.takeRequest().getHeader("Accept-Encoding")).contains("gzip");
+
+      var stats = client.transferStats().get("/api/states");
+      assertThat(stats.contentEncoding()).isEqualTo("gzip");
+      assertThat(stats.decodedBytes()).isEqualTo(json.length);
+      assertThat(stats.wireBytes()).isPositive().isLessThan(stats.decodedBytes());
+    }
+  }
+
   @Test
   void retriesOn500_thenSucceeds() throws Exception {
     try (MockWebServer server = new MockWebServer()) {
@@ -88,6 +216,29 @@ class HAHttpClientTest {
     }
   }
 
+  @Test
+  void streamHAStatesAsync_retriesWithoutBlockingTheCaller() throws Exception {
+    try (MockWebServer server = new MockWebServer();
+        var reader = Executors.newVirtualThreadPerTaskExecutor()) {
+      server.enqueue(new MockResponse().setResponseCode(503).setBody("busy"));
+      server.enqueue(
+          new MockResponse().setResponseCode(200).setBody(readResource("fixtures/states.json")));
+      server.start();
+      var cfg =
+          new HAConfig(
+              URI.create(server.url("/").toString()), "TOKEN", java.time.Duration.ofSeconds(2), 1);
+      var client = new HAHttpClient(cfg);
+      var states = new ArrayList<HAState>();
+
+      var done = client.streamHAStatesAsync(StateFilter.ALL, states::add, reader);
+      assertThat(done).isNotDone(); // the 503's backoff is still ahead
+      done.get(5, TimeUnit.SECONDS);
+
+      assertThat(states).extracting(HAState::entityId).containsExactly("light.living_room");
+      assertThat(client.retryStats().retries()).isEqualTo(1);
+    }
+  }
+
   @Test
   void authFailure401_noRetry() throws Exception {
     try (MockWebServer server = new MockWebServer()) {
@@ -102,4 +253,124 @@ class HAHttpClientTest {
           .hasMessageContaining("HTTP 401");
     }
   }
+
+  @Test
+  void retryAfter_isHonored_and_counted() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(
+          new MockResponse().setResponseCode(429).setHeader("Retry-After", "1").setBody("slow"));
+      server.enqueue(
+          new MockResponse().setResponseCode(200).setBody(readResource("fixtures/states.json")));
+      server.start();
+      var cfg = HAConfig.of(URI.create(server.url("/").toString()), "TOKEN");
+      var client = new HAHttpClient(cfg);
+
+      var started = System.nanoTime();
+      assertThat(client.fetchStates()).hasSize(1);
+      var elapsed = Duration.ofNanos(System.nanoTime() - started);
+
+      assertThat(elapsed).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+      var stats = client.retryStats();
+      assertThat(stats.requests()).isEqualTo(1);
+      assertThat(stats.retries()).isEqualTo(1);
+      assertThat(stats.waited()).isEqualTo(Duration.ofSeconds(1));
+    }
+  }
+
+  @Test
+  void retryAfter_beyondLimit_failsWithoutWaiting() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(
+          new MockResponse().setResponseCode(503).setHeader("Retry-After", "3600").setBody("x"));
+      server.start();
+      var cfg = HAConfig.of(URI.create(server.url("/").toString()), "TOKEN");
+      var client = new HAHttpClient(cfg);
+
+      assertThatThrownBy(client::fetchStates)
+          .isInstanceOf(HAHttpException.class)
+          .hasMessageContaining("Transient HTTP 503");
+      assertThat(server.getRequestCount()).isEqualTo(1);
+      assertThat(client.retryStats().retries()).isZero();
+    }
+  }
+
+  @Test
+  void retryAfter_acceptsSecondsAndHttpDates() {
+    var now = Instant.parse("2025-06-01T12:00:00Z");
+    assertThat(HAHttpClient.retryAfter("120", now)).contains(Duration.ofSeconds(120));
+    assertThat(HAHttpClient.retryAfter("Sun, 01 Jun 2025 12:00:30 GMT", now))
+        .contains(Duration.ofSeconds(30));
+    assertThat(HAHttpClient.retryAfter("Sun, 01 Jun 2025 11:00:00 GMT", now))
+        .contains(Duration.ZERO);
+    assertThat(HAHttpClient.retryAfter("soon", now)).isEmpty();
+  }
+
+  @Test
+  void backoff_growsExponentially_upToTheCap() {
+    var policy = RetryPolicy.defaults();
+    assertThat(policy.backoff(1, 0)).isEqualTo(Duration.ofMillis(500));
+    assertThat(policy.backoff(3, 0)).isEqualTo(Duration.ofSeconds(2));
+    assertThat(policy.backoff(10, 0)).isEqualTo(Duration.ofSeconds(8));
+    assertThat(policy.backoff(10, 0.999)).isBetween(Duration.ofSeconds(4), Duration.ofSeconds(8));
+  }
+
+  @Test
+  void circuitOpens_afterConsecutiveFailures() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      for (var i = 0; i < 4; i++) server.enqueue(new MockResponse().setResponseCode(502));
+      server.start();
+      var policy =
+          new RetryPolicy(
+              Duration.ofMillis(10),
+              Duration.ofMillis(50),
+              0.5,
+              Duration.ofSeconds(5),
+              2,
+              Duration.ofMinutes(1));
+      var cfg = HAConfig.of(URI.create(server.url("/").toString()), "TOKEN").withRetry(0, policy);
+      var client = new HAHttpClient(cfg);
+
+      for (var i = 0; i < 2; i++) {
+        assertThatThrownBy(client::fetchStates).hasMessageContaining("Transient HTTP 502");
+      }
+      assertThatThrownBy(client::fetchStates).hasMessageContaining("Circuit open");
+
+      assertThat(server.getRequestCount()).isEqualTo(2);
+      assertThat(client.retryStats().breakerOpens()).isEqualTo(1);
+      assertThat(client.retryStats().rejected()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void listener_receivesTimings_perRequest() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().setResponseCode(500).setBody("oops"));
+      server.enqueue(
+          new MockResponse().setResponseCode(200).setBody(readResource("fixtures/states.json")));
+      server.enqueue(new MockResponse().setResponseCode(404).setBody("nope"));
+      server.start();
+      var cfg =
+          new HAConfig(URI.create(server.url("/").toString()), "TOKEN", Duration.ofSeconds(2), 1);
+      var events = new java.util.concurrent.CopyOnWriteArrayList<RequestEvent>();
+      var client = new HAHttpClient(cfg, events::add);
+
+      client.fetchStates();
+      assertThatThrownBy(client::fetchServices).isInstanceOf(HAHttpException.class);
+
+      assertThat(events).hasSize(2);
+      var states = events.get(0);
+      assertThat(states.path()).isEqualTo("/api/states");
+      assertThat(states.success()).isTrue();
+      assertThat(states.status()).isEqualTo(200);
+      assertThat(states.attempts()).isEqualTo(2);
+      assertThat(states.decodedBytes()).isEqualTo(states.wireBytes()).isPositive();
+      assertThat(states.total()).isGreaterThan(states.timeToFirstByte());
+
+      var services = events.get(1);
+      assertThat(services.path()).isEqualTo("/api/services");
+      assertThat(services.success()).isFalse();
+      assertThat(services.status()).isEqualTo(404);
+      assertThat(services.attempts()).isEqualTo(1);
+    }
+  }
 }
@@ -0,0 +1,301 @@
+package io.pulseautomate.map.ha.client;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.assertj.core.api.InstanceOfAssertFactories.LIST;
+import static org.assertj.core.api.InstanceOfAssertFactories.MAP;
+
+import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.ha.json.JsonReader;
+import io.pulseautomate.map.ha.json.JsonWriter;
+import io.pulseautomate.map.ha.model.HARegistries;
+import java.io.StringReader;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+
+class HAWebSocketClientTest {
+
+  /** Minimal stand-in for Home Assistant's websocket API. */
+  private static final class FakeHomeAssistant extends WebSocketListener {
+    final List<String> commands = new CopyOnWriteArrayList<>();
+    final List<Number> ids = new CopyOnWriteArrayList<>();
+    volatile Object subscription;
+
+    @Override
+    public void onOpen(WebSocket ws, Response response) {
+      ws.send("{\"type\":\"auth_required\",\"ha_version\":\"2025.6.0\"}");
+    }
+
+    @Override
+    public void onMessage(WebSocket ws, String text) {
+      Map<String, Object> msg;
+      try {
+        msg = new JsonReader(new StringReader(text)).readObject();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+
+      var type = (String) msg.get("type");
+      var id = msg.get("id");
+      commands.add(type);
+      if (id instanceof Number n) ids.add(n);
+      switch (type) {
+        case "auth" ->
+            ws.send(
+                "TOKEN".equals(msg.get("access_token"))
+                    ? "{\"type\":\"auth_ok\",\"ha_version\":\"2025.6.0\"}"
+                    : "{\"type\":\"auth_invalid\",\"message\":\"Invalid access token\"}");
+        case "get_states" ->
+            ws.send(
+                result(
+                    id,
+                    List.of(
+                        Map.of(
+                            "entity_id",
+                            "light.living_room",
+                            "state",
+                            "on",
+                            "attributes",
+                            Map.of("brightness", 180)))));
+        case "get_services" ->
+            ws.send(
+                result(
+                    id,
+                    Map.of(
+                        "light",
+                        Map.of("turn_on", Map.of("fields", Map.of("brightness", Map.of()))))));
+        case "subscribe_events" -> {
+          subscription = id;
+          ws.send(result(id, null));
+          ws.send(kitchenTurnedOn(id));
+        }
+        // a frame that does not parse, then another event for the subscription
+        case "garbage" -> {
+          ws.send("{\"id\":" + id + ",\"type\":");
+          ws.send(kitchenTurnedOn(subscription));
+        }
+        case "shutdown" -> ws.close(1001, "restarting");
+        case "config/entity_registry/list" ->
+            ws.send(
+                result(
+                    id,
+                    List.of(
+                        Map.of("entity_id", "light.living_room", "device_id", "dev1"),
+                        Map.of("entity_id", "sensor.porch", "area_id", "porch"))));
+        case "config/device_registry/list" ->
+            ws.send(
+                result(
+                    id,
+                    List.of(
+                        Map.of(
+                            "id",
+                            "dev1",
+                            "name",
+                            "Hue bulb",
+                            "name_by_user",
+                            "Sofa lamp",
+                            "manufacturer",
+                            "Signify",
+                            "area_id",
+                            "living_room"))));
+        case "config/area_registry/list" ->
+            ws.send(
+                result(
+                    id,
+                    List.of(
+                        Map.of("area_id", "living_room", "name", "Living Room"),
+                        Map.of("area_id", "porch", "name", "Porch"))));
+        default -> ws.send(result(id, null));
+      }
+    }
+
+    private static String kitchenTurnedOn(Object id) {
+      return "{\"id\":"
+          + id
+          + ",\"type\":\"event\",\"event\":{\"event_type\":\"state_changed\",\"data\":"
+          + "{\"entity_id\":\"light.kitchen\",\"old_state\":null,"
+          + "\"new_state\":{\"entity_id\":\"light.kitchen\",\"state\":\"on\"}}}}";
+    }
+
+    private static String result(Object id, Object result) {
+      var msg = new LinkedHashMap<String, Object>();
+      msg.put("id", id);
+      msg.put("type", "result");
+      msg.put("success", true);
+      msg.put("result", result);
+      return JsonWriter.write(msg);
+    }
+  }
+
+  private static HAConfig config(MockWebServer server, String token) {
+    return new HAConfig(URI.create(server.url("/").toString()), token, Duration.ofSeconds(2), 0);
+  }
+
+  @Test
+  void fetches_states_and_services_over_one_connection() throws Exception {
+    var fake = new FakeHomeAssistant();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().withWebSocketUpgrade(fake));
+      server.start();
+
+      try (var client = new HAWebSocketClient(config(server, "TOKEN"))) {
+        var statesF = client.callAsync(Map.of("type", "get_states"));
+        var services = client.fetchServices();
+        var states = client.fetchStates();
+
+        assertThat(statesF.get(2, TimeUnit.SECONDS)).asInstanceOf(LIST).hasSize(1);
+        assertThat(states).hasSize(1);
+        assertThat(states.getFirst()).containsEntry("entity_id", "light.living_room");
+        assertThat(services).hasSize(1);
+        assertThat(services.getFirst()).containsEntry("domain", "light");
+        assertThat(services.getFirst().get("services")).asInstanceOf(MAP).containsKey("turn_on");
+      }
+
+      assertThat(server.getRequestCount()).isEqualTo(1);
+      assertThat(fake.commands).startsWith("auth").contains("get_states", "get_services");
+    }
+  }
+
+  @Test
+  void fetches_the_three_registries() throws Exception {
+    var fake = new FakeHomeAssistant();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().withWebSocketUpgrade(fake));
+      server.start();
+
+      try (var client = new HAWebSocketClient(config(server, "TOKEN"))) {
+        var registries = client.fetchRegistries();
+
+        assertThat(registries.entities())
+            .containsExactly(
+                new HARegistries.EntityEntry("light.living_room", "dev1", null),
+                new HARegistries.EntityEntry("sensor.porch", null, "porch"));
+        assertThat(registries.devices())
+            .containsExactly(
+                new HARegistries.Device("dev1", "Sofa lamp", "Signify", null, "living_room"));
+        assertThat(registries.areas())
+            .extracting(HARegistries.Area::id)
+            .containsExactly("living_room", "porch");
+      }
+
+      assertThat(fake.commands)
+          .contains(
+              "config/entity_registry/list",
+              "config/device_registry/list",
+              "config/area_registry/list");
+    }
+  }
+
+  @Test
+  void invalid_token_is_rejected() throws Exception {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().withWebSocketUpgrade(new FakeHomeAssistant()));
+      server.start();
+
+      try (var client = new HAWebSocketClient(config(server, "BAD"))) {
+        assertThatThrownBy(client::fetchStates)
+            .isInstanceOf(HAHttpException.class)
+            .hasMessageContaining("Authentication rejected");
+      }
+    }
+  }
+
+  @Test
+  void delivers_state_changed_events_until_unsubscribed() throws Exception {
+    var fake = new FakeHomeAssistant();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().withWebSocketUpgrade(fake));
+      server.start();
+
+      try (var client = new HAWebSocketClient(config(server, "TOKEN"))) {
+        var received = new CopyOnWriteArrayList<StateChange>();
+        var latch = new CountDownLatch(1);
+        var subscription =
+            client.subscribeStateChanges(
+                change -> {
+                  received.add(change);
+                  latch.countDown();
+                });
+
+        assertThat(latch.await(2, TimeUnit.SECONDS)).isTrue();
+        var change = received.getFirst();
+        assertThat(change.entityId()).isEqualTo("light.kitchen");
+        assertThat(change.added()).isTrue();
+        assertThat(change.newState()).containsEntry("state", "on");
+
+        subscription.close();
+        assertThat(fake.commands).contains("subscribe_events", "unsubscribe_events");
+      }
+    }
+  }
+
+  @Test
+  void concurrent_calls_put_their_ids_on_the_wire_in_order() throws Exception {
+    var fake = new FakeHomeAssistant();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().withWebSocketUpgrade(fake));
+      server.start();
+
+      try (var client = new HAWebSocketClient(config(server, "TOKEN"));
+          var pool = Executors.newFixedThreadPool(8)) {
+        var start = new CountDownLatch(1);
+        var calls = new ArrayList<Future<CompletableFuture<Object>>>();
+        for (var i = 0; i < 200; i++)
+          calls.add(
+              pool.submit(
+                  () -> {
+                    start.await();
+                    return client.callAsync(Map.of("type", "ping_me"));
+                  }));
+        start.countDown();
+        for (var call : calls) call.get(2, TimeUnit.SECONDS).get(2, TimeUnit.SECONDS);
+      }
+
+      assertThat(fake.ids).hasSize(200);
+      for (var i = 1; i < fake.ids.size(); i++)
+        assertThat(fake.ids.get(i).intValue()).isGreaterThan(fake.ids.get(i - 1).intValue());
+    }
+  }
+
+  @Test
+  void a_malformed_frame_keeps_subscriptions_and_a_dropped_connection_ends_them()
+      throws Exception {
+    var fake = new FakeHomeAssistant();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().withWebSocketUpgrade(fake));
+      server.start();
+
+      try (var client = new HAWebSocketClient(config(server, "TOKEN"))) {
+        var events = new CountDownLatch(2);
+        var subscription = client.subscribeStateChanges(change -> events.countDown());
+
+        var garbage = client.callAsync(Map.of("type", "garbage"));
+        assertThatThrownBy(() -> garbage.get(2, TimeUnit.SECONDS))
+            .hasCauseInstanceOf(HAHttpException.class)
+            .hasMessageContaining("Malformed message");
+        assertThat(events.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscription.done()).isNotDone();
+
+        client.callAsync(Map.of("type", "shutdown"));
+        assertThatThrownBy(() -> subscription.done().get(2, TimeUnit.SECONDS))
+            .hasCauseInstanceOf(HAHttpException.class)
+            .hasMessageContaining("Connection closed");
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package io.pulseautomate.map.ha.json;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class JsonReaderTest {
+
+  @Test
+  void reads_values_into_plain_collections() throws Exception {
+    var json =
+        "{\"i\":180,\"l\":12345678901,\"d\":-2.5e1,\"s\":\"a\\\"b\\u00e9\",\"n\":null,"
+            + "\"b\":[true,false],\"o\":{}}";
+    try (var reader = new JsonReader(new StringReader(json))) {
+      var value = reader.readObject();
+
+      assertThat(value)
+          .containsEntry("i", 180)
+          .containsEntry("l", 12345678901L)
+          .containsEntry("d", -25.0)
+          .containsEntry("s", "a\"bé")
+          .containsEntry("n", null)
+          .containsEntry("b", List.of(true, false))
+          .containsEntry("o", Map.of());
+      assertThat(reader.peek()).isEqualTo(JsonReader.Token.END_DOCUMENT);
+    }
+  }
+
+  @Test
+  void streams_array_elements_across_buffer_boundaries() throws Exception {
+    var sb = new StringBuilder("[");
+    for (var i = 0; i < 5_000; i++) {
+      if (i > 0) sb.append(',');
+      sb.append("{\"entity_id\":\"light.l").append(i).append("\",\"attributes\":{\"n\":");
+      sb.append(i).append("}}");
+    }
+    sb.append(']');
+
+    var in = new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    try (var reader = new JsonReader(in)) {
+      reader.beginArray();
+      var count = 0;
+      while (reader.hasNext()) {
+        var state = reader.readObject();
+        assertThat(state).containsEntry("entity_id", "light.l" + count);
+        count++;
+      }
+      reader.endArray();
+      assertThat(count).isEqualTo(5_000);
+    }
+  }
+
+  @Test
+  void skipValue_consumes_nested_containers() throws Exception {
+    var json = "{\"context\":{\"ids\":[1,{\"x\":\"}\"}]},\"entity_id\":\"fan.f\"}";
+    try (var reader = new JsonReader(new StringReader(json))) {
+      reader.beginObject();
+      assertThat(reader.nextName()).isEqualTo("context");
+      reader.skipValue();
+      assertThat(reader.nextName()).isEqualTo("entity_id");
+      assertThat(reader.nextString()).isEqualTo("fan.f");
+      reader.endObject();
+    }
+  }
+
+  @Test
+  void malformed_input_reports_offset() {
+    assertThatThrownBy(() -> new JsonReader(new StringReader("[1,]")).readValue())
+        .isInstanceOf(JsonParseException.class)
+        .hasMessageContaining("offset 4");
+  }
+}
@@ -0,0 +1,81 @@
+package io.pulseautomate.map.ha.model;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.json.JsonReader;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class HAStateTest {
+
+  private static HAState parse(String json) throws Exception {
+    try (var reader = new JsonReader(new StringReader(json))) {
+      return HAState.read(reader);
+    }
+  }
+
+  @Test
+  void reads_state_straight_from_json() throws Exception {
+    var state =
+        parse(
+            "{\"entity_id\":\"climate.living_room\",\"state\":\"heat\","
+                + "\"last_changed\":\"2025-06-01T10:00:00+00:00\",\"context\":{\"id\":\"x\"},"
+                + "\"attributes\":{\"min_temp\":7,\"max_temp\":35.5,\"target_temp_step\":\"0.5\","
+                + "\"hvac_modes\":[\"off\",\"heat\"],\"friendly_name\":\"Living\",\"icon\":null}}");
+
+    assertThat(state.entityId()).isEqualTo("climate.living_room");
+    assertThat(state.domain()).isEqualTo("climate");
+    assertThat(state.objectId()).isEqualTo("living_room");
+    assertThat(state.state()).isEqualTo("heat");
+
+    var a = state.attributes();
+    assertThat(a.size()).isEqualTo(6);
+    assertThat(a.number("min_temp")).isEqualTo(7.0);
+    assertThat(a.number("max_temp")).isEqualTo(35.5);
+    assertThat(a.number("target_temp_step")).isEqualTo(0.5);
+    assertThat(a.get("target_temp_step")).isEqualTo("0.5");
+    assertThat(a.number("friendly_name")).isNaN();
+    assertThat(a.number("missing")).isNaN();
+    assertThat(a.strings("hvac_modes")).containsExactly("off", "heat");
+    assertThat(a.containsKey("icon")).isTrue();
+    assertThat(a.string("icon")).isNull();
+  }
+
+  @Test
+  void attribute_keys_are_interned_across_states() throws Exception {
+    var one = parse("{\"entity_id\":\"light.a\",\"attributes\":{\"brightness\":1}}");
+    var two = parse("{\"entity_id\":\"light.b\",\"attributes\":{\"brightness\":2}}");
+
+    assertThat(one.attributes().key(0)).isSameAs(two.attributes().key(0)).isSameAs("brightness");
+    assertThat(one.domain()).isSameAs(two.domain());
+  }
+
+  @Test
+  void converts_from_and_to_maps() {
+    var attributes = new LinkedHashMap<String, Object>();
+    attributes.put("brightness", 180);
+    attributes.put("last_seen", 1_700_000_000_000L);
+    attributes.put("supported_color_modes", List.of("hs"));
+    var map =
+        Map.<String, Object>of("entity_id", "light.x", "state", "on", "attributes", attributes);
+
+    var state = HAState.from(map);
+
+    assertThat(state.toMap()).isEqualTo(map);
+    assertThat(state.attributes().number("last_seen")).isEqualTo(1.7e12);
+    assertThat(HAState.from(state.toMap())).isEqualTo(state);
+    assertThat(HAState.from(Map.of()).entityId()).isEmpty();
+  }
+
+  @Test
+  void later_duplicate_keys_replace_earlier_ones() {
+    var a = new HAAttributes.Builder().putLong("n", 1).put("s", "x").putDouble("n", 2.5).build();
+
+    assertThat(a.size()).isEqualTo(2);
+    assertThat(a.get("n")).isEqualTo(2.5);
+    assertThat(a.toMap()).containsExactly(entry("n", 2.5), entry("s", "x"));
+  }
+}
@@ -0,0 +1,72 @@
+package io.pulseautomate.map.ha.model;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.json.JsonReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StateFilterTest {
+
+  @Test
+  void matches_domains_ids_and_globs() {
+    var filter =
+        StateFilter.of(
+            List.of("light", "climate", "sensor.kitchen_*", "switch.porch"),
+            List.of("light.*_group", "sensor.kitchen_?"));
+
+    assertThat(filter.keeps("light.sofa")).isTrue();
+    assertThat(filter.keeps("light.downstairs_group")).isFalse();
+    assertThat(filter.keeps("lights.sofa")).isFalse();
+    assertThat(filter.keeps("climate.trv")).isTrue();
+    assertThat(filter.keeps("sensor.kitchen_temp")).isTrue();
+    assertThat(filter.keeps("sensor.kitchen_1")).isFalse();
+    assertThat(filter.keeps("sensor.hall_temp")).isFalse();
+    assertThat(filter.keeps("switch.porch")).isTrue();
+    assertThat(filter.keeps("switch.porch_2")).isFalse();
+    assertThat(filter.keeps(null)).isFalse();
+
+    var excludeOnly = StateFilter.of(List.of(), List.of("automation", "sens*"));
+    assertThat(excludeOnly.keeps("automation.wake_up")).isFalse();
+    assertThat(excludeOnly.keeps("sensor.power")).isFalse();
+    assertThat(excludeOnly.keeps("cover.garage")).isTrue();
+  }
+
+  @Test
+  void patterns_are_sorted_and_deduplicated() {
+    var a = StateFilter.of(List.of("light", "climate", "light"), List.of());
+    var b = StateFilter.of(List.of("climate", "light"), List.of());
+
+    assertThat(a).isEqualTo(b);
+    assertThat(a.include()).containsExactly("climate", "light");
+    assertThat(StateFilter.of(List.of(), List.of())).isSameAs(StateFilter.ALL);
+    assertThatThrownBy(() -> StateFilter.of(List.of("light", ""), List.of()))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("invalid pattern \"\"");
+  }
+
+  @Test
+  void parser_skips_dropped_states_and_stays_in_step() throws Exception {
+    var json =
+        "[{\"entity_id\":\"sensor.power\",\"state\":\"1\",\"attributes\":{\"unit\":\"W\","
+            + "\"history\":[1,2,{\"x\":[3]}]}},"
+            + "{\"entity_id\":\"light.sofa\",\"state\":\"on\",\"attributes\":{\"brightness\":9}},"
+            + "{\"entity_id\":\"automation.x\",\"attributes\":{}}]";
+    var filter = StateFilter.of(List.of("light"), List.of());
+
+    var kept = new ArrayList<HAState>();
+    try (var reader = new JsonReader(new StringReader(json))) {
+      reader.beginArray();
+      while (reader.hasNext()) {
+        var state = HAState.read(reader, filter);
+        if (state != null) kept.add(state);
+      }
+      reader.endArray();
+    }
+
+    assertThat(kept).extracting(HAState::entityId).containsExactly("light.sofa");
+    assertThat(kept.getFirst().attributes().number("brightness")).isEqualTo(9.0);
+  }
+}
@@ -0,0 +1,107 @@
+package io.pulseautomate.map.ha.model;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.json.JsonReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class StringDictionaryTest {
+
+  @Test
+  void returns_one_instance_and_counts_saved_bytes() {
+    var dict = new StringDictionary(16, 32);
+    var n = 7;
+    var first = dict.intern("preset_" + n);
+    var second = dict.intern("preset_" + n);
+
+    assertThat(second).isSameAs(first).isEqualTo("preset_7");
+    assertThat(dict.intern(new String("on"))).isSameAs("on");
+
+    var stats = dict.stats();
+    assertThat(stats.entries()).isEqualTo(2);
+    assertThat(stats.misses()).isEqualTo(2);
+    assertThat(stats.hits()).isEqualTo(2);
+    assertThat(stats.bytesSaved())
+        .isEqualTo(StringDictionary.retainedSize(first) + StringDictionary.retainedSize("on"));
+  }
+
+  @Test
+  void is_bounded_by_entries_and_length() {
+    var dict = new StringDictionary(2, 8);
+    var long1 = new String("much_longer_than_eight");
+    assertThat(dict.intern(long1)).isSameAs(long1);
+
+    dict.intern("a1");
+    dict.intern("a2");
+    var overflow = new String("a3");
+    assertThat(dict.intern(overflow)).isSameAs(overflow);
+    assertThat(dict.size()).isEqualTo(2);
+    assertThat(dict.intern(null)).isNull();
+  }
+
+  @Test
+  void parsed_units_and_list_values_share_instances_across_states() throws Exception {
+    var json =
+        "{\"entity_id\":\"climate.%s\",\"state\":\"heat\",\"attributes\":"
+            + "{\"hvac_modes\":[\"off\",\"heat\"],\"temperature_unit\":\"°C\"}}";
+    HAState one;
+    HAState two;
+    try (var r = new JsonReader(new StringReader(json.formatted("a")))) {
+      one = HAState.read(r);
+    }
+    try (var r = new JsonReader(new StringReader(json.formatted("b")))) {
+      two = HAState.read(r);
+    }
+
+    assertThat(one.attributes().get("temperature_unit"))
+        .isSameAs(two.attributes().get("temperature_unit"));
+    assertThat(one.attributes().strings("hvac_modes").get(1))
+        .isSameAs(two.attributes().strings("hvac_modes").get(1));
+  }
+
+  @Test
+  void states_and_free_form_values_are_not_interned() {
+    var before = StringDictionary.shared().stats().entries();
+    for (var i = 0; i < 2_000; i++)
+      new HAState(
+          "sensor.probe_" + i,
+          "21." + i,
+          new HAAttributes.Builder()
+              .put("friendly_name", "Probe " + i)
+              .put("unit_of_measurement", "°C")
+              .build());
+
+    assertThat(StringDictionary.shared().stats().entries() - before).isLessThanOrEqualTo(4);
+  }
+
+  @Test
+  void a_repeated_key_replaces_its_value_even_when_not_interned() {
+    var key = "k".repeat(100);
+    var attrs =
+        new HAAttributes.Builder().put(key, "first").put(new String(key), "second").build();
+
+    assertThat(attrs.size()).isEqualTo(1);
+    assertThat(attrs.get(key)).isEqualTo("second");
+  }
+
+  @Test
+  void registries_intern_makers_and_models_but_not_ids() {
+    var devices = new ArrayList<Map<String, Object>>();
+    for (var i = 0; i < 2_000; i++)
+      devices.add(
+          Map.of("id", "dev-" + i, "name", "Plug", "manufacturer", "IKEA", "model", "TRETAKT"));
+    var before = StringDictionary.shared().stats().entries();
+
+    var registries = HARegistries.from(List.of(), devices, List.of());
+
+    assertThat(StringDictionary.shared().stats().entries() - before).isLessThanOrEqualTo(2);
+    var first = registries.devices().get(0);
+    var last = registries.devices().get(1_999);
+    assertThat(last.manufacturer()).isSameAs(first.manufacturer());
+    assertThat(last.id()).isEqualTo("dev-1999");
+  }
+}
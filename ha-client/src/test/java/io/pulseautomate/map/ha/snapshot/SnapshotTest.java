@@ -0,0 +1,119 @@
+package io.pulseautomate.map.ha.snapshot;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.model.StateFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SnapshotTest {
+
+  @TempDir Path tmp;
+
+  @Test
+  void round_trips_states_and_services() throws Exception {
+    var attrs = new LinkedHashMap<String, Object>();
+    attrs.put("friendly_name", "Wohnzimmer °C");
+    attrs.put("brightness", 180);
+    attrs.put("last_seen", 1_700_000_000_000L);
+    attrs.put("offset", -3);
+    attrs.put("temperature", 21.5);
+    attrs.put("hvac_modes", List.of("off", "heat", "off"));
+    attrs.put("icon", null);
+    attrs.put("supported", true);
+    var state = new LinkedHashMap<String, Object>();
+    state.put("entity_id", "climate.living_room");
+    state.put("state", "heat");
+    state.put("attributes", attrs);
+
+    var service =
+        Map.<String, Object>of(
+            "domain",
+            "climate",
+            "services",
+            Map.of("set_hvac_mode", Map.of("fields", Map.of("hvac_mode", Map.of()))));
+
+    var file = tmp.resolve("home.snap");
+    var at = Instant.ofEpochMilli(1_750_000_000_123L);
+    SnapshotWriter.write(file, "2025.6", at, List.of(state), List.of(service));
+
+    var reader = SnapshotReader.open(file);
+    assertThat(reader.haVersion()).isEqualTo("2025.6");
+    assertThat(reader.capturedAt()).isEqualTo(at);
+    assertThat(reader.readStates()).containsExactly(state);
+    assertThat(reader.readServices()).containsExactly(service);
+  }
+
+  @Test
+  void repeated_strings_are_written_once() throws Exception {
+    var states = new ArrayList<Map<String, Object>>();
+    for (var i = 0; i < 1_000; i++) {
+      states.add(
+          Map.of(
+              "entity_id", "light.l" + i,
+              "state", "on",
+              "attributes", Map.of("color_mode", "color_temp", "friendly_name", "Light")));
+    }
+    var file = tmp.resolve("lights.snap");
+    SnapshotWriter.write(file, "2025.6", Instant.EPOCH, states, List.of());
+
+    assertThat(Files.size(file)).isLessThan(40_000);
+    var seen = new ArrayList<Map<String, Object>>();
+    SnapshotReader.open(file).forEachState(seen::add);
+    assertThat(seen).isEqualTo(states);
+  }
+
+  @Test
+  void filtered_read_skips_dropped_states() throws Exception {
+    var states = new ArrayList<Map<String, Object>>();
+    for (var i = 0; i < 100; i++) {
+      var attrs = new LinkedHashMap<String, Object>();
+      attrs.put("friendly_name", "Room " + i % 10);
+      attrs.put("levels", List.of(i, 0.5, "low", Map.of("nested", true)));
+      var state = new LinkedHashMap<String, Object>();
+      state.put("entity_id", (i % 3 == 0 ? "light.l" : "sensor.s") + i);
+      state.put("state", i % 2 == 0 ? "on" : null);
+      state.put("attributes", attrs);
+      states.add(state);
+    }
+    var file = tmp.resolve("mixed.snap");
+    SnapshotWriter.write(file, "2025.6", Instant.EPOCH, states, List.of());
+
+    var seen = new ArrayList<Map<String, Object>>();
+    SnapshotReader.open(file)
+        .forEachState(StateFilter.of(List.of("light"), List.of("light.l9?")), seen::add);
+
+    assertThat(seen)
+        .isEqualTo(
+            states.stream()
+                .filter(s -> ((String) s.get("entity_id")).matches("light\\.l(\\d|[0-8]\\d)"))
+                .toList());
+  }
+
+    @Test
+  void rejects_foreign_and_truncated_files() throws Exception {
+    var junk = tmp.resolve("junk.snap");
+    Files.writeString(junk, "not a snapshot at all");
+    assertThatThrownBy(() -> SnapshotReader.open(junk))
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("Not a pulse-map snapshot");
+
+    var file = tmp.resolve("cut.snap");
+    SnapshotWriter.write(
+        file, "2025.6", Instant.EPOCH, List.of(Map.of("entity_id", "light.a")), List.of());
+    var bytes = Files.readAllBytes(file);
+    var cut = tmp.resolve("cut2.snap");
+    Files.write(cut, Arrays.copyOf(bytes, bytes.length - 4));
+    assertThatThrownBy(() -> SnapshotReader.open(cut).readStates())
+        .isInstanceOf(IOException.class);
+  }
+}
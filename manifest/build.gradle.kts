@@ -1,5 +1,6 @@
 plugins {
     alias(libs.plugins.protobuf)
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
@@ -15,4 +16,8 @@ protobuf {
     protoc {
         artifact = libs.protoc.get().toString()
     }
-}
\ No newline at end of file
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh.get()
+}
@@ -0,0 +1,89 @@
+package io.pulseautomate.map.manifest.lock;
+
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import io.pulseautomate.map.manifest.gen.model.ServiceField;
+import io.pulseautomate.map.manifest.id.StableId;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stable ids and service signatures the way locks used to derive them (a new digest per call and a
+ * string built first) against the per-thread digests, with SHA-256 and XXH64 stable ids.
+ *
+ * <p>{@code ./gradlew :manifest:jmh}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+  private final Entity entity =
+      Entity.newBuilder().setEntityId("climate.living_room_trv").setDomain("climate").build();
+  private final Service service =
+      Service.newBuilder()
+          .setDomain("climate")
+          .setService("set_temperature")
+          .putFields(
+              "temperature",
+              ServiceField.newBuilder().setType("number").setUnit("°C").setRequired(true).build())
+          .putFields("target_temp_high", ServiceField.newBuilder().setType("number").build())
+          .putFields("target_temp_low", ServiceField.newBuilder().setType("number").build())
+          .putFields("hvac_mode", ServiceField.newBuilder().setType("enum").build())
+          .build();
+
+  @Benchmark
+  public String stableIdLegacy() throws Exception {
+    var md = MessageDigest.getInstance("SHA-256");
+    var bytes = entity.getEntityId().getBytes(StandardCharsets.UTF_8);
+    var hex = HexFormat.of().formatHex(md.digest(bytes));
+    return "stable:" + hex.substring(0, 12);
+  }
+
+  @Benchmark
+  public String stableIdSha256() {
+    return StableId.derive(entity.getEntityId(), HashAlgo.SHA256);
+  }
+
+  @Benchmark
+  public String stableIdXxh64() {
+    return StableId.derive(entity.getEntityId(), HashAlgo.XXH64);
+  }
+
+  @Benchmark
+  public String serviceSigLegacy() throws Exception {
+    var shape = new StringBuilder(service.getDomain()).append('.').append(service.getService());
+    shape.append('|');
+    var first = true;
+    for (var f : new TreeMap<>(service.getFieldsMap()).entrySet()) {
+      if (!first) shape.append(',');
+      first = false;
+      var v = f.getValue();
+      shape.append(f.getKey()).append(':').append(v.getType());
+      if (v.getRequired()) shape.append(":req");
+      if (!v.getUnit().isEmpty()) shape.append(':').append(v.getUnit());
+    }
+    var md = MessageDigest.getInstance("SHA-256");
+    return HexFormat.of().formatHex(md.digest(shape.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Benchmark
+  public String serviceSig() {
+    return LockBuilder.serviceSig(service);
+  }
+}
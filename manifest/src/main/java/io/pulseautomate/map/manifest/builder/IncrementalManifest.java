@@ -0,0 +1,186 @@
+package io.pulseautomate.map.manifest.builder;
+
+import io.pulseautomate.map.ha.client.StateChange;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
+import io.pulseautomate.map.manifest.gen.model.Manifest;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A manifest kept current from state and service deltas. Entities are indexed by entity id and
+ * services by {@code domain.service}; a delta reruns inference for the touched entity only.
+ *
+ * <p>New entities and services are appended, so order is first-seen order. Fields a state does not
+ * carry (stable id, area, device) are kept from the entity being replaced. States the builder's
+ * filter drops are ignored; the base manifest's devices and filter are kept as they are. Not
+ * thread-safe.
+ */
+public final class IncrementalManifest {
+  private final ManifestBuilder builder;
+  private final int schema;
+  private final String haVersion;
+  private final List<Device> devices;
+  private final EntityFilter filter;
+  private final LinkedHashMap<String, Entity> entities = new LinkedHashMap<>();
+  private final LinkedHashMap<String, Service> services = new LinkedHashMap<>();
+  private final Map<String, Entity> entitiesBefore = new HashMap<>();
+  private final Map<String, Service> servicesBefore = new HashMap<>();
+  private Manifest snapshot;
+
+  public IncrementalManifest(Manifest base, ManifestBuilder builder) {
+    this.builder = Objects.requireNonNull(builder, "builder");
+    this.schema = base.getSchema();
+    this.haVersion = base.getHaVersion();
+    this.devices = base.getDevicesList();
+    this.filter = base.hasFilter() ? base.getFilter() : null;
+    for (var e : base.getEntitiesList()) entities.put(e.getEntityId(), e);
+    for (var s : base.getServicesList()) services.put(key(s.getDomain(), s.getService()), s);
+    this.snapshot = base;
+  }
+
+  /**
+   * Net changes since construction or the previous call.
+   *
+   * @param added entity ids that did not exist before
+   * @param removed entity ids that no longer exist
+   * @param changed entity ids whose manifest entry differs
+   * @param services {@code domain.service} keys added, removed or changed
+   */
+  public record ChangeSet(
+      Set<String> added, Set<String> removed, Set<String> changed, Set<String> services) {
+    public boolean isEmpty() {
+      return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && services.isEmpty();
+    }
+  }
+
+  /** Adds or replaces the entity for {@code state}; true if its manifest entry changed. */
+  public boolean putState(HAState state) {
+    var id = state.entityId();
+    if (!builder.filter().keeps(id)) return false;
+    var prev = entities.get(id);
+    var next = builder.buildEntity(state);
+    if (prev != null) next = carryOver(prev, next);
+    if (next.equals(prev)) return false;
+
+    touch(entitiesBefore, id, prev);
+    entities.put(id, next);
+    snapshot = null;
+    return true;
+  }
+
+  public boolean removeState(String entityId) {
+    if (!entities.containsKey(entityId)) return false;
+    touch(entitiesBefore, entityId, entities.remove(entityId));
+    snapshot = null;
+    return true;
+  }
+
+  /** Applies one {@code state_changed} event. */
+  public boolean apply(StateChange change) {
+    if (change.removed()) return removeState(change.entityId());
+    return putState(HAState.from(change.newState()));
+  }
+
+  /** Adds or replaces a service from its {@code /api/services} entry. */
+  public boolean putService(String domain, String service, Map<String, Object> data) {
+    var key = key(domain, service);
+    var prev = services.get(key);
+    var next = builder.buildService(domain, service, data);
+    if (next.equals(prev)) return false;
+
+    touch(servicesBefore, key, prev);
+    services.put(key, next);
+    snapshot = null;
+    return true;
+  }
+
+  public boolean removeService(String domain, String service) {
+    var key = key(domain, service);
+    if (!services.containsKey(key)) return false;
+    touch(servicesBefore, key, services.remove(key));
+    snapshot = null;
+    return true;
+  }
+
+  /** The current entry for {@code entityId}, or null. */
+  public Entity entity(String entityId) {
+    return entities.get(entityId);
+  }
+
+  /** The current service for a {@code domain.service} key, or null. */
+  public Service service(String key) {
+    return services.get(key);
+  }
+
+  /** The current manifest; rebuilt from the index only after a change. */
+  public Manifest manifest() {
+    if (snapshot == null) {
+      var m =
+          Manifest.newBuilder()
+              .setSchema(schema)
+              .setHaVersion(haVersion)
+              .addAllEntities(entities.values())
+              .addAllServices(services.values())
+              .addAllDevices(devices);
+      if (filter != null) m.setFilter(filter);
+      snapshot = m.build();
+    }
+    return snapshot;
+  }
+
+  public ChangeSet drainChanges() {
+    var added = new LinkedHashSet<String>();
+    var removed = new LinkedHashSet<String>();
+    var changed = new LinkedHashSet<String>();
+    entitiesBefore.forEach(
+        (id, before) -> {
+          var now = entities.get(id);
+          if (before == null && now != null) added.add(id);
+          else if (before != null && now == null) removed.add(id);
+          else if (before != null && !before.equals(now)) changed.add(id);
+        });
+
+    var servicesChanged = new LinkedHashSet<String>();
+    servicesBefore.forEach(
+        (key, before) -> {
+          if (!Objects.equals(before, services.get(key))) servicesChanged.add(key);
+        });
+
+    entitiesBefore.clear();
+    servicesBefore.clear();
+    return new ChangeSet(
+        Collections.unmodifiableSet(added),
+        Collections.unmodifiableSet(removed),
+        Collections.unmodifiableSet(changed),
+        Collections.unmodifiableSet(servicesChanged));
+  }
+
+  /** Remembers the value before the first change since the last drain; null means absent. */
+  private static <T> void touch(Map<String, T> before, String key, T prev) {
+    if (!before.containsKey(key)) before.put(key, prev);
+  }
+
+  private static Entity carryOver(Entity prev, Entity next) {
+    if (prev.getStableId().isEmpty() && prev.getArea().isEmpty() && prev.getDeviceId().isEmpty())
+      return next;
+    var b = next.toBuilder();
+    if (next.getStableId().isEmpty()) b.setStableId(prev.getStableId());
+    if (next.getArea().isEmpty()) b.setArea(prev.getArea());
+    if (next.getDeviceId().isEmpty()) b.setDeviceId(prev.getDeviceId());
+    return b.build();
+  }
+
+  private static String key(String domain, String service) {
+    return domain + "." + service;
+  }
+}
@@ -2,88 +2,289 @@ package io.pulseautomate.map.manifest.builder;
 
 import static io.pulseautomate.map.manifest.util.Constants.MANIFEST_SCHEMA_V1;
 
+import io.pulseautomate.map.ha.model.HARegistries;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
+import io.pulseautomate.map.ha.model.StringDictionary;
+import io.pulseautomate.map.manifest.gen.model.Device;
 import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
 import io.pulseautomate.map.manifest.gen.model.Manifest;
 import io.pulseautomate.map.manifest.gen.model.Service;
 import io.pulseautomate.map.manifest.gen.model.ServiceField;
+import io.pulseautomate.map.manifest.infer.InferenceStats;
 import io.pulseautomate.map.manifest.infer.RuleRegistry;
+import io.pulseautomate.map.manifest.serde.ManifestSink;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
+/**
+ * Turns HA states and services into a {@link Manifest}.
+ *
+ * <p>With a parallelism above one, entities and services are built on a fork-join pool in
+ * index-range chunks and written back by position, so the output is identical to the serial build.
+ */
 public final class ManifestBuilder {
+  private static final StringDictionary DICT = StringDictionary.shared();
+  private static final int CHUNK = 256;
+
   private final RuleRegistry rules;
+  private final ServiceTyping typing;
+  private final int parallelism;
+  private final RegistryJoin registries;
+  private final StateFilter filter;
+  private volatile ForkJoinPool pool;
 
   public ManifestBuilder() {
     this(RuleRegistry.defaultRegistry());
   }
 
   public ManifestBuilder(RuleRegistry rules) {
+    this(rules, 1);
+  }
+
+  public ManifestBuilder(RuleRegistry rules, int parallelism) {
+    this(rules, ServiceTyping.builtIn(), parallelism);
+  }
+
+  public ManifestBuilder(RuleRegistry rules, ServiceTyping typing, int parallelism) {
+    this(rules, typing, parallelism, RegistryJoin.NONE, StateFilter.ALL);
+  }
+
+  private ManifestBuilder(
+      RuleRegistry rules,
+      ServiceTyping typing,
+      int parallelism,
+      RegistryJoin registries,
+      StateFilter filter) {
+    if (parallelism < 1) throw new IllegalArgumentException("parallelism must be >= 1");
     this.rules = rules;
+    this.typing = typing;
+    this.parallelism = parallelism;
+    this.registries = registries;
+    this.filter = filter;
+  }
+
+  /** A builder with the same rules that uses up to {@code parallelism} threads per build. */
+  public ManifestBuilder withParallelism(int parallelism) {
+    return parallelism == this.parallelism
+        ? this
+        : new ManifestBuilder(rules, typing, parallelism, registries, filter);
+  }
+
+  /** A builder that infers attributes with {@code rules}, e.g. compiled from a site rule pack. */
+  public ManifestBuilder withRules(RuleRegistry rules) {
+    return new ManifestBuilder(rules, typing, parallelism, registries, filter);
+  }
+
+  /** A builder that types service fields with {@code typing}, e.g. built-ins plus an overlay. */
+  public ManifestBuilder withServiceTyping(ServiceTyping typing) {
+    return new ManifestBuilder(rules, typing, parallelism, registries, filter);
+  }
+
+  /** A builder that fills in each entity's area and device from HA's registries. */
+  public ManifestBuilder withRegistries(HARegistries registries) {
+    return new ManifestBuilder(rules, typing, parallelism, new RegistryJoin(registries), filter);
+  }
+
+  /**
+   * A builder that leaves out the states {@code filter} drops and records the filter in the
+   * manifest. Sources that can drop states while parsing should be handed {@link #filter()}.
+   */
+  public ManifestBuilder withFilter(StateFilter filter) {
+    return new ManifestBuilder(rules, typing, parallelism, registries, filter);
+  }
+
+  public StateFilter filter() {
+    return filter;
+  }
+
+  /** The filter as recorded in the manifest; null when every state is kept. */
+  EntityFilter entityFilter() {
+    if (filter.isAll()) return null;
+    return EntityFilter.newBuilder()
+        .addAllInclude(filter.include())
+        .addAllExclude(filter.exclude())
+        .build();
+  }
+
+  /** The registry devices this builder adds to every manifest. */
+  List<Device> devices() {
+    return registries.devices();
+  }
+
+  public int parallelism() {
+    return parallelism;
+  }
+
+  /** How often entities reused an earlier entity's inferred attributes. */
+  public InferenceStats inferenceStats() {
+    return rules.memoStats();
   }
 
   public Manifest build(
       String haVersion, List<Map<String, Object>> states, List<Map<String, Object>> services) {
-    var mb = Manifest.newBuilder().setSchema(MANIFEST_SCHEMA_V1).setHaVersion(haVersion);
-
-    states.forEach(
-        stateMap -> {
-          var state = MapHAState.from(stateMap);
-          var eb =
-              Entity.newBuilder()
-                  .setEntityId(state.entityId())
-                  .setDomain(domainOf(state.entityId()));
-
-          var dc = state.attributes().get("device_class");
-          if (dc != null) eb.setDeviceClass(dc.toString());
-
-          var set = rules.forDomain(eb.getDomain());
-          if (set != null) {
-            var attrs = set.infer(state);
-            if (attrs != null) eb.putAllAttributes(attrs);
-          }
-
-          mb.addEntities(eb);
-        });
-
-    services.forEach(
-        serviceDomainMap -> {
-          var domain = (String) serviceDomainMap.get("domain");
-          @SuppressWarnings("unchecked")
-          var serviceDetails = (Map<String, Object>) serviceDomainMap.get("services");
-
-          if (domain == null || serviceDetails == null) return;
-
-          serviceDetails.forEach(
-              (serviceName, serviceData) -> {
-                var sb = Service.newBuilder().setDomain(domain).setService(serviceName);
-                @SuppressWarnings("unchecked")
-                var serviceDataMap = (Map<String, Object>) serviceData;
-                @SuppressWarnings("unchecked")
-                var fieldsMap = (Map<String, Map<String, Object>>) serviceDataMap.get("fields");
-
-                var initialFields = new LinkedHashMap<String, ServiceField>();
-                if (fieldsMap != null) {
-                  fieldsMap.forEach(
-                      (fieldName, fieldData) -> {
-                        var required = (boolean) fieldData.getOrDefault("required", false);
-                        initialFields.put(
-                            fieldName, ServiceField.newBuilder().setRequired(required).build());
-                      });
-                }
-
-                var typedFields = ServiceTyping.apply(domain, serviceName, initialFields);
-                if (typedFields != null) sb.putAllFields(typedFields);
-
-                mb.addServices(sb);
-              });
-        });
-
-    return mb.build();
-  }
-
-  private static String domainOf(String entityId) {
-    var i = entityId.indexOf(".");
-    return i > 0 ? entityId.substring(0, i) : entityId;
+    return buildFromStates(haVersion, states.stream().map(HAState::from).toList(), services);
+  }
+
+  public Manifest buildFromStates(
+      String haVersion, List<HAState> states, List<Map<String, Object>> services) {
+    if (!filter.isAll()) states = states.stream().filter(s -> filter.keeps(s.entityId())).toList();
+    var m =
+        Manifest.newBuilder()
+            .setSchema(MANIFEST_SCHEMA_V1)
+            .setHaVersion(haVersion)
+            .addAllEntities(map(states, this::buildEntity))
+            .addAllServices(map(serviceCalls(services), this::service))
+            .addAllDevices(registries.devices());
+    var f = entityFilter();
+    if (f != null) m.setFilter(f);
+    return m.build();
+  }
+
+  /**
+   * Starts a streaming build into {@code sink}; see {@link ManifestStream}. Batches span a few
+   * chunks per thread so parallel builds keep every thread busy.
+   */
+  public ManifestStream open(String haVersion, ManifestSink sink) throws IOException {
+    var batch = parallelism == 1 ? 1 : CHUNK * parallelism * 4;
+    return new ManifestStream(this, haVersion, sink, batch);
+  }
+
+  /** Streams {@code states} and then {@code services} into {@code sink}, ending it. */
+  public void stream(
+      String haVersion,
+      Iterator<HAState> states,
+      List<Map<String, Object>> services,
+      ManifestSink sink)
+      throws IOException {
+    try (var stream = open(haVersion, sink)) {
+      while (states.hasNext()) stream.accept(states.next());
+      stream.services(services);
+    }
+  }
+
+  /** The entity for one state, as {@link #buildFromStates} would produce it. */
+  public Entity buildEntity(HAState haState) {
+    var state = new MapHAState(haState);
+    var eb = Entity.newBuilder().setEntityId(state.entityId()).setDomain(state.domain());
+
+    var dc = state.attributes().string("device_class");
+    if (dc != null) eb.setDeviceClass(dc);
+    registries.enrich(eb);
+
+    var set = rules.forDomain(eb.getDomain());
+    if (set != null) {
+      set.infer(
+          state,
+          (name, desc) -> {
+            if (!eb.containsAttributes(name)) eb.putAttributes(name, desc);
+          });
+    }
+    return eb.build();
+  }
+
+  record ServiceCall(String domain, String name, Map<String, Object> data) {}
+
+  /** Flattens {@code /api/services} into one entry per service, in response order. */
+  @SuppressWarnings("unchecked")
+  static List<ServiceCall> serviceCalls(List<Map<String, Object>> services) {
+    var out = new ArrayList<ServiceCall>();
+    for (var serviceDomainMap : services) {
+      var domain = (String) serviceDomainMap.get("domain");
+      var serviceDetails = (Map<String, Object>) serviceDomainMap.get("services");
+      if (domain == null || serviceDetails == null) continue;
+
+      serviceDetails.forEach(
+          (serviceName, serviceData) ->
+              out.add(new ServiceCall(domain, serviceName, (Map<String, Object>) serviceData)));
+    }
+    return out;
+  }
+
+  Service service(ServiceCall call) {
+    return buildService(call.domain(), call.name(), call.data());
+  }
+
+  /** One service from its {@code /api/services} entry ({@code fields} and so on). */
+  public Service buildService(String domain, String name, Map<String, Object> data) {
+    domain = DICT.intern(domain);
+    name = DICT.intern(name);
+    var sb = Service.newBuilder().setDomain(domain).setService(name);
+    @SuppressWarnings("unchecked")
+    var fieldsMap = data == null ? null : (Map<String, Map<String, Object>>) data.get("fields");
+
+    var initialFields = new LinkedHashMap<String, ServiceField>();
+    if (fieldsMap != null) {
+      fieldsMap.forEach(
+          (fieldName, fieldData) -> {
+            var required = (boolean) fieldData.getOrDefault("required", false);
+            initialFields.put(
+                DICT.intern(fieldName), ServiceField.newBuilder().setRequired(required).build());
+          });
+    }
+
+    var typedFields = typing.apply(domain, name, initialFields);
+    if (typedFields != null) sb.putAllFields(typedFields);
+    return sb.build();
+  }
+
+  /** {@code in} mapped through {@code fn}, in order; chunks run in parallel when enabled. */
+  <T, R> List<R> map(List<T> in, Function<T, R> fn) {
+    if (parallelism == 1 || in.size() <= CHUNK) {
+      var out = new ArrayList<R>(in.size());
+      for (var it : in) out.add(fn.apply(it));
+      return out;
+    }
+    var out = new Object[in.size()];
+    pool().invoke(new MapChunk<>(in, fn, out, 0, out.length));
+    @SuppressWarnings("unchecked")
+    var result = (List<R>) Arrays.asList(out);
+    return result;
+  }
+
+  private ForkJoinPool pool() {
+    var p = pool;
+    if (p == null) {
+      synchronized (this) {
+        p = pool;
+        if (p == null) pool = p = new ForkJoinPool(parallelism);
+      }
+    }
+    return p;
+  }
+
+  private static final class MapChunk<T, R> extends RecursiveAction {
+    private final List<T> in;
+    private final Function<T, R> fn;
+    private final Object[] out;
+    private final int from;
+    private final int to;
+
+    MapChunk(List<T> in, Function<T, R> fn, Object[] out, int from, int to) {
+      this.in = in;
+      this.fn = fn;
+      this.out = out;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= CHUNK) {
+        for (var i = from; i < to; i++) out[i] = fn.apply(in.get(i));
+        return;
+      }
+      var mid = (from + to) >>> 1;
+      invokeAll(new MapChunk<>(in, fn, out, from, mid), new MapChunk<>(in, fn, out, mid, to));
+    }
   }
 }
@@ -0,0 +1,97 @@
+package io.pulseautomate.map.manifest.builder;
+
+import static io.pulseautomate.map.manifest.util.Constants.MANIFEST_SCHEMA_V1;
+
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.manifest.serde.ManifestSink;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A manifest build that emits each entity to a {@link ManifestSink} as soon as it is inferred,
+ * so neither the input states nor the built entities need to be held. At most one batch of states
+ * is buffered: one state when building serially, a few fork-join chunks per thread otherwise.
+ *
+ * <p>Feed every state, then the services, then close, which adds the registry devices and the
+ * filter; states the builder's filter drops are ignored. The sink sees the same elements, in the
+ * same order, as {@link ManifestBuilder#buildFromStates} would put in the manifest.
+ */
+public final class ManifestStream implements AutoCloseable {
+  private final ManifestBuilder builder;
+  private final ManifestSink sink;
+  private final int batchSize;
+  private final List<HAState> batch;
+  private int entities;
+  private int services;
+  private int devices;
+  private boolean entitiesDone;
+  private boolean closed;
+
+  ManifestStream(ManifestBuilder builder, String haVersion, ManifestSink sink, int batchSize)
+      throws IOException {
+    this.builder = builder;
+    this.sink = sink;
+    this.batchSize = batchSize;
+    this.batch = new ArrayList<>(batchSize);
+    sink.begin(MANIFEST_SCHEMA_V1, haVersion);
+  }
+
+  public void accept(HAState state) throws IOException {
+    if (entitiesDone) throw new IllegalStateException("states must come before services");
+    if (!builder.filter().keeps(state.entityId())) return;
+    batch.add(state);
+    if (batch.size() >= batchSize) flush();
+  }
+
+  /** Emits the services from an {@code /api/services} response; ends the entity section. */
+  public void services(List<Map<String, Object>> services) throws IOException {
+    finishEntities();
+    for (var s : builder.map(ManifestBuilder.serviceCalls(services), builder::service)) {
+      sink.service(s);
+      this.services++;
+    }
+  }
+
+  public int entities() {
+    return entities;
+  }
+
+  public int services() {
+    return services;
+  }
+
+  public int devices() {
+    return devices;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    finishEntities();
+    for (var d : builder.devices()) {
+      sink.device(d);
+      devices++;
+    }
+    var filter = builder.entityFilter();
+    if (filter != null) sink.filter(filter);
+    sink.end();
+  }
+
+  private void finishEntities() throws IOException {
+    if (entitiesDone) return;
+    flush();
+    entitiesDone = true;
+  }
+
+  private void flush() throws IOException {
+    if (batch.isEmpty()) return;
+    for (var e : builder.map(batch, builder::buildEntity)) {
+      sink.entity(e);
+      entities++;
+    }
+    batch.clear();
+  }
+}
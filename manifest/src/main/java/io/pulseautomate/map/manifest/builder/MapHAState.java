@@ -1,15 +1,28 @@
 package io.pulseautomate.map.manifest.builder;
 
-import java.util.Collections;
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
 import java.util.Map;
 
-public record MapHAState(String entityId, Map<String, Object> attributes) {
-  @SuppressWarnings("unchecked")
+/** The state attribute rules see; a view over the typed {@link HAState}. */
+public record MapHAState(HAState state) {
+  public MapHAState(String entityId, Map<String, Object> attributes) {
+    this(new HAState(entityId, null, HAAttributes.of(attributes)));
+  }
+
   public static MapHAState from(Map<String, Object> stateMap) {
-    if (stateMap == null) return new MapHAState("", Collections.emptyMap());
-    var entityId = (String) stateMap.getOrDefault("entity_id", "");
-    var attributes =
-        (Map<String, Object>) stateMap.getOrDefault("attributes", Collections.emptyMap());
-    return new MapHAState(entityId, attributes);
+    return new MapHAState(HAState.from(stateMap));
+  }
+
+  public String entityId() {
+    return state.entityId();
+  }
+
+  public String domain() {
+    return state.domain();
+  }
+
+  public HAAttributes attributes() {
+    return state.attributes();
   }
 }
@@ -0,0 +1,73 @@
+package io.pulseautomate.map.manifest.builder;
+
+import io.pulseautomate.map.ha.model.HARegistries;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Joins HA's registries onto entities. The registries are indexed by id once, up front, so
+ * enriching an entity is a couple of hash lookups and a whole build stays linear in entities plus
+ * devices.
+ */
+public final class RegistryJoin {
+  public static final RegistryJoin NONE = new RegistryJoin(HARegistries.EMPTY);
+
+  private final Map<String, HARegistries.EntityEntry> byEntity;
+  private final Map<String, HARegistries.Device> byDevice;
+  private final Set<String> areas;
+  private final List<Device> devices;
+
+  public RegistryJoin(HARegistries registries) {
+    byEntity = HashMap.newHashMap(registries.entities().size());
+    for (var e : registries.entities()) byEntity.put(e.entityId(), e);
+    byDevice = HashMap.newHashMap(registries.devices().size());
+    for (var d : registries.devices()) byDevice.put(d.id(), d);
+    areas = HashSet.newHashSet(registries.areas().size());
+    for (var a : registries.areas()) areas.add(a.id());
+
+    var out = new ArrayList<Device>(registries.devices().size());
+    for (var d : registries.devices()) {
+      var b = Device.newBuilder().setId(d.id());
+      if (d.name() != null) b.setName(d.name());
+      if (d.manufacturer() != null) b.setManufacturer(d.manufacturer());
+      if (d.model() != null) b.setModel(d.model());
+      var area = area(d.areaId());
+      if (area != null) b.setArea(area);
+      out.add(b.build());
+    }
+    devices = List.copyOf(out);
+  }
+
+  public boolean isEmpty() {
+    return byEntity.isEmpty() && devices.isEmpty();
+  }
+
+  /** Every device in the registry, in registry order. */
+  public List<Device> devices() {
+    return devices;
+  }
+
+  /** Sets the device id and the area: the entity's own area, else its device's. */
+  void enrich(Entity.Builder eb) {
+    var entry = byEntity.get(eb.getEntityId());
+    if (entry == null) return;
+
+    var device = entry.deviceId() == null ? null : byDevice.get(entry.deviceId());
+    if (device != null) eb.setDeviceId(device.id());
+
+    var area = area(entry.areaId());
+    if (area == null && device != null) area = area(device.areaId());
+    if (area != null) eb.setArea(area);
+  }
+
+  /** {@code id} if it names a known area; any id when no area registry was given. */
+  private String area(String id) {
+    return id != null && (areas.isEmpty() || areas.contains(id)) ? id : null;
+  }
+}
@@ -6,99 +6,123 @@ import static io.pulseautomate.map.manifest.util.Names.SvcField.*;
 import static io.pulseautomate.map.manifest.util.Names.SvcField.KELVIN;
 
 import io.pulseautomate.map.manifest.gen.model.ServiceField;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+/**
+ * Types and units for service fields, looked up by (domain, service, field) in a nested hash table,
+ * so the cost per field does not depend on how many rules there are. A rule only fills in a type or
+ * unit the field does not already have.
+ *
+ * <p>Overlay files add or replace rules, one per line:
+ *
+ * <pre>
+ * # domain.service.field = type [unit]
+ * number.set_value.value = number
+ * water_heater.set_temperature.temperature = number °C
+ * </pre>
+ */
 public final class ServiceTyping {
-  private ServiceTyping() {}
+  /** Type and unit given to a field; an empty unit leaves the field's unit alone. */
+  public record FieldType(String type, String unit) {
+    public FieldType {
+      Objects.requireNonNull(type, "type");
+      unit = unit == null ? "" : unit;
+    }
+  }
 
-  static Map<String, ServiceField> apply(
-      String domain, String serviceName, Map<String, ServiceField> in) {
-    if (in == null || in.isEmpty()) return in;
-    var out = new LinkedHashMap<String, ServiceField>(in.size());
-    in.forEach((name, f) -> out.put(name, typed(domain, serviceName, name, f)));
-    return out;
+  private static final ServiceTyping BUILT_IN =
+      builder()
+          .put(CLIMATE, "set_temperature", TEMPERATURE, "number", UNIT_CELSIUS_WITH_SYMBOL)
+          .put(CLIMATE, "set_hvac_mode", HVAC_MODE, "enum", null)
+          .put(CLIMATE, "set_preset_mode", PRESET_MODE, "enum", null)
+          .put(LIGHT, "turn_on", BRIGHTNESS_PCT, "percent", UNIT_PERCENT)
+          .put(LIGHT, "turn_on", COLOR_TEMP, "mireds", "mired")
+          .put(LIGHT, "turn_on", COLOR_TEMP_KELVIN, "number", UNIT_KELVIN)
+          .put(LIGHT, "turn_on", KELVIN, "number", UNIT_KELVIN)
+          .put(LIGHT, "turn_on", TRANSITION, "duration_s", "s")
+          .put(LIGHT, "turn_on", EFFECT, "enum", null)
+          .put(FAN, "set_percentage", PERCENTAGE, "percent", UNIT_PERCENT)
+          .put(FAN, "set_speed", PERCENTAGE, "percent", UNIT_PERCENT)
+          .put(FAN, "set_direction", DIRECTION, "enum", null)
+          .put(FAN, "set_preset_mode", PRESET_MODE, "enum", null)
+          .put(FAN, "set_preset", PRESET_MODE, "enum", null)
+          .put(COVER, "set_cover_position", POSITION, "percent", UNIT_PERCENT)
+          .put(COVER, "set_cover_tilt_position", TILT_POSITION, "percent", UNIT_PERCENT)
+          .put(MEDIA_PLAYER, "volume_set", VOLUME_LEVEL, "percent", UNIT_PERCENT)
+          .put(MEDIA_PLAYER, "select_source", SOURCE, "enum", null)
+          .put(MEDIA_PLAYER, "select_sound_mode", SOUND_MODE, "enum", null)
+          .put(NUMBER, "set_value", VALUE, "number", null)
+          .build();
+
+  private final Map<String, Map<String, Map<String, FieldType>>> table;
+  private final int size;
+
+  private ServiceTyping(Map<String, Map<String, Map<String, FieldType>>> table, int size) {
+    this.table = table;
+    this.size = size;
   }
 
-  private static ServiceField typed(String domain, String service, String name, ServiceField f) {
-    var type = f.getType();
-    var unit = f.getUnit();
-
-    // --- Climate ---
-    if (CLIMATE.equals(domain)) {
-      if ("set_temperature".equals(service) && TEMPERATURE.equals(name)) {
-        type = nullable(type, "number");
-        unit = nullable(unit, UNIT_CELSIUS_WITH_SYMBOL);
-      } else if ("set_hvac_mode".equals(service) && HVAC_MODE.equals(name)) {
-        type = nullable(type, "enum");
-      } else if ("set_preset_mode".equals(service) && PRESET_MODE.equals(name)) {
-        type = nullable(type, "enum");
-      }
-    }
+  public static ServiceTyping builtIn() {
+    return BUILT_IN;
+  }
 
-    // --- Light ---
-    else if (LIGHT.equals(domain) && "turn_on".equals(service)) {
-      if (BRIGHTNESS_PCT.equals(name)) {
-        type = nullable(type, "percent");
-        unit = nullable(unit, UNIT_PERCENT);
-      } else if (COLOR_TEMP.equals(name) || COLOR_TEMP_KELVIN.equals(name) || KELVIN.equals(name)) {
-        if (COLOR_TEMP_KELVIN.equals(name) || KELVIN.equals(name)) {
-          type = nullable(type, "number");
-          unit = nullable(unit, UNIT_KELVIN);
-        } else {
-          type = nullable(type, "mireds");
-          unit = nullable(unit, "mired");
-        }
-      } else if (TRANSITION.equals(name)) {
-        type = nullable(type, "duration_s");
-        unit = nullable(unit, "s");
-      } else if (EFFECT.equals(name)) {
-        type = nullable(type, "enum");
-      }
-    }
+  public static Builder builder() {
+    return new Builder();
+  }
 
-    // --- Fan ---
-    else if (FAN.equals(domain)) {
-      if (("set_percentage".equals(service) || "set_speed".equals(service))
-          && PERCENTAGE.equals(name)) {
-        type = nullable(type, "percent");
-        unit = nullable(unit, UNIT_PERCENT);
-      } else if ("set_direction".equals(service) && DIRECTION.equals(name)) {
-        type = nullable(type, "enum");
-      } else if (("set_preset_mode".equals(service) || "set_preset".equals(service))
-          && PRESET_MODE.equals(name)) {
-        type = nullable(type, "enum");
-      }
+  /** These rules plus (and overridden by) the rules in {@code overlay}. */
+  public ServiceTyping withOverlay(Path overlay) throws IOException {
+    try {
+      return toBuilder().overlay(Files.readAllLines(overlay)).build();
+    } catch (IllegalArgumentException e) {
+      throw new IOException(overlay + ": " + e.getMessage(), e);
     }
+  }
 
-    // --- Cover ---
-    else if (COVER.equals(domain)) {
-      if ("set_cover_position".equals(service) && POSITION.equals(name)) {
-        type = nullable(type, "percent");
-        unit = nullable(unit, UNIT_PERCENT);
-      } else if ("set_cover_tilt_position".equals(service) && TILT_POSITION.equals(name)) {
-        type = nullable(type, "percent");
-        unit = nullable(unit, UNIT_PERCENT);
-      }
-    }
+  public Builder toBuilder() {
+    var b = new Builder();
+    for (var d : table.entrySet())
+      for (var s : d.getValue().entrySet())
+        for (var f : s.getValue().entrySet())
+          b.put(d.getKey(), s.getKey(), f.getKey(), f.getValue().type(), f.getValue().unit());
+    return b;
+  }
 
-    // --- Media Player ---
-    else if (MEDIA_PLAYER.equals(domain)) {
-      if ("volume_set".equals(service) && VOLUME_LEVEL.equals(name)) {
-        type = nullable(type, "percent");
-        unit = nullable(unit, UNIT_PERCENT);
-      } else if ("select_source".equals(service) && SOURCE.equals(name)) {
-        type = nullable(type, "enum");
-      } else if ("select_sound_mode".equals(service) && SOUND_MODE.equals(name)) {
-        type = nullable(type, "enum");
-      }
-    }
+  /** The rule for one field, or null. */
+  public FieldType lookup(String domain, String service, String field) {
+    var services = table.get(domain);
+    if (services == null) return null;
+    var fields = services.get(service);
+    return fields == null ? null : fields.get(field);
+  }
 
-    // --- NUMBER (generic) ---
-    else if (NUMBER.equals(domain) && "ser_value".equals(service) && VALUE.equals(name)) {
-      type = nullable(type, "number");
-    }
+  public int size() {
+    return size;
+  }
+
+  Map<String, ServiceField> apply(
+      String domain, String serviceName, Map<String, ServiceField> in) {
+    if (in == null || in.isEmpty()) return in;
+    var services = table.get(domain);
+    var fields = services == null ? null : services.get(serviceName);
+    if (fields == null) return in;
+
+    var out = new LinkedHashMap<String, ServiceField>(in.size());
+    in.forEach((name, f) -> out.put(name, typed(fields.get(name), f)));
+    return out;
+  }
+
+  private static ServiceField typed(FieldType rule, ServiceField f) {
+    if (rule == null) return f;
+    var type = nullable(f.getType(), rule.type());
+    var unit = nullable(f.getUnit(), rule.unit());
 
     if (Objects.equals(type, f.getType()) && Objects.equals(unit, f.getUnit())) return f;
     return ServiceField.newBuilder()
@@ -111,4 +135,59 @@ public final class ServiceTyping {
   private static String nullable(String current, String candidate) {
     return (current == null || current.isBlank()) ? candidate : current;
   }
+
+  public static final class Builder {
+    private final Map<String, Map<String, Map<String, FieldType>>> table = new HashMap<>();
+
+    private Builder() {}
+
+    public Builder put(String domain, String service, String field, String type, String unit) {
+      table
+          .computeIfAbsent(domain, k -> new HashMap<>())
+          .computeIfAbsent(service, k -> new HashMap<>())
+          .put(field, new FieldType(type, unit));
+      return this;
+    }
+
+    /**
+     * Adds the rules in overlay syntax.
+     *
+     * @throws IllegalArgumentException naming the first malformed line
+     */
+    public Builder overlay(List<String> lines) {
+      for (var i = 0; i < lines.size(); i++) {
+        var line = lines.get(i);
+        var hash = line.indexOf('#');
+        if (hash >= 0) line = line.substring(0, hash);
+        line = line.strip();
+        if (line.isEmpty()) continue;
+
+        var where = "line " + (i + 1) + ": ";
+        var eq = line.indexOf('=');
+        if (eq < 0) throw new IllegalArgumentException(where + "expected key = type [unit]");
+        var key = line.substring(0, eq).strip().split("\\.", -1);
+        if (key.length != 3 || key[0].isEmpty() || key[1].isEmpty() || key[2].isEmpty())
+          throw new IllegalArgumentException(where + "key must be domain.service.field");
+        var value = line.substring(eq + 1).strip().split("\\s+", 2);
+        if (value[0].isEmpty()) throw new IllegalArgumentException(where + "missing type");
+
+        put(key[0], key[1], key[2], value[0], value.length > 1 ? value[1] : null);
+      }
+      return this;
+    }
+
+    public ServiceTyping build() {
+      var out = new HashMap<String, Map<String, Map<String, FieldType>>>();
+      var size = 0;
+      for (var d : table.entrySet()) {
+        var services = new HashMap<String, Map<String, FieldType>>();
+        for (var s : d.getValue().entrySet()) {
+          services.put(s.getKey(), Map.copyOf(s.getValue()));
+          size += s.getValue().size();
+        }
+        out.put(d.getKey(), Map.copyOf(services));
+      }
+      return new ServiceTyping(Map.copyOf(out), size);
+    }
+  }
 }
@@ -0,0 +1,108 @@
+package io.pulseautomate.map.manifest.id;
+
+/**
+ * Open-addressing set of {@code long}s in one primitive array, with linear probing and
+ * backward-shift deletion. Eight bytes a slot and at most three quarters full, against some 80
+ * bytes an entry for a {@code HashSet<Long>}. Not thread-safe.
+ */
+final class LongHashSet {
+  private static final long EMPTY = 0L; // zero itself is tracked by hasZero
+
+  private long[] slots;
+  private int size;
+  private boolean hasZero;
+
+  LongHashSet(int expected) {
+    var capacity = 16;
+    while (capacity * 3L / 4 < expected) capacity <<= 1;
+    slots = new long[capacity];
+  }
+
+  /** Adds {@code v}; false if it was already present. */
+  boolean add(long v) {
+    if (v == EMPTY) {
+      if (hasZero) return false;
+      hasZero = true;
+      size++;
+      return true;
+    }
+    var mask = slots.length - 1;
+    for (var i = slot(v, mask); ; i = (i + 1) & mask) {
+      var s = slots[i];
+      if (s == v) return false;
+      if (s == EMPTY) {
+        slots[i] = v;
+        if (++size > slots.length * 3L / 4) grow();
+        return true;
+      }
+    }
+  }
+
+  boolean contains(long v) {
+    if (v == EMPTY) return hasZero;
+    var mask = slots.length - 1;
+    for (var i = slot(v, mask); ; i = (i + 1) & mask) {
+      var s = slots[i];
+      if (s == v) return true;
+      if (s == EMPTY) return false;
+    }
+  }
+
+  /** Removes {@code v}; false if it was not present. */
+  boolean remove(long v) {
+    if (v == EMPTY) {
+      if (!hasZero) return false;
+      hasZero = false;
+      size--;
+      return true;
+    }
+    var mask = slots.length - 1;
+    var i = slot(v, mask);
+    while (slots[i] != v) {
+      if (slots[i] == EMPTY) return false;
+      i = (i + 1) & mask;
+    }
+    // shift later members of the probe run back so none is cut off from its home slot
+    for (var j = (i + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+      var home = slot(slots[j], mask);
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        slots[i] = slots[j];
+        i = j;
+      }
+    }
+    slots[i] = EMPTY;
+    size--;
+    return true;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Heap held by the slot array, the object headers included. */
+  long bytes() {
+    return 24 + 16 + 8L * slots.length;
+  }
+
+  private void grow() {
+    var old = slots;
+    slots = new long[old.length * 2];
+    var mask = slots.length - 1;
+    for (var v : old) {
+      if (v == EMPTY) continue;
+      var i = slot(v, mask);
+      while (slots[i] != EMPTY) i = (i + 1) & mask;
+      slots[i] = v;
+    }
+  }
+
+  /** The MurmurHash3 finalizer, so keys with patterned low bits still spread. */
+  private static int slot(long v, int mask) {
+    v ^= v >>> 33;
+    v *= 0xff51afd7ed558ccdL;
+    v ^= v >>> 33;
+    v *= 0xc4ceb9fe1a85ec53L;
+    v ^= v >>> 33;
+    return (int) v & mask;
+  }
+}
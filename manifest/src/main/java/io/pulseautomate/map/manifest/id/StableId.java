@@ -3,26 +3,32 @@ package io.pulseautomate.map.manifest.id;
 import static io.pulseautomate.map.manifest.util.Constants.STABLE_ID_HEX_LENGTH;
 import static io.pulseautomate.map.manifest.util.Constants.STABLE_PREFIX;
 
+import io.pulseautomate.map.manifest.util.HashAlgo;
 import io.pulseautomate.map.manifest.util.Hashing;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.util.Objects;
 
 public final class StableId {
   private StableId() {}
 
   public static String derive(String seed) {
-    Objects.requireNonNull(seed, "seed");
-    var hex = Hashing.sha256Hex(seed);
-    return STABLE_PREFIX + hex.substring(0, STABLE_ID_HEX_LENGTH);
+    return derive(seed, HashAlgo.SHA256);
+  }
+
+  /** The prefix and the first {@code STABLE_ID_HEX_LENGTH} hex digits of {@code seed}'s hash. */
+  public static String derive(String seed, HashAlgo algo) {
+    return derive(seed, algo, STABLE_ID_HEX_LENGTH);
   }
 
-  private static byte[] sha256(String s) {
-    try {
-      var md = MessageDigest.getInstance("SHA-256");
-      return md.digest(s.getBytes(StandardCharsets.UTF_8));
-    } catch (Exception e) {
-      throw new RuntimeException("SHA-256 not available", e);
-    }
+  /**
+   * The prefix and the first {@code hexLength} hex digits of {@code seed}'s hash, for ids extended
+   * past a collision; {@code hexLength} is even and at most twice the digest length.
+   */
+  public static String derive(String seed, HashAlgo algo, int hexLength) {
+    Objects.requireNonNull(seed, "seed");
+    var md = algo.digest();
+    if (hexLength % 2 != 0 || hexLength > 2 * md.getDigestLength())
+      throw new IllegalArgumentException("no " + hexLength + "-digit " + algo.id + " id");
+    Hashing.update(md, seed);
+    return STABLE_PREFIX + Hashing.hex(md.digest(), hexLength / 2);
   }
 }
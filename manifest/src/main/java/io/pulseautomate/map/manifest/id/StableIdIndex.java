@@ -0,0 +1,124 @@
+package io.pulseautomate.map.manifest.id;
+
+import static io.pulseautomate.map.manifest.util.Constants.STABLE_ID_HEX_LENGTH;
+import static io.pulseautomate.map.manifest.util.Constants.STABLE_PREFIX;
+
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The stable ids assigned in one lock, so a newly derived id is never one already taken. Ids in
+ * the derived form, the prefix and {@code STABLE_ID_HEX_LENGTH} hex digits, are held as their
+ * 48-bit value in a {@link LongHashSet}; the few others, extended or set by hand, as strings.
+ *
+ * <p>A derived id that is taken is extended deterministically: with four more digits of the same
+ * hash at a time and, once the hash runs out, with a {@code -2}, {@code -3}, ... suffix. Which of
+ * two colliding entities keeps the short id depends on the order they are claimed in, so callers
+ * reserve the ids they already have before claiming new ones. Not thread-safe.
+ */
+public final class StableIdIndex {
+  private static final int SHORT_LENGTH = STABLE_PREFIX.length() + STABLE_ID_HEX_LENGTH;
+
+  private final HashAlgo algo;
+  private final int maxHexLength;
+  private final LongHashSet ids;
+  private final Set<String> others = new HashSet<>();
+  private long otherBytes;
+  private int extended;
+
+  public StableIdIndex(HashAlgo algo, int expected) {
+    this.algo = Objects.requireNonNull(algo, "algo");
+    this.maxHexLength = 2 * algo.digest().getDigestLength();
+    this.ids = new LongHashSet(expected);
+  }
+
+  /** Records an id that is already assigned; false if it was already recorded. */
+  public boolean reserve(String id) {
+    var v = value(id);
+    return v >= 0 ? ids.add(v) : addOther(id);
+  }
+
+  public void release(String id) {
+    var v = value(id);
+    if (v >= 0) ids.remove(v);
+    else if (others.remove(id)) otherBytes -= otherSize(id);
+  }
+
+  /**
+   * The id for {@code seed}: {@link StableId#derive(String, HashAlgo)} if that is free, an
+   * extension of it otherwise. The id is reserved before it is returned.
+   */
+  public String claim(String seed) {
+    var id = StableId.derive(seed, algo);
+    if (ids.add(value(id))) return id;
+    extended++;
+    for (var digits = STABLE_ID_HEX_LENGTH + 4; digits <= maxHexLength; digits += 4) {
+      id = StableId.derive(seed, algo, digits);
+      if (addOther(id)) return id;
+    }
+    return suffixed(id);
+  }
+
+  /**
+   * An id for an entity that wanted {@code id} but found another entity holding it: the first free
+   * of {@code id-2}, {@code id-3}, ... It is reserved before it is returned.
+   */
+  public String extend(String id) {
+    extended++;
+    return suffixed(id);
+  }
+
+  /** Whether {@code id} is longer than a derived id, as {@link #claim} extends them. */
+  public static boolean isExtended(String id) {
+    return id.length() > SHORT_LENGTH && id.startsWith(STABLE_PREFIX);
+  }
+
+  public Stats stats() {
+    return new Stats(ids.size() + others.size(), extended, ids.bytes() + otherBytes);
+  }
+
+  /**
+   * @param ids stable ids held
+   * @param extended ids that had to be extended because another entity held them
+   * @param bytes estimated heap of the index
+   */
+  public record Stats(int ids, int extended, long bytes) {}
+
+  private String suffixed(String id) {
+    for (var n = 2; ; n++) {
+      var suffixed = id + "-" + n;
+      if (reserve(suffixed)) return suffixed;
+    }
+  }
+
+  private boolean addOther(String id) {
+    if (!others.add(id)) return false;
+    otherBytes += otherSize(id);
+    return true;
+  }
+
+  /**
+   * The 48-bit value of an id in derived form, or -1. Only lowercase ASCII hex is derived form;
+   * {@code "stable:ABCDEF012345"} is a different id from {@code "stable:abcdef012345"}.
+   */
+  private static long value(String id) {
+    if (id.length() != SHORT_LENGTH || !id.startsWith(STABLE_PREFIX)) return -1;
+    var v = 0L;
+    for (var i = STABLE_PREFIX.length(); i < SHORT_LENGTH; i++) {
+      var c = id.charAt(i);
+      int d;
+      if (c >= '0' && c <= '9') d = c - '0';
+      else if (c >= 'a' && c <= 'f') d = c - 'a' + 10;
+      else return -1;
+      v = v << 4 | d;
+    }
+    return v;
+  }
+
+  /** A compact String, its array and a HashMap node and slot. */
+  private static long otherSize(String id) {
+    return 24 + ((16 + id.length() + 7) & ~7L) + 32 + 8;
+  }
+}
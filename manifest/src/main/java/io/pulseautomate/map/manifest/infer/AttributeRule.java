@@ -4,8 +4,31 @@ import io.pulseautomate.map.manifest.builder.MapHAState;
 import io.pulseautomate.map.manifest.gen.model.AttributeDesc;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @FunctionalInterface
 public interface AttributeRule {
   Optional<Map.Entry<String, AttributeDesc>> infer(MapHAState state);
+
+  /** Same result as {@link #infer}, written to {@code sink}; built-in rules skip the boxing. */
+  default void inferInto(MapHAState state, AttributeSink sink) {
+    infer(state).ifPresent(e -> sink.put(e.getKey(), e.getValue()));
+  }
+
+  /**
+   * HA attribute keys whose presence the rule tests; at least one must be present for it to
+   * produce anything. Empty means the rule has to run for every state.
+   */
+  default Set<String> triggers() {
+    return Set.of();
+  }
+
+  /**
+   * HA attribute keys whose values the rule uses, or null if unknown. Together with {@link
+   * #triggers()} this must cover everything the rule looks at: when all of a domain's rules declare
+   * it, states that agree on these values and on which triggers are present share one result.
+   */
+  default Set<String> reads() {
+    return null;
+  }
 }
@@ -16,25 +16,22 @@ public final class AttributeRules {
 
   public static AttributeRule enumFrom(
       String canonicalName, String listKey, String fallbackOneOfKey, boolean optional) {
-    return state -> {
-      var a = state.attributes();
-      var list = asStringList(a.get(listKey));
+    return rule(
+        keys(listKey, fallbackOneOfKey),
+        keys(listKey, fallbackOneOfKey),
+        (state, sink) -> {
+          var a = state.attributes();
+          var list = a.strings(listKey);
 
-      var desc = AttributeDesc.newBuilder().setKind(FieldKind.ENUM);
-      if (optional) desc.setOptional(Boolean.TRUE);
+          var desc = AttributeDesc.newBuilder().setKind(FieldKind.ENUM);
+          if (optional) desc.setOptional(Boolean.TRUE);
 
-      if (!list.isEmpty()) {
-        desc.addAllEnumValues(list);
-        return Optional.of(Map.entry(canonicalName, desc.build()));
-      }
-
-      if (fallbackOneOfKey != null && a.get(fallbackOneOfKey) instanceof String one) {
-        desc.addEnumValues(one);
-        return Optional.of(Map.entry(canonicalName, desc.build()));
-      }
-
-      return Optional.empty();
-    };
+          if (!list.isEmpty()) {
+            sink.put(canonicalName, desc.addAllEnumValues(list).build());
+          } else if (fallbackOneOfKey != null && a.get(fallbackOneOfKey) instanceof String one) {
+            sink.put(canonicalName, desc.addEnumValues(one).build());
+          }
+        });
   }
 
   public static AttributeRule numberWithCapsTempC(
@@ -44,118 +41,139 @@ public final class AttributeRules {
       String maxKey,
       String stepKey,
       String unitAttrKey) {
-    return state -> {
-      var a = state.attributes();
-      var min = num(a.get(minKey));
-      var max = num(a.get(maxKey));
-      var step = num(a.get(stepKey));
-      var cap = CapabilityRange.newBuilder();
-
-      if (step == null) step = 0.5;
-
-      var u = str(a.get(unitAttrKey));
-      if (u != null
-          && (u.equalsIgnoreCase(UNIT_FAHRENHEIT_WITH_SYMBOL)
-              || u.equalsIgnoreCase(UNIT_FAHRENHEIT)
-              || u.equalsIgnoreCase(FAHRENHEIT))) {
-        if (min != null) cap.setMin(Temperature.fToC(min));
-        if (max != null) cap.setMax(Temperature.fToC(max));
-        cap.setStep(step * (5.0 / 9.0));
-      } else {
-        if (min != null) cap.setMin(min);
-        if (max != null) cap.setMax(max);
-        cap.setStep(step);
-      }
-
-      return Optional.of(
-          Map.entry(
+    return rule(
+        Set.of(),
+        keys(minKey, maxKey, stepKey, unitAttrKey),
+        (state, sink) -> {
+          var a = state.attributes();
+          var min = a.number(minKey);
+          var max = a.number(maxKey);
+          var step = a.number(stepKey);
+          var cap = CapabilityRange.newBuilder();
+
+          if (Double.isNaN(step)) step = 0.5;
+
+          var u = a.string(unitAttrKey);
+          if (u != null
+              && (u.equalsIgnoreCase(UNIT_FAHRENHEIT_WITH_SYMBOL)
+                  || u.equalsIgnoreCase(UNIT_FAHRENHEIT)
+                  || u.equalsIgnoreCase(FAHRENHEIT))) {
+            if (!Double.isNaN(min)) cap.setMin(Temperature.fToC(min));
+            if (!Double.isNaN(max)) cap.setMax(Temperature.fToC(max));
+            cap.setStep(step * (5.0 / 9.0));
+          } else {
+            if (!Double.isNaN(min)) cap.setMin(min);
+            if (!Double.isNaN(max)) cap.setMax(max);
+            cap.setStep(step);
+          }
+
+          sink.put(
               canonicalName,
               AttributeDesc.newBuilder()
                   .setKind(FieldKind.NUMBER)
                   .setUnit(unit)
                   .setCaps(cap)
-                  .build()));
-    };
+                  .build());
+        });
   }
 
   public static AttributeRule numberWithFixedCaps(
       String canonicalName, String unit, double min, double max, double step) {
-    return state ->
-        Optional.of(
-            Map.entry(
-                canonicalName,
-                AttributeDesc.newBuilder()
-                    .setKind(FieldKind.NUMBER)
-                    .setUnit(unit)
-                    .setCaps(CapabilityRange.newBuilder().setMin(min).setMax(max).setStep(step))
-                    .build()));
+    var desc =
+        AttributeDesc.newBuilder()
+            .setKind(FieldKind.NUMBER)
+            .setUnit(unit)
+            .setCaps(CapabilityRange.newBuilder().setMin(min).setMax(max).setStep(step))
+            .build();
+    return rule(Set.of(), Set.of(), (state, sink) -> sink.put(canonicalName, desc));
   }
 
   public static AttributeRule numberWithCapsFromKeys(
       String canonicalName, String unitKey, String minKey, String maxKey, String stepKey) {
-    return state -> {
-      var a = state.attributes();
-      var min = num(a.get(minKey));
-      var max = num(a.get(maxKey));
-      var step = num(a.get(stepKey));
-      var unit = str(a.get(unitKey));
+    return rule(
+        keys(minKey),
+        keys(unitKey, minKey, maxKey, stepKey),
+        (state, sink) -> {
+          var a = state.attributes();
+          var min = a.number(minKey);
+          var max = a.number(maxKey);
+          var step = a.number(stepKey);
+          var unit = a.string(unitKey);
 
-      var cap = CapabilityRange.newBuilder();
-      cap.setStep(step == null ? 1.0 : step);
+          if (Double.isNaN(min) || Double.isNaN(max) && unit == null) return;
 
-      if (min == null || max == null && unit == null) return Optional.empty();
-      cap.setMin(min);
-      if (max != null) cap.setMax(max);
+          var cap = CapabilityRange.newBuilder();
+          cap.setStep(Double.isNaN(step) ? 1.0 : step);
+          cap.setMin(min);
+          if (!Double.isNaN(max)) cap.setMax(max);
 
-      var desc = AttributeDesc.newBuilder().setKind(FieldKind.NUMBER).setCaps(cap);
+          var desc = AttributeDesc.newBuilder().setKind(FieldKind.NUMBER).setCaps(cap);
 
-      if (unit != null) desc.setUnit(unit);
+          if (unit != null) desc.setUnit(unit);
 
-      return Optional.of(Map.entry(canonicalName, desc.build()));
-    };
+          sink.put(canonicalName, desc.build());
+        });
   }
 
   public static AttributeRule numberDescriptor(String canonicalName, String unit) {
-    return state ->
-        Optional.of(
-            Map.entry(
-                canonicalName,
-                AttributeDesc.newBuilder().setKind(FieldKind.NUMBER).setUnit(unit).build()));
+    var desc = AttributeDesc.newBuilder().setKind(FieldKind.NUMBER).setUnit(unit).build();
+    return rule(Set.of(), Set.of(), (state, sink) -> sink.put(canonicalName, desc));
   }
 
   public static AttributeRule presentIfAny(AttributeRule base, String... haAttrKeys) {
-    Set<String> keys = Set.of(haAttrKeys);
-    return state -> {
-      var a = state.attributes();
-      for (var k : keys) if (a.containsKey(k)) return base.infer(state);
-      return Optional.empty();
-    };
+    var keys = haAttrKeys.clone();
+    return rule(
+        union(base.triggers(), keys),
+        base.reads(),
+        (state, sink) -> {
+          var a = state.attributes();
+          for (var k : keys) {
+            if (a.containsKey(k)) {
+              base.inferInto(state, sink);
+              return;
+            }
+          }
+        });
   }
 
   public static AttributeRule presentIfAll(AttributeRule base, String... haAttrKeys) {
-    Set<String> keys = Set.of(haAttrKeys);
-    return state -> {
-      var a = state.attributes();
-      for (var k : keys) if (!a.containsKey(k)) return Optional.empty();
-      return base.infer(state);
-    };
+    var keys = haAttrKeys.clone();
+    return rule(
+        union(base.triggers(), keys),
+        base.reads(),
+        (state, sink) -> {
+          var a = state.attributes();
+          for (var k : keys) if (!a.containsKey(k)) return;
+          base.inferInto(state, sink);
+        });
   }
 
+  /** Runs {@code base} when {@code pred} holds; not memoizable, since {@code pred} is opaque. */
   public static AttributeRule presentIf(AttributeRule base, Predicate<MapHAState> pred) {
-    return state -> pred.test(state) ? base.infer(state) : Optional.empty();
+    return presentIf(base, pred, (Set<String>) null);
+  }
+
+  /** As {@link #presentIf(AttributeRule, Predicate)}, for a {@code pred} reading only these. */
+  public static AttributeRule presentIf(
+      AttributeRule base, Predicate<MapHAState> pred, String... predReads) {
+    return presentIf(base, pred, keys(predReads));
+  }
+
+  private static AttributeRule presentIf(
+      AttributeRule base, Predicate<MapHAState> pred, Set<String> predReads) {
+    return rule(
+        base.triggers(),
+        predReads == null ? null : union(base.reads(), predReads.toArray(String[]::new)),
+        (state, sink) -> {
+          if (pred.test(state)) base.inferInto(state, sink);
+        });
   }
 
   public static AttributeRule booleanFlag(String canonicalName, String presenceKey) {
-    return presentIfAny(
-        state ->
-            Optional.of(
-                Map.entry(
-                    canonicalName,
-                    AttributeDesc.newBuilder()
-                        .setKind(FieldKind.BOOLEAN)
-                        .setOptional(Boolean.TRUE)
-                        .build())),
-        presenceKey);
+    var desc =
+        AttributeDesc.newBuilder().setKind(FieldKind.BOOLEAN).setOptional(Boolean.TRUE).build();
+    AttributeRule flag = rule(Set.of(), Set.of(), (state, sink) -> sink.put(canonicalName, desc));
+    return presentIfAny(flag, presenceKey);
   }
 
   public static AttributeRule percentPct(String canonicalName) {
@@ -165,18 +183,20 @@ public final class AttributeRules {
   public static AttributeRule colorTempKelvinFromMireds(
       String canonicalName, String minMiredKey, String maxMiredKey) {
     return presentIfAll(
-        state -> {
-          var a = state.attributes();
-          var minMired = num(a.get(minMiredKey));
-          var maxMired = num(a.get(maxMiredKey));
+        rule(
+            Set.of(),
+            keys(minMiredKey, maxMiredKey),
+            (state, sink) -> {
+              var a = state.attributes();
+              var minMired = a.number(minMiredKey);
+              var maxMired = a.number(maxMiredKey);
 
-          if (minMired == null || maxMired == null) return Optional.empty();
+              if (Double.isNaN(minMired) || Double.isNaN(maxMired)) return;
 
-          var minK = 1_000_000.0 / maxMired;
-          var maxK = 1_000_000.0 / minMired;
+              var minK = 1_000_000.0 / maxMired;
+              var maxK = 1_000_000.0 / minMired;
 
-          return Optional.of(
-              Map.entry(
+              sink.put(
                   canonicalName,
                   AttributeDesc.newBuilder()
                       .setKind(FieldKind.NUMBER)
@@ -186,8 +206,8 @@ public final class AttributeRules {
                               .setMin(minK)
                               .setMax(maxK)
                               .setStep(COLOR_TEMP_STEP_K))
-                      .build()));
-        },
+                      .build());
+            }),
         minMiredKey,
         maxMiredKey);
   }
@@ -209,26 +229,49 @@ public final class AttributeRules {
     };
   }
 
-  private static List<String> asStringList(Object o) {
-    if (o instanceof List<?> list) {
-      var out = new ArrayList<String>();
-      for (var it : list) if (it != null) out.add(it.toString());
-      return out;
-    }
+  /** The body of a built-in rule: emits at most one attribute, straight into the sink. */
+  @FunctionalInterface
+  private interface Body {
+    void inferInto(MapHAState state, AttributeSink sink);
+  }
 
-    return List.of();
+  private static AttributeRule rule(Set<String> triggers, Set<String> reads, Body body) {
+    return new AttributeRule() {
+      @Override
+      public Optional<Map.Entry<String, AttributeDesc>> infer(MapHAState state) {
+        var out = new ArrayList<Map.Entry<String, AttributeDesc>>(1);
+        body.inferInto(state, (name, desc) -> out.add(Map.entry(name, desc)));
+        return out.isEmpty() ? Optional.empty() : Optional.of(out.get(0));
+      }
+
+      @Override
+      public void inferInto(MapHAState state, AttributeSink sink) {
+        body.inferInto(state, sink);
+      }
+
+      @Override
+      public Set<String> triggers() {
+        return triggers;
+      }
+
+      @Override
+      public Set<String> reads() {
+        return reads;
+      }
+    };
   }
 
-  private static Double num(Object o) {
-    if (o instanceof Number n) return n.doubleValue();
-    try {
-      return o != null ? Double.parseDouble(o.toString()) : null;
-    } catch (Exception e) {
-      return null;
-    }
+  private static Set<String> keys(String... keys) {
+    var out = new LinkedHashSet<String>();
+    for (var k : keys) if (k != null) out.add(k);
+    return Collections.unmodifiableSet(out);
   }
 
-  private static String str(Object o) {
-    return o == null ? null : o.toString();
+  /** {@code reads} plus {@code more}, or null if {@code reads} is unknown. */
+  private static Set<String> union(Set<String> reads, String... more) {
+    if (reads == null) return null;
+    var out = new LinkedHashSet<>(reads);
+    for (var k : more) if (k != null) out.add(k);
+    return Collections.unmodifiableSet(out);
   }
 }
@@ -0,0 +1,12 @@
+package io.pulseautomate.map.manifest.infer;
+
+import io.pulseautomate.map.manifest.gen.model.AttributeDesc;
+
+/**
+ * Receives the attributes inferred for one entity. Several rules may emit the same name; sinks keep
+ * the first, as {@link DomainRuleSet#infer(io.pulseautomate.map.manifest.builder.MapHAState)} does.
+ */
+@FunctionalInterface
+public interface AttributeSink {
+  void put(String name, AttributeDesc desc);
+}
@@ -2,28 +2,74 @@ package io.pulseautomate.map.manifest.infer;
 
 import io.pulseautomate.map.manifest.builder.MapHAState;
 import io.pulseautomate.map.manifest.gen.model.AttributeDesc;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
 public final class DomainRuleSet {
+  public static final int DEFAULT_MEMO_SHAPES = 4096;
+
   private final String domain;
   private final List<AttributeRule> rules;
+  private final RulePlan plan;
+  private final InferenceMemo memo;
 
   public DomainRuleSet(String domain, List<AttributeRule> rules) {
+    this(domain, rules, DEFAULT_MEMO_SHAPES);
+  }
+
+  /**
+   * {@code memoShapes} bounds how many distinct attribute shapes are cached; 0 disables the cache.
+   * It is also off when any rule does not declare its {@link AttributeRule#reads()}.
+   */
+  public DomainRuleSet(String domain, List<AttributeRule> rules, int memoShapes) {
     this.domain = domain;
     this.rules = List.copyOf(rules);
+    this.plan = RulePlan.compile(this.rules);
+
+    var reads = new LinkedHashSet<String>();
+    var checks = new LinkedHashSet<String>();
+    for (var rule : this.rules) {
+      var r = rule.reads();
+      if (r == null) {
+        reads = null;
+        break;
+      }
+      reads.addAll(r);
+      checks.addAll(rule.triggers());
+    }
+    this.memo =
+        reads != null && memoShapes > 0 ? new InferenceMemo(reads, checks, memoShapes) : null;
   }
 
   public String domain() {
     return domain;
   }
 
+  /** The inferred attributes, unmodifiable and possibly shared with other states, or null. */
   public Map<String, AttributeDesc> infer(MapHAState state) {
-    var out = new LinkedHashMap<String, AttributeDesc>();
-    for (var rule : rules) {
-      rule.infer(state).ifPresent(e -> out.putIfAbsent(e.getKey(), e.getValue()));
-    }
+    var out = memo != null ? memo.get(state, this::compute) : compute(state);
     return out.isEmpty() ? null : out;
   }
+
+  /** Runs the rules whose trigger keys {@code state} has, in order, writing into {@code sink}. */
+  public void infer(MapHAState state, AttributeSink sink) {
+    if (memo == null) {
+      plan.infer(state, sink);
+      return;
+    }
+    memo.get(state, this::compute).forEach(sink::put);
+  }
+
+  public InferenceStats memoStats() {
+    return memo != null ? memo.stats() : InferenceStats.NONE;
+  }
+
+  private Map<String, AttributeDesc> compute(MapHAState state) {
+    var out = new LinkedHashMap<String, AttributeDesc>();
+    plan.infer(state, out::putIfAbsent);
+    return out.isEmpty() ? Map.of() : Collections.unmodifiableMap(out);
+  }
 }
@@ -0,0 +1,89 @@
+package io.pulseautomate.map.manifest.infer;
+
+import io.pulseautomate.map.manifest.builder.MapHAState;
+import io.pulseautomate.map.manifest.gen.model.AttributeDesc;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Inference results keyed on only what a domain's rules look at (the values they read and the keys
+ * they test for presence), so identical devices share one immutable descriptor map. Bounded: once
+ * full, new shapes are inferred but not cached.
+ */
+final class InferenceMemo {
+  private static final Object ABSENT = new Object();
+  private static final Object PRESENT = new Object();
+
+  private final String[] reads;
+  private final String[] checks;
+  private final int maxEntries;
+  private final ConcurrentHashMap<Shape, Map<String, AttributeDesc>> cache =
+      new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /** {@code reads} are keyed on value, {@code checks} only on presence. */
+  InferenceMemo(Set<String> reads, Set<String> checks, int maxEntries) {
+    this.reads = reads.toArray(String[]::new);
+    this.checks = checks.stream().filter(k -> !reads.contains(k)).toArray(String[]::new);
+    this.maxEntries = maxEntries;
+  }
+
+  Map<String, AttributeDesc> get(
+      MapHAState state, Function<MapHAState, Map<String, AttributeDesc>> infer) {
+    var shape = shape(state);
+    var cached = cache.get(shape);
+    if (cached != null) {
+      hits.increment();
+      return cached;
+    }
+    misses.increment();
+    var result = infer.apply(state);
+    if (cache.size() < maxEntries) {
+      var prev = cache.putIfAbsent(shape, result);
+      if (prev != null) return prev;
+    }
+    return result;
+  }
+
+  InferenceStats stats() {
+    return new InferenceStats(hits.sum(), misses.sum(), cache.size());
+  }
+
+  private Shape shape(MapHAState state) {
+    var a = state.attributes();
+    var values = new Object[reads.length + checks.length];
+    for (var i = 0; i < reads.length; i++) {
+      values[i] = a.containsKey(reads[i]) ? a.get(reads[i]) : ABSENT;
+    }
+    for (var i = 0; i < checks.length; i++) {
+      values[reads.length + i] = a.containsKey(checks[i]) ? PRESENT : ABSENT;
+    }
+    return new Shape(values);
+  }
+
+  /** Read values, then check presence, in key order; absent and null-valued keys differ. */
+  private static final class Shape {
+    private final Object[] values;
+    private final int hash;
+
+    Shape(Object[] values) {
+      this.values = values;
+      this.hash = Arrays.hashCode(values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Shape that && hash == that.hash && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
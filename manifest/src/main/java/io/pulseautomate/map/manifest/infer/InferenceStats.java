@@ -0,0 +1,16 @@
+package io.pulseautomate.map.manifest.infer;
+
+/**
+ * Memoized inference counters.
+ *
+ * @param hits entities whose attributes came from the cache
+ * @param misses entities whose rules ran
+ * @param shapes distinct attribute shapes cached
+ */
+public record InferenceStats(long hits, long misses, int shapes) {
+  public static final InferenceStats NONE = new InferenceStats(0, 0, 0);
+
+  public InferenceStats plus(InferenceStats o) {
+    return new InferenceStats(hits + o.hits, misses + o.misses, shapes + o.shapes);
+  }
+}
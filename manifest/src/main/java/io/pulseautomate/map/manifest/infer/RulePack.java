@@ -0,0 +1,308 @@
+package io.pulseautomate.map.manifest.infer;
+
+import static io.pulseautomate.map.manifest.infer.AttributeRules.*;
+import static io.pulseautomate.map.manifest.util.Names.HaAttr.SUPPORTED_COLOR_MODES;
+
+import io.pulseautomate.map.ha.json.JsonReader;
+import io.pulseautomate.map.manifest.builder.MapHAState;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Attribute inference rules as data: for each domain, which attribute to emit, of what kind, read
+ * from which HA attribute keys, with which caps and under which condition.
+ *
+ * <pre>
+ * {"format": 1, "domains": {"fan": [
+ *   {"attr": "speed_pct", "kind": "number", "unit": "%",
+ *    "caps": {"min": 0, "max": 100, "step": 1}, "when": {"any": ["percentage"]}},
+ *   {"attr": "direction", "kind": "enum", "optional": true,
+ *    "source": {"list": "direction_list", "value": "direction"}}]}}
+ * </pre>
+ *
+ * <p>A pack holds only strings, numbers and immutable collections, so the built-in pack can be
+ * parsed while the native image is built and stored in its heap; {@link #toRegistry()} then only
+ * wires up the rule objects.
+ */
+public final class RulePack {
+  public static final int FORMAT = 1;
+  static final String BUILT_IN_RESOURCE = "default-rules.json";
+
+  private static final Map<String, Set<String>> SOURCE_KEYS =
+      Map.of(
+          "enum", Set.of("list", "value"),
+          "number", Set.of("min", "max", "step", "unit"),
+          "temperature", Set.of("min", "max", "step", "unit"),
+          "kelvin_from_mireds", Set.of("min", "max"),
+          "boolean", Set.of("present"));
+
+  /** Fixed capability range; {@code step} defaults to 1. */
+  public record Caps(double min, double max, double step) {}
+
+  /** Preconditions on the state; unset parts always hold. */
+  public record When(List<String> any, List<String> all, String colorMode, String orPresent) {}
+
+  /** One rule: emits {@code attr} of {@code kind}, or nothing. */
+  public record Rule(
+      String attr,
+      String kind,
+      String unit,
+      boolean optional,
+      Map<String, String> source,
+      Caps caps,
+      When when) {}
+
+  private final Map<String, List<Rule>> domains;
+
+  private RulePack(Map<String, List<Rule>> domains) {
+    this.domains = domains;
+  }
+
+  /** The pack the CLI ships with; parsed once, at image build time in native builds. */
+  public static RulePack builtIn() {
+    return BuiltIn.PACK;
+  }
+
+  public static RulePack load(Path file) throws IOException {
+    try (var in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return parse(in);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(file + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @throws IOException if {@code in} is not JSON
+   * @throws IllegalArgumentException naming the first rule that is not valid
+   */
+  public static RulePack parse(Reader in) throws IOException {
+    var doc = new JsonReader(in).readValue();
+    if (!(doc instanceof Map<?, ?> root)) throw new IllegalArgumentException("expected an object");
+    if (!(root.get("format") instanceof Number n) || n.intValue() != FORMAT)
+      throw new IllegalArgumentException("unsupported format " + root.get("format"));
+    if (!(root.get("domains") instanceof Map<?, ?> ds))
+      throw new IllegalArgumentException("missing domains");
+
+    var out = new LinkedHashMap<String, List<Rule>>();
+    for (var d : ds.entrySet()) {
+      var domain = (String) d.getKey();
+      if (!(d.getValue() instanceof List<?> list))
+        throw new IllegalArgumentException(domain + ": expected a list of rules");
+      var rules = new ArrayList<Rule>(list.size());
+      for (var i = 0; i < list.size(); i++) rules.add(rule(domain + "[" + i + "]", list.get(i)));
+      out.put(domain, List.copyOf(rules));
+    }
+    return new RulePack(Collections.unmodifiableMap(out));
+  }
+
+  public Map<String, List<Rule>> domains() {
+    return domains;
+  }
+
+  /**
+   * These rules plus {@code site}'s: a site rule replaces the rule for the same attribute in place,
+   * other site rules run after the ones here.
+   */
+  public RulePack plus(RulePack site) {
+    var out = new LinkedHashMap<String, List<Rule>>(domains);
+    site.domains.forEach(
+        (domain, extra) -> {
+          var merged = new ArrayList<>(out.getOrDefault(domain, List.of()));
+          for (var rule : extra) {
+            var at = indexOf(merged, rule.attr());
+            if (at >= 0) merged.set(at, rule);
+            else merged.add(rule);
+          }
+          out.put(domain, List.copyOf(merged));
+        });
+    return new RulePack(Collections.unmodifiableMap(out));
+  }
+
+  public RuleRegistry toRegistry() {
+    var sets = new ArrayList<DomainRuleSet>(domains.size());
+    domains.forEach(
+        (domain, rules) -> {
+          var compiled = new ArrayList<AttributeRule>(rules.size());
+          for (var rule : rules) compiled.add(compile(rule));
+          sets.add(new DomainRuleSet(domain, compiled));
+        });
+    return RuleRegistry.of(sets);
+  }
+
+  static AttributeRule compile(Rule r) {
+    var s = r.source();
+    var rule =
+        switch (r.kind()) {
+          case "enum" -> enumFrom(r.attr(), s.get("list"), s.get("value"), r.optional());
+          case "temperature" ->
+              numberWithCapsTempC(
+                  r.attr(), r.unit(), s.get("min"), s.get("max"), s.get("step"), s.get("unit"));
+          case "kelvin_from_mireds" ->
+              colorTempKelvinFromMireds(r.attr(), s.get("min"), s.get("max"));
+          case "boolean" -> booleanFlag(r.attr(), s.get("present"));
+          default -> {
+            if (!s.isEmpty())
+              yield numberWithCapsFromKeys(
+                  r.attr(), s.get("unit"), s.get("min"), s.get("max"), s.get("step"));
+            var c = r.caps();
+            yield c != null
+                ? numberWithFixedCaps(r.attr(), r.unit(), c.min(), c.max(), c.step())
+                : numberDescriptor(r.attr(), r.unit());
+          }
+        };
+
+    var w = r.when();
+    if (w == null) return rule;
+    if (!w.any().isEmpty()) rule = presentIfAny(rule, w.any().toArray(String[]::new));
+    if (!w.all().isEmpty()) rule = presentIfAll(rule, w.all().toArray(String[]::new));
+    if (w.colorMode() != null) {
+      var orPresent = w.orPresent();
+      Predicate<MapHAState> pred = colorModeIncludes(w.colorMode());
+      rule =
+          orPresent == null
+              ? presentIf(rule, pred, SUPPORTED_COLOR_MODES)
+              : presentIf(
+                  rule,
+                  pred.or(state -> state.attributes().containsKey(orPresent)),
+                  SUPPORTED_COLOR_MODES,
+                  orPresent);
+    }
+    return rule;
+  }
+
+  private static Rule rule(String where, Object o) {
+    if (!(o instanceof Map<?, ?> m))
+      throw new IllegalArgumentException(where + ": expected an object");
+    for (var k : m.keySet())
+      if (!Set.of("attr", "kind", "unit", "optional", "source", "caps", "when").contains(k))
+        throw new IllegalArgumentException(where + ": unknown field \"" + k + "\"");
+
+    var attr = string(where, m, "attr", true);
+    var kind = string(where, m, "kind", true);
+    var allowed = SOURCE_KEYS.get(kind);
+    if (allowed == null)
+      throw new IllegalArgumentException(where + ": unknown kind \"" + kind + "\"");
+    var unit = string(where, m, "unit", false);
+    var optional = Boolean.TRUE.equals(m.get("optional"));
+
+    var source = new LinkedHashMap<String, String>();
+    if (m.get("source") instanceof Map<?, ?> src) {
+      for (var e : src.entrySet()) {
+        if (!allowed.contains(e.getKey()))
+          throw new IllegalArgumentException(
+              where + ": " + kind + " does not read source \"" + e.getKey() + "\"");
+        if (!(e.getValue() instanceof String key))
+          throw new IllegalArgumentException(
+              where + ": source." + e.getKey() + " must be a string");
+        source.put((String) e.getKey(), key);
+      }
+    } else if (m.containsKey("source")) {
+      throw new IllegalArgumentException(where + ": source must be an object");
+    }
+
+    var caps = caps(where, m.get("caps"));
+    switch (kind) {
+      case "enum" -> require(where, source, "list");
+      case "temperature" -> require(where, source, "min", "max", "step", "unit");
+      case "kelvin_from_mireds" -> require(where, source, "min", "max");
+      case "boolean" -> require(where, source, "present");
+      default -> {
+        if (!source.isEmpty()) {
+          require(where, source, "min");
+          if (caps != null)
+            throw new IllegalArgumentException(where + ": give caps or source keys, not both");
+        } else if (unit == null) {
+          throw new IllegalArgumentException(where + ": missing unit");
+        }
+      }
+    }
+    if (kind.equals("temperature") && unit == null)
+      throw new IllegalArgumentException(where + ": missing unit");
+    if (caps != null && !kind.equals("number"))
+      throw new IllegalArgumentException(where + ": " + kind + " does not take caps");
+
+    return new Rule(
+        attr, kind, unit, optional, Collections.unmodifiableMap(source), caps, when(where, m));
+  }
+
+  private static Caps caps(String where, Object o) {
+    if (o == null) return null;
+    if (!(o instanceof Map<?, ?> c)
+        || !(c.get("min") instanceof Number min)
+        || !(c.get("max") instanceof Number max))
+      throw new IllegalArgumentException(where + ": caps needs numeric min and max");
+    var step = c.get("step") instanceof Number n ? n.doubleValue() : 1.0;
+    return new Caps(min.doubleValue(), max.doubleValue(), step);
+  }
+
+  private static When when(String where, Map<?, ?> m) {
+    var o = m.get("when");
+    if (o == null) return null;
+    if (!(o instanceof Map<?, ?> w))
+      throw new IllegalArgumentException(where + ": when must be an object");
+    for (var k : w.keySet())
+      if (!Set.of("any", "all", "color_mode", "or_present").contains(k))
+        throw new IllegalArgumentException(where + ": unknown condition \"" + k + "\"");
+
+    var colorMode = string(where, w, "color_mode", false);
+    var orPresent = string(where, w, "or_present", false);
+    if (orPresent != null && colorMode == null)
+      throw new IllegalArgumentException(where + ": or_present needs color_mode");
+    return new When(strings(where, w, "any"), strings(where, w, "all"), colorMode, orPresent);
+  }
+
+  private static String string(String where, Map<?, ?> m, String key, boolean required) {
+    var o = m.get(key);
+    if (o instanceof String s && !s.isEmpty()) return s;
+    if (o == null && !required) return null;
+    throw new IllegalArgumentException(where + ": " + key + " must be a non-empty string");
+  }
+
+  private static List<String> strings(String where, Map<?, ?> m, String key) {
+    var o = m.get(key);
+    if (o == null) return List.of();
+    var out = new ArrayList<String>();
+    if (o instanceof List<?> list) for (var it : list) if (it instanceof String s) out.add(s);
+    if (!(o instanceof List<?> list) || out.size() != list.size() || out.isEmpty())
+      throw new IllegalArgumentException(where + ": " + key + " must be a list of strings");
+    return List.copyOf(out);
+  }
+
+  private static void require(String where, Map<String, String> source, String... keys) {
+    for (var k : keys)
+      if (!source.containsKey(k))
+        throw new IllegalArgumentException(where + ": missing source \"" + k + "\"");
+  }
+
+  private static int indexOf(List<Rule> rules, String attr) {
+    for (var i = 0; i < rules.size(); i++) if (rules.get(i).attr().equals(attr)) return i;
+    return -1;
+  }
+
+  /** Initialized at image build time in native builds (see map-cli's build.gradle.kts). */
+  private static final class BuiltIn {
+    static final RulePack PACK = read();
+
+    private static RulePack read() {
+      var in = RulePack.class.getResourceAsStream(BUILT_IN_RESOURCE);
+      if (in == null) throw new IllegalStateException("missing " + BUILT_IN_RESOURCE);
+      try (var reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+        return parse(reader);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package io.pulseautomate.map.manifest.infer;
+
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.manifest.builder.MapHAState;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A domain's rules compiled for dispatch: each trigger key gets a bit, each rule a mask of its
+ * trigger bits, and a state only runs the rules whose mask meets the keys it actually has.
+ */
+final class RulePlan {
+  private final AttributeRule[] rules;
+  private final long[] masks;
+  private final Map<String, Integer> bits;
+
+  private RulePlan(AttributeRule[] rules, long[] masks, Map<String, Integer> bits) {
+    this.rules = rules;
+    this.masks = masks;
+    this.bits = bits;
+  }
+
+  /** Rules with no triggers, or more distinct trigger keys than fit a mask, always run. */
+  static RulePlan compile(List<AttributeRule> rules) {
+    var bits = new HashMap<String, Integer>();
+    var masks = new long[rules.size()];
+    for (var r = 0; r < masks.length; r++) {
+      var mask = 0L;
+      for (var key : rules.get(r).triggers()) {
+        var bit = bits.get(key);
+        if (bit == null && bits.size() < Long.SIZE) bits.put(key, bit = bits.size());
+        if (bit == null) {
+          mask = 0L;
+          break;
+        }
+        mask |= 1L << bit;
+      }
+      masks[r] = mask;
+    }
+    return new RulePlan(rules.toArray(AttributeRule[]::new), masks, Map.copyOf(bits));
+  }
+
+  void infer(MapHAState state, AttributeSink sink) {
+    var present = present(state.attributes());
+    for (var r = 0; r < rules.length; r++) {
+      var mask = masks[r];
+      if (mask == 0L || (mask & present) != 0L) rules[r].inferInto(state, sink);
+    }
+  }
+
+  private long present(HAAttributes a) {
+    var present = 0L;
+    for (var i = 0; i < a.size(); i++) {
+      var bit = bits.get(a.key(i));
+      if (bit != null) present |= 1L << bit;
+    }
+    return present;
+  }
+}
@@ -0,0 +1,191 @@
+package io.pulseautomate.map.manifest.lock;
+
+import static io.pulseautomate.map.manifest.util.Constants.LOCK_SCHEMA_V2;
+
+import io.pulseautomate.map.manifest.builder.IncrementalManifest;
+import io.pulseautomate.map.manifest.gen.model.EnumCache;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.LockFile;
+import io.pulseautomate.map.manifest.serde.CanonicalWriter;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A schema 2 lock kept current alongside an {@link IncrementalManifest}. Each {@link #apply} hashes
+ * only the entities and services in the change set and the Merkle path above each of them, so an
+ * edit, add or remove costs O(changes · log N) hashes instead of rehashing the whole manifest. The
+ * {@link LockFile} itself is only built when {@link #lock()} asks for it.
+ *
+ * <p>The lock equals {@link LockBuilder#build(io.pulseautomate.map.manifest.gen.model.Manifest,
+ * LockFile, Instant, int)} of the current manifest with the previous lock. Not thread-safe.
+ */
+public final class IncrementalLock {
+  private final IncrementalManifest manifest;
+  private final MerkleTree tree;
+  private final MessageDigest digest = HashAlgo.SHA256.newDigest();
+  private final Map<String, Entity> entities = new HashMap<>();
+  private final Map<String, String> entityMap;
+  private final Map<String, String> serviceSig;
+  private final Map<String, String> collisions;
+  private final HashAlgo stableIds;
+  private final StableIdAssigner ids;
+  private final Set<String> recheck = new HashSet<>();
+  private final Map<String, TreeMap<String, Integer>> enumCounts = new HashMap<>();
+  private String generatedAt;
+  private LockFile lock; // null until lock() is asked for after an apply
+
+  private IncrementalLock(IncrementalManifest manifest, LockFile lock) {
+    if (lock.getSchema() != LOCK_SCHEMA_V2)
+      throw new IllegalArgumentException("lock schema " + lock.getSchema() + " has no leaf hashes");
+    this.manifest = manifest;
+    this.lock = lock;
+    this.generatedAt = lock.getGeneratedAt();
+    this.tree = MerkleTree.fromHex(lock.getLeavesMap());
+    tree.root(); // builds the inner nodes now, so the first apply only rehashes its paths
+    this.entityMap = new HashMap<>(lock.getEntityMapMap());
+    this.serviceSig = new HashMap<>(lock.getServiceSigMap());
+    this.collisions = new HashMap<>(lock.getStableIdCollisionsMap());
+    this.stableIds = HashAlgo.forId(lock.getStableIdHash());
+    this.ids = new StableIdAssigner(entityMap, collisions, stableIds);
+    for (var e : manifest.manifest().getEntitiesList()) {
+      entities.put(e.getEntityId(), e);
+      count(e, 1);
+    }
+  }
+
+  /** Builds the lock of {@code manifest}'s current state in full. */
+  public static IncrementalLock of(
+      IncrementalManifest manifest, LockFile previous, Instant nowUtc) {
+    return of(manifest, previous, nowUtc, HashAlgo.SHA256);
+  }
+
+  /** As above, deriving new stable ids with {@code stableIds}. */
+  public static IncrementalLock of(
+      IncrementalManifest manifest, LockFile previous, Instant nowUtc, HashAlgo stableIds) {
+    Objects.requireNonNull(manifest, "manifest");
+    var options = new LockBuilder.Options(LOCK_SCHEMA_V2, stableIds);
+    return new IncrementalLock(
+        manifest, LockBuilder.build(manifest.manifest(), previous, nowUtc, options));
+  }
+
+  /**
+   * Picks up from a schema 2 lock of {@code manifest}'s current state. The inner nodes are rebuilt
+   * from the stored leaf hashes; no element is hashed.
+   *
+   * @throws IllegalArgumentException if {@code lock} is not schema 2
+   */
+  public static IncrementalLock resume(IncrementalManifest manifest, LockFile lock) {
+    Objects.requireNonNull(manifest, "manifest");
+    return new IncrementalLock(manifest, lock);
+  }
+
+  /**
+   * Rehashes what {@code changes} touched; pass every change set the manifest has drained.
+   *
+   * @return the new manifest hash
+   */
+  public String apply(IncrementalManifest.ChangeSet changes, Instant nowUtc) {
+    Objects.requireNonNull(nowUtc, "nowUtc");
+    var released = new HashSet<String>();
+    for (var id : changes.removed()) {
+      var prev = entities.remove(id);
+      if (prev != null) count(prev, -1);
+      var stable = entityMap.remove(id);
+      if (stable != null) released.add(stable);
+      collisions.remove(id);
+      tree.remove(MerkleTree.entityKey(id));
+    }
+    for (var id : changes.added()) putEntity(id, released);
+    for (var id : changes.changed()) putEntity(id, released);
+    for (var id : recheck) {
+      var e = manifest.entity(id);
+      if (e != null) assign(id, e, released);
+    }
+    recheck.clear();
+    // as in a full build against the previous lock, an id given up stays taken until now
+    for (var stable : released) ids.release(stable);
+    // and the next full build gives it back to an entity that was extended past it
+    for (var c : collisions.entrySet())
+      if (released.contains(c.getValue())) recheck.add(c.getKey());
+
+    for (var key : changes.services()) {
+      var s = manifest.service(key);
+      var leafKey = MerkleTree.serviceKey(key);
+      if (s == null) {
+        serviceSig.remove(key);
+        tree.remove(leafKey);
+        continue;
+      }
+      serviceSig.put(key, LockBuilder.serviceSig(s));
+      tree.put(leafKey, MerkleTree.leaf(digest, leafKey, CanonicalWriter.encode(s)));
+    }
+
+    generatedAt = DateTimeFormatter.ISO_INSTANT.format(nowUtc);
+    lock = null;
+    return tree.rootHex();
+  }
+
+  /** The lock of the manifest as of the last {@link #apply}. */
+  public LockFile lock() {
+    if (lock != null) return lock;
+    var b =
+        LockFile.newBuilder()
+            .setSchema(LOCK_SCHEMA_V2)
+            .setManifestHash(tree.rootHex())
+            .setGeneratedAt(generatedAt)
+            .setStableIdHash(stableIds.id)
+            .putAllEntityMap(entityMap)
+            .putAllStableIdCollisions(collisions)
+            .putAllServiceSig(serviceSig)
+            .putAllLeaves(tree.hexLeaves());
+    enumCounts.forEach(
+        (key, values) ->
+            b.putAttrEnums(key, EnumCache.newBuilder().addAllValues(values.keySet()).build()));
+    lock = b.build();
+    return lock;
+  }
+
+  /** Inner nodes hashed so far. */
+  long nodeHashes() {
+    return tree.nodeHashes();
+  }
+
+  private void putEntity(String id, Set<String> released) {
+    var e = manifest.entity(id);
+    if (e == null) return;
+    var prev = entities.put(id, e);
+    if (prev != null) count(prev, -1);
+    count(e, 1);
+    assign(id, e, released);
+    var leafKey = MerkleTree.entityKey(id);
+    tree.put(leafKey, MerkleTree.leaf(digest, leafKey, CanonicalWriter.encode(e)));
+  }
+
+  /** Gives {@code e} its stable id; an id it gives up goes to {@code released}. */
+  private void assign(String id, Entity e, Set<String> released) {
+    var stable = ids.assign(e);
+    var old = entityMap.put(id, stable.id());
+    if (old != null && !old.equals(stable.id())) released.add(old);
+    if (stable.collision() != null) collisions.put(id, stable.collision());
+    else collisions.remove(id);
+  }
+
+  private void count(Entity e, int delta) {
+    LockBuilder.forEachEnum(e, (key, values) -> count(key, values, delta));
+  }
+
+  private void count(String key, List<String> values, int delta) {
+    var counts = enumCounts.computeIfAbsent(key, k -> new TreeMap<>());
+    for (var v : values) counts.merge(v, delta, (a, b) -> a + b == 0 ? null : a + b);
+    if (counts.isEmpty()) enumCounts.remove(key);
+  }
+}
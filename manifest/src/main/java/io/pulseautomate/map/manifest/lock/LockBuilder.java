@@ -2,97 +2,290 @@ package io.pulseautomate.map.manifest.lock;
 
 import static io.pulseautomate.map.manifest.util.Constants.*;
 
+import io.pulseautomate.map.ha.model.StringDictionary;
 import io.pulseautomate.map.manifest.gen.model.*;
-import io.pulseautomate.map.manifest.id.StableId;
+import io.pulseautomate.map.manifest.id.StableIdIndex;
+import io.pulseautomate.map.manifest.serde.CanonicalWriter;
 import io.pulseautomate.map.manifest.serde.ManifestCanonicalizer;
+import io.pulseautomate.map.manifest.serde.ManifestSink;
+import io.pulseautomate.map.manifest.util.Constants;
+import io.pulseautomate.map.manifest.util.HashAlgo;
 import io.pulseautomate.map.manifest.util.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.BiConsumer;
 
 public final class LockBuilder {
+  private static final StringDictionary DICT = StringDictionary.shared();
+  private static final ThreadLocal<StringBuilder> SHAPE =
+      ThreadLocal.withInitial(() -> new StringBuilder(128));
+
   private LockBuilder() {}
 
+  /**
+   * How a lock is built.
+   *
+   * @param schema {@link Constants#LOCK_SCHEMA_V1} hashes the manifest bytes; {@link
+   *     Constants#LOCK_SCHEMA_V2} is the root of a {@link MerkleTree} over its elements and also
+   *     stores the leaf hashes, so {@link IncrementalLock} can rehash only what changed
+   * @param stableIds derives the stable ids that neither the manifest nor the previous lock has. It
+   *     is recorded in the lock, and a previous lock's algorithm wins, so one lock never mixes two.
+   */
+  public record Options(int schema, HashAlgo stableIds) {
+    public static final Options DEFAULT = new Options(LOCK_SCHEMA_V1, HashAlgo.SHA256);
+
+    public Options {
+      checkSchema(schema);
+      Objects.requireNonNull(stableIds, "stableIds");
+    }
+
+    public Options withSchema(int schema) {
+      return new Options(schema, stableIds);
+    }
+
+    public Options withStableIds(HashAlgo stableIds) {
+      return new Options(schema, stableIds);
+    }
+  }
+
   public static LockFile build(Manifest manifest, LockFile previous, Instant nowUtc) {
+    return build(manifest, previous, nowUtc, Options.DEFAULT);
+  }
+
+  public static LockFile build(
+      Manifest manifest, LockFile previous, Instant nowUtc, int lockSchema) {
+    return build(manifest, previous, nowUtc, Options.DEFAULT.withSchema(lockSchema));
+  }
+
+  public static LockFile build(
+      Manifest manifest, LockFile previous, Instant nowUtc, Options options) {
     Objects.requireNonNull(manifest, "manifest");
+
+    var lock = streaming(previous, nowUtc, options);
+    try {
+      ManifestCanonicalizer.replay(manifest, lock);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // nothing here does I/O
+    }
+    return lock.lock();
+  }
+
+  /** Only the manifest hash of {@link #build}; a schema 1 hash is taken while encoding. */
+  public static String manifestHash(Manifest manifest, int lockSchema) {
+    if (checkSchema(lockSchema) == LOCK_SCHEMA_V1)
+      return Hashing.hex(CanonicalWriter.sha256(manifest));
+    return build(manifest, null, Instant.EPOCH, lockSchema).getManifestHash();
+  }
+
+  /**
+   * A lock built from a manifest as it streams past in canonical element order (see {@link
+   * ManifestCanonicalizer#canonicalizing} and {@link ManifestCanonicalizer#replay}); the manifest
+   * hash is taken over the bytes {@link CanonicalWriter} produces. Call {@link Streaming#lock()}
+   * after {@code end()}.
+   */
+  public static Streaming streaming(LockFile previous, Instant nowUtc) {
+    return streaming(previous, nowUtc, Options.DEFAULT);
+  }
+
+  public static Streaming streaming(LockFile previous, Instant nowUtc, Options options) {
     Objects.requireNonNull(nowUtc, "nowUtc");
+    return new Streaming(previous, nowUtc, options, true);
+  }
+
+  /**
+   * Like {@link #streaming}, for callers that encode the manifest themselves: the elements only
+   * feed the entity map, service signatures and enum caches, and the hash is taken over the bytes
+   * passed to {@link Streaming#hash}, which must be the canonical manifest's, in order. A schema 2
+   * lock hashes the elements and ignores those bytes.
+   */
+  public static Streaming streamingEncoded(LockFile previous, Instant nowUtc) {
+    return streamingEncoded(previous, nowUtc, Options.DEFAULT);
+  }
 
-    Manifest canon = ManifestCanonicalizer.canonicalize(manifest);
-    var manifestHash = Hashing.sha256Hex(canon.toByteArray());
+  public static Streaming streamingEncoded(LockFile previous, Instant nowUtc, Options options) {
+    Objects.requireNonNull(nowUtc, "nowUtc");
+    return new Streaming(previous, nowUtc, options, false);
+  }
 
-    var lockFile =
-        LockFile.newBuilder()
-            .setSchema(LOCK_SCHEMA_V1)
-            .setManifestHash(manifestHash)
-            .setGeneratedAt(DateTimeFormatter.ISO_INSTANT.format(nowUtc));
+  private static int checkSchema(int lockSchema) {
+    if (lockSchema != LOCK_SCHEMA_V1 && lockSchema != LOCK_SCHEMA_V2)
+      throw new IllegalArgumentException("unsupported lock schema " + lockSchema);
+    return lockSchema;
+  }
 
-    Map<String, String> prevEntityMap = (previous != null) ? previous.getEntityMapMap() : Map.of();
+  public static final class Streaming implements ManifestSink {
+    private final MessageDigest digest = HashAlgo.SHA256.newDigest();
+    private final CanonicalWriter hashed;
+    private final MerkleTree tree;
+    private final HashAlgo stableIds;
+    private final StableIdAssigner ids;
+    private final LockFile.Builder lockFile;
+    private final Map<String, List<String>> attrEnums = new LinkedHashMap<>();
+    private int schema;
+    private String haVersion;
+    private EntityFilter filter;
+    private boolean ended;
 
-    for (var e : canon.getEntitiesList()) {
-      var stable = e.getStableId();
-      if (stable.isBlank()) stable = prevEntityMap.get(e.getEntityId());
-      if (stable == null || stable.isBlank()) stable = StableId.derive(e.getEntityId());
-      lockFile.putEntityMap(e.getEntityId(), stable);
+    private Streaming(LockFile previous, Instant nowUtc, Options options, boolean encode) {
+      this.tree = options.schema() == LOCK_SCHEMA_V2 ? new MerkleTree() : null;
+      this.hashed =
+          encode && tree == null
+              ? new CanonicalWriter(new DigestOutputStream(OutputStream.nullOutputStream(), digest))
+              : null;
+      this.stableIds =
+          previous != null ? HashAlgo.forId(previous.getStableIdHash()) : options.stableIds();
+      var prev = previous != null ? previous : LockFile.getDefaultInstance();
+      // the previous ids are taken first, so a new entity never claims one of them
+      this.ids =
+          new StableIdAssigner(prev.getEntityMapMap(), prev.getStableIdCollisionsMap(), stableIds);
+      this.lockFile =
+          LockFile.newBuilder()
+              .setSchema(options.schema())
+              .setGeneratedAt(DateTimeFormatter.ISO_INSTANT.format(nowUtc))
+              .setStableIdHash(stableIds.id);
     }
 
-    for (var s : canon.getServicesList()) {
-      var key = s.getDomain() + "." + s.getService();
-      var shape = signatureShape(s);
-      lockFile.putServiceSig(key, Hashing.sha256Hex(shape));
+    @Override
+    public void begin(int schema, String haVersion) throws IOException {
+      if (hashed != null) hashed.begin(schema, haVersion);
+      this.schema = schema;
+      this.haVersion = haVersion;
     }
 
-    Map<String, List<String>> attrEnums = new LinkedHashMap<>();
-    for (var e : canon.getEntitiesList()) {
-      for (var entry : e.getAttributesMap().entrySet()) {
-        var attr = entry.getKey();
-        var desc = entry.getValue();
+    @Override
+    public void entity(Entity e) throws IOException {
+      if (hashed != null) hashed.entity(e);
+      if (tree != null)
+        tree.put(
+            MerkleTree.entityKey(e.getEntityId()),
+            MerkleTree.leaf(
+                digest, MerkleTree.entityKey(e.getEntityId()), CanonicalWriter.encode(e)));
 
-        if (desc.getEnumValuesCount() == 0) continue;
-        var key = e.getDomain() + "." + attr;
-        var list = attrEnums.computeIfAbsent(key, k -> new ArrayList<>());
-        list.addAll(desc.getEnumValuesList());
-      }
+      var id = e.getEntityId();
+      var stable = ids.assign(e);
+      lockFile.putEntityMap(id, stable.id());
+      if (stable.collision() != null) lockFile.putStableIdCollisions(id, stable.collision());
+      forEachEnum(
+          e,
+          (key, values) -> attrEnums.computeIfAbsent(key, k -> new ArrayList<>()).addAll(values));
     }
 
-    for (var it : attrEnums.entrySet()) {
-      List<String> uniqSorted = it.getValue().stream().distinct().sorted().toList();
-      lockFile.putAttrEnums(it.getKey(), EnumCache.newBuilder().addAllValues(uniqSorted).build());
+    @Override
+    public void service(Service s) throws IOException {
+      if (hashed != null) hashed.service(s);
+
+      var key = DICT.intern(s.getDomain() + "." + s.getService());
+      if (tree != null)
+        tree.put(
+            MerkleTree.serviceKey(key),
+            MerkleTree.leaf(digest, MerkleTree.serviceKey(key), CanonicalWriter.encode(s)));
+      lockFile.putServiceSig(key, serviceSig(s));
     }
 
-    return lockFile.build();
-  }
+    @Override
+    public void device(Device d) throws IOException {
+      if (hashed != null) hashed.device(d);
+      if (tree != null)
+        tree.put(
+            MerkleTree.deviceKey(d.getId()),
+            MerkleTree.leaf(digest, MerkleTree.deviceKey(d.getId()), d.toByteArray()));
+    }
 
-  private static String signatureShape(Service s) {
-    var fields = new ArrayList<String>();
+    @Override
+    public void filter(EntityFilter f) throws IOException {
+      if (hashed != null) hashed.filter(f);
+      this.filter = f;
+    }
 
-    if (!s.getFieldsMap().isEmpty()) {
-      s.getFieldsMap().entrySet().stream()
-          .sorted(Map.Entry.comparingByKey())
-          .forEach(
-              e -> {
-                var serviceField = e.getValue();
-                var sb = new StringBuilder();
+    @Override
+    public void end() throws IOException {
+      if (hashed != null) hashed.end();
+      if (tree != null)
+        tree.put(
+            MerkleTree.HEADER,
+            MerkleTree.leaf(digest, MerkleTree.HEADER, header(schema, haVersion, filter)));
+      ended = true;
+    }
+
+    /**
+     * Adds encoded manifest bytes to the hash; only for {@link #streamingEncoded} locks, and a
+     * no-op for schema 2 ones.
+     */
+    public void hash(byte[] bytes) {
+      if (hashed != null) throw new IllegalStateException("this lock encodes the manifest itself");
+      if (tree == null) digest.update(bytes);
+    }
+
+    /** The stable id index so far; its ids include the previous lock's. */
+    public StableIdIndex.Stats stableIdStats() {
+      return ids.stats();
+    }
 
-                sb.append(e.getKey())
-                    .append(SIG_PART_SEP)
-                    .append(nullToEmpty(serviceField.getType()));
+    public LockFile lock() {
+      if (!ended) throw new IllegalStateException("manifest stream has not ended");
+      if (tree == null) {
+        lockFile.setManifestHash(Hashing.hex(digest.digest()));
+      } else {
+        lockFile.setManifestHash(tree.rootHex()).putAllLeaves(tree.hexLeaves());
+      }
+      for (var it : attrEnums.entrySet()) {
+        List<String> uniqSorted = it.getValue().stream().distinct().sorted().toList();
+        lockFile.putAttrEnums(
+            it.getKey(), EnumCache.newBuilder().addAllValues(uniqSorted).build());
+      }
+      attrEnums.clear();
+      return lockFile.build();
+    }
+  }
 
-                if (serviceField.getRequired()) sb.append(SIG_REQ_FLAG);
-                if (!serviceField.getUnit().isBlank())
-                  sb.append(SIG_PART_SEP).append(serviceField.getUnit());
+  /**
+   * SHA-256 of the service's signature shape, {@code domain.service|field:type[:req][:unit],...}
+   * with fields in name order. The shape is built in a per-thread builder and hashed in one pass.
+   */
+  static String serviceSig(Service s) {
+    var shape = SHAPE.get();
+    shape.setLength(0);
+    shape.append(s.getDomain()).append('.').append(s.getService()).append(SIG_MAIN_SEP);
 
-                fields.add(sb.toString());
-              });
+    var fields = s.getFieldsMap();
+    var names = fields.keySet().toArray(String[]::new);
+    if (names.length > 1) Arrays.sort(names);
+    for (var i = 0; i < names.length; i++) {
+      var field = fields.get(names[i]);
+      if (i > 0) shape.append(SIG_FIELD_SEP);
+      shape.append(names[i]).append(SIG_PART_SEP).append(field.getType());
+      if (field.getRequired()) shape.append(SIG_REQ_FLAG);
+      if (!field.getUnit().isBlank()) shape.append(SIG_PART_SEP).append(field.getUnit());
     }
+    var md = HashAlgo.SHA256.digest();
+    Hashing.update(md, shape);
+    return Hashing.hex(md.digest());
+  }
 
-    return s.getDomain()
-        + "."
-        + s.getService()
-        + SIG_MAIN_SEP
-        + String.join(String.valueOf(SIG_FIELD_SEP), fields);
+  /**
+   * Calls {@code action} with the {@code domain.attr} key and values of each enum attribute, in
+   * attribute order, so enum caches fill in the same order for canonical and other entities.
+   */
+  static void forEachEnum(Entity e, BiConsumer<String, List<String>> action) {
+    var attrs = e.getAttributesMap();
+    var enums = new ArrayList<String>();
+    for (var entry : attrs.entrySet())
+      if (entry.getValue().getEnumValuesCount() > 0) enums.add(entry.getKey());
+    if (enums.size() > 1) enums.sort(null);
+    for (var attr : enums)
+      action.accept(DICT.intern(e.getDomain() + "." + attr), attrs.get(attr).getEnumValuesList());
   }
 
-  private static String nullToEmpty(String s) {
-    return s == null ? "" : s;
+  /** The schema 2 header leaf: the manifest's fields other than its elements. */
+  static byte[] header(int schema, String haVersion, EntityFilter filter) {
+    var m = Manifest.newBuilder().setSchema(schema).setHaVersion(haVersion);
+    if (filter != null) m.setFilter(filter);
+    return m.build().toByteArray();
   }
 }
@@ -0,0 +1,282 @@
+package io.pulseautomate.map.manifest.lock;
+
+import static io.pulseautomate.map.manifest.util.Constants.LOCK_SCHEMA_V1;
+import static io.pulseautomate.map.manifest.util.Constants.LOCK_SCHEMA_V2;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
+import io.pulseautomate.map.manifest.gen.model.LockFile;
+import io.pulseautomate.map.manifest.gen.model.Manifest;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import io.pulseautomate.map.manifest.serde.CanonicalWriter;
+import io.pulseautomate.map.manifest.serde.ManifestPb;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import io.pulseautomate.map.manifest.util.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks a manifest.pb against its lock in one streaming pass: the manifest is hashed as it is
+ * read, and each entity and service is checked for a stable id and signature as it goes by.
+ * Nothing else {@link LockBuilder#build} produces is recomputed.
+ *
+ * <p>A schema 1 lock hashes the canonical encoding, which is what discover writes, so the file's
+ * own bytes are hashed; only if they do not match is the manifest read again and canonicalized, to
+ * tell a changed manifest from one stored in another order. A schema 2 lock is checked leaf by
+ * leaf, so the report also names each element that changed.
+ */
+public final class LockValidator {
+
+  public enum IssueKind {
+    MISSING_STABLE_ID,
+    MISSING_SERVICE_SIG,
+    /** Schema 2: an element without a leaf in the lock. */
+    ADDED,
+    /** Schema 2: an element whose leaf hash differs from the lock's. */
+    CHANGED,
+    /** Schema 2: a leaf in the lock without an element in the manifest. */
+    REMOVED
+  }
+
+  /** {@code key} is the entity id, {@code domain.service} key, or schema 2 leaf key. */
+  public record Issue(IssueKind kind, String key) {}
+
+  public enum HashCheck {
+    MATCH,
+    MISMATCH,
+    /** A fail-fast run stopped before the whole manifest was read. */
+    SKIPPED
+  }
+
+  /**
+   * @param reread the file's bytes did not hash to a schema 1 lock's hash, so the manifest was read
+   *     again to hash its canonical form
+   * @param stoppedEarly a fail-fast run stopped at the first issue
+   */
+  public record Report(
+      int lockSchema,
+      HashCheck hash,
+      String expectedHash,
+      String actualHash,
+      long entities,
+      long services,
+      long devices,
+      List<Issue> issues,
+      boolean reread,
+      boolean stoppedEarly) {
+
+    public boolean ok() {
+      return hash == HashCheck.MATCH && issues.isEmpty();
+    }
+
+    public long count(IssueKind kind) {
+      return issues.stream().filter(i -> i.kind() == kind).count();
+    }
+  }
+
+  private static final int BUFFER = 1 << 16;
+
+  private static final int SCHEMA = Manifest.SCHEMA_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+  private static final int HA_VERSION =
+      Manifest.HA_VERSION_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int ENTITY =
+      Manifest.ENTITIES_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int SERVICE =
+      Manifest.SERVICES_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int DEVICE =
+      Manifest.DEVICES_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int FILTER =
+      Manifest.FILTER_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int ENTITY_ID =
+      Entity.ENTITY_ID_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+  private final LockFile lock;
+  private final int schema;
+  private final boolean failFast;
+  private final MessageDigest digest = HashAlgo.SHA256.newDigest();
+  private final MerkleTree tree;
+  private final Set<String> unseenLeaves;
+  private final List<Issue> issues = new ArrayList<>();
+  private int manifestSchema;
+  private String haVersion = "";
+  private EntityFilter filter;
+  private long entities;
+  private long services;
+  private long devices;
+
+  private LockValidator(LockFile lock, boolean failFast) {
+    this.lock = lock;
+    this.schema = schema(lock);
+    this.failFast = failFast;
+    this.tree = schema == LOCK_SCHEMA_V2 ? new MerkleTree() : null;
+    this.unseenLeaves =
+        schema == LOCK_SCHEMA_V2 ? new HashSet<>(lock.getLeavesMap().keySet()) : null;
+  }
+
+  /**
+   * The schema {@code lock} is checked under. A lock without one predates schema 2 and is schema 1.
+   *
+   * @throws IllegalArgumentException if this version cannot check locks of {@code lock}'s schema
+   */
+  public static int schema(LockFile lock) {
+    return switch (lock.getSchema()) {
+      case 0, LOCK_SCHEMA_V1 -> LOCK_SCHEMA_V1;
+      case LOCK_SCHEMA_V2 -> LOCK_SCHEMA_V2;
+      default -> throw new IllegalArgumentException("unsupported lock schema " + lock.getSchema());
+    };
+  }
+
+  /**
+   * Validates the manifest at {@code manifest} against {@code lock}; with {@code failFast} it stops
+   * reading at the first issue.
+   *
+   * @throws IllegalArgumentException if {@code lock}'s schema is unsupported
+   */
+  public static Report validate(Path manifest, LockFile lock, boolean failFast)
+      throws IOException {
+    var v = new LockValidator(lock, failFast);
+    try (InputStream in = Files.newInputStream(manifest)) {
+      // schema 2 hashes the elements, not the file
+      v.read(v.schema == LOCK_SCHEMA_V1 ? new DigestInputStream(in, v.digest) : in);
+    } catch (Stop stop) {
+      return v.report(HashCheck.SKIPPED, "", false, true);
+    }
+
+    var expected = lock.getManifestHash();
+    var reread = false;
+    String actual;
+    if (v.schema == LOCK_SCHEMA_V2) {
+      actual = v.tree.rootHex();
+    } else {
+      actual = Hashing.hex(v.digest.digest());
+      if (!actual.equals(expected)) {
+        actual = LockBuilder.manifestHash(ManifestPb.read(manifest), LOCK_SCHEMA_V1);
+        reread = true;
+      }
+    }
+    var match = actual.equals(expected) ? HashCheck.MATCH : HashCheck.MISMATCH;
+    return v.report(match, actual, reread, false);
+  }
+
+  /**
+   * Reads the manifest field by field. Entities are the bulk of it and only their ids are decoded;
+   * an element is parsed in full only when its stored bytes do not hash to its schema 2 leaf.
+   */
+  private void read(InputStream file) throws IOException {
+    var in = CodedInputStream.newInstance(file, BUFFER);
+    in.setSizeLimit(Integer.MAX_VALUE);
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      switch (tag) {
+        case SCHEMA -> manifestSchema = in.readInt32();
+        case HA_VERSION -> haVersion = in.readStringRequireUtf8();
+        case ENTITY -> entity(in.readByteArray());
+        case SERVICE -> service(in.readByteArray());
+        case DEVICE -> device(in.readByteArray());
+        case FILTER -> filter(EntityFilter.parseFrom(in.readByteArray()));
+        default -> in.skipField(tag);
+      }
+    }
+    if (tree == null) return;
+    leaf(MerkleTree.HEADER, LockBuilder.header(manifestSchema, haVersion, filter), null);
+    for (var key : unseenLeaves.stream().sorted().toList()) issue(IssueKind.REMOVED, key);
+  }
+
+  private void entity(byte[] bytes) throws IOException {
+    entities++;
+    var id = entityId(bytes);
+    var stable = lock.getEntityMapMap().get(id);
+    if (stable == null || stable.isBlank()) issue(IssueKind.MISSING_STABLE_ID, id);
+    if (tree != null)
+      leaf(MerkleTree.entityKey(id), bytes, () -> CanonicalWriter.encode(Entity.parseFrom(bytes)));
+  }
+
+  private void service(byte[] bytes) throws IOException {
+    services++;
+    var s = Service.parseFrom(bytes);
+    var key = s.getDomain() + "." + s.getService();
+    var sig = lock.getServiceSigMap().get(key);
+    if (sig == null || sig.isBlank()) issue(IssueKind.MISSING_SERVICE_SIG, key);
+    if (tree != null) leaf(MerkleTree.serviceKey(key), bytes, () -> CanonicalWriter.encode(s));
+  }
+
+  private void device(byte[] bytes) throws IOException {
+    devices++;
+    if (tree == null) return;
+    var d = Device.parseFrom(bytes);
+    leaf(MerkleTree.deviceKey(d.getId()), bytes, d::toByteArray);
+  }
+
+  private void filter(EntityFilter f) {
+    // a repeated message field merges, as it does when the whole manifest is parsed
+    filter = filter == null ? f : filter.toBuilder().mergeFrom(f).build();
+  }
+
+  /**
+   * Hashes {@code stored} as the leaf under {@code key}. Bytes that do not match the lock are
+   * re-encoded canonically first, so only a real change is reported, not a different encoding.
+   */
+  private void leaf(String key, byte[] stored, Canonical canonical) throws IOException {
+    var expected = lock.getLeavesMap().get(key);
+    var hash = MerkleTree.leaf(digest, key, stored);
+    if (canonical != null && !Hashing.hex(hash).equals(expected))
+      hash = MerkleTree.leaf(digest, key, canonical.encode());
+    tree.put(key, hash);
+    unseenLeaves.remove(key);
+    if (expected == null) issue(IssueKind.ADDED, key);
+    else if (!expected.equals(Hashing.hex(hash))) issue(IssueKind.CHANGED, key);
+  }
+
+  /** The entity id in an encoded entity, without decoding the rest of it. */
+  private static String entityId(byte[] entity) throws IOException {
+    var in = CodedInputStream.newInstance(entity);
+    int tag;
+    while ((tag = in.readTag()) != 0) {
+      if (tag == ENTITY_ID) return in.readStringRequireUtf8();
+      in.skipField(tag);
+    }
+    return "";
+  }
+
+  private void issue(IssueKind kind, String key) {
+    issues.add(new Issue(kind, key));
+    if (failFast) throw new Stop();
+  }
+
+  private Report report(HashCheck hash, String actual, boolean reread, boolean stoppedEarly) {
+    return new Report(
+        schema,
+        hash,
+        lock.getManifestHash(),
+        actual,
+        entities,
+        services,
+        devices,
+        List.copyOf(issues),
+        reread,
+        stoppedEarly);
+  }
+
+  @FunctionalInterface
+  private interface Canonical {
+    byte[] encode() throws IOException;
+  }
+
+  /** Unwinds the read at the first issue of a fail-fast run. */
+  private static final class Stop extends RuntimeException {
+    Stop() {
+      super(null, null, false, false);
+    }
+  }
+}
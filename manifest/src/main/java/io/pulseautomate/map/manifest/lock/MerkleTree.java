@@ -0,0 +1,221 @@
+package io.pulseautomate.map.manifest.lock;
+
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import io.pulseautomate.map.manifest.util.Hashing;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The schema 2 manifest hash: a binary Merkle tree over one leaf per manifest element. Leaves are
+ * placed by the SHA-256 of their key, as in a crit-bit tree: an inner node splits its leaves at the
+ * first bit where their key hashes differ, so the shape depends only on which keys are present,
+ * never on the order they were added in. Leaves and inner nodes are hashed with different
+ * prefixes, as in RFC 6962.
+ *
+ * <p>Key hashes spread evenly, so a leaf is O(log N) deep and no position shifts when another leaf
+ * comes or goes. Putting or removing a leaf only marks its path stale, and the next {@link #root()}
+ * rehashes just those nodes.
+ */
+final class MerkleTree {
+  static final String HEADER = "h";
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final MessageDigest md = HashAlgo.SHA256.newDigest();
+  private Node root;
+  private int size;
+  private long nodeHashes;
+
+  /** A leaf, or an inner node whose leaves' key hashes first differ at {@code bit}. */
+  private static final class Node {
+    final String key;
+    final byte[] path;
+    final int bit;
+    Node left;
+    Node right;
+    byte[] hash; // null while an inner node is stale
+
+    Node(String key, byte[] path, byte[] hash) {
+      this.key = key;
+      this.path = path;
+      this.bit = -1;
+      this.hash = hash;
+    }
+
+    Node(int bit, Node left, Node right) {
+      this.key = null;
+      this.path = null;
+      this.bit = bit;
+      this.left = left;
+      this.right = right;
+    }
+
+    boolean isLeaf() {
+      return key != null;
+    }
+
+    Node child(byte[] path) {
+      return MerkleTree.bit(path, bit) == 0 ? left : right;
+    }
+  }
+
+  /** A tree over the leaf hashes stored in a schema 2 lock. */
+  static MerkleTree fromHex(Map<String, String> hexLeaves) {
+    var tree = new MerkleTree();
+    hexLeaves.forEach((k, h) -> tree.put(k, HEX.parseHex(h)));
+    return tree;
+  }
+
+  static String entityKey(String entityId) {
+    return "e:" + entityId;
+  }
+
+  /** The leaf key of a service, given its {@code domain.service} key. */
+  static String serviceKey(String key) {
+    return "s:" + key;
+  }
+
+  static String deviceKey(String id) {
+    return "d:" + id;
+  }
+
+  /** The leaf hash of an element's protobuf bytes stored under {@code key}. */
+  static byte[] leaf(MessageDigest md, String key, byte[] element) {
+    md.update((byte) 0);
+    Hashing.update(md, key);
+    md.update((byte) 0);
+    return md.digest(element);
+  }
+
+  void put(String key, byte[] leafHash) {
+    var path = path(key);
+    if (root == null) {
+      root = new Node(key, path, leafHash);
+      size++;
+      return;
+    }
+    var nearest = root;
+    while (!nearest.isLeaf()) nearest = nearest.child(path);
+    if (nearest.key.equals(key)) {
+      nearest.hash = leafHash;
+      markStale(path);
+      return;
+    }
+
+    // the new inner node goes above the first node that splits at a later bit
+    var crit = firstDifference(path, nearest.path);
+    Node parent = null;
+    var at = root;
+    while (!at.isLeaf() && at.bit < crit) {
+      at.hash = null;
+      parent = at;
+      at = at.child(path);
+    }
+    var leaf = new Node(key, path, leafHash);
+    var split = bit(path, crit) == 0 ? new Node(crit, leaf, at) : new Node(crit, at, leaf);
+    replace(parent, at, split);
+    size++;
+  }
+
+  void remove(String key) {
+    if (root == null) return;
+    var path = path(key);
+    Node grandparent = null;
+    Node parent = null;
+    var at = root;
+    while (!at.isLeaf()) {
+      grandparent = parent;
+      parent = at;
+      at = at.child(path);
+    }
+    if (!at.key.equals(key)) return;
+
+    size--;
+    if (parent == null) {
+      root = null;
+      return;
+    }
+    var sibling = parent.left == at ? parent.right : parent.left;
+    replace(grandparent, parent, sibling);
+    // the sibling's own subtree is unchanged; only the nodes above it are stale
+    for (var n = root; n != sibling; n = n.child(path)) n.hash = null;
+  }
+
+  byte[] root() {
+    return root == null ? md.digest() : hash(root);
+  }
+
+  String rootHex() {
+    return HEX.formatHex(root());
+  }
+
+  /** Leaf hashes in tree order, which only depends on the keys, as stored in a schema 2 lock. */
+  Map<String, String> hexLeaves() {
+    var out = new LinkedHashMap<String, String>(size * 4 / 3 + 1);
+    var pending = new ArrayDeque<Node>();
+    if (root != null) pending.push(root);
+    while (!pending.isEmpty()) {
+      var n = pending.pop();
+      if (n.isLeaf()) {
+        out.put(n.key, HEX.formatHex(n.hash));
+      } else {
+        pending.push(n.right);
+        pending.push(n.left);
+      }
+    }
+    return out;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Inner nodes hashed so far; lets tests check that an edit stays on its path. */
+  long nodeHashes() {
+    return nodeHashes;
+  }
+
+  private byte[] hash(Node n) {
+    if (n.hash == null) {
+      var left = hash(n.left);
+      var right = hash(n.right);
+      nodeHashes++;
+      md.update((byte) 1);
+      md.update(left);
+      n.hash = md.digest(right);
+    }
+    return n.hash;
+  }
+
+  /** Clears the cached hashes of the inner nodes above where {@code path} leads. */
+  private void markStale(byte[] path) {
+    for (var n = root; n != null && !n.isLeaf(); n = n.child(path)) n.hash = null;
+  }
+
+  private void replace(Node parent, Node child, Node with) {
+    if (parent == null) root = with;
+    else if (parent.left == child) parent.left = with;
+    else parent.right = with;
+  }
+
+  private byte[] path(String key) {
+    md.update((byte) 2);
+    Hashing.update(md, key);
+    return md.digest();
+  }
+
+  private static int bit(byte[] path, int i) {
+    return (path[i >>> 3] >>> (7 - (i & 7))) & 1;
+  }
+
+  private static int firstDifference(byte[] a, byte[] b) {
+    for (var i = 0; i < a.length; i++) {
+      var x = (a[i] ^ b[i]) & 0xFF;
+      if (x != 0) return i * 8 + Integer.numberOfLeadingZeros(x) - 24;
+    }
+    throw new IllegalStateException("two leaf keys with one SHA-256");
+  }
+}
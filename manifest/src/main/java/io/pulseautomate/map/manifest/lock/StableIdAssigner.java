@@ -0,0 +1,94 @@
+package io.pulseautomate.map.manifest.lock;
+
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.id.StableId;
+import io.pulseautomate.map.manifest.id.StableIdIndex;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gives the entities of one lock their stable ids: the manifest's, else the previous lock's, else
+ * one claimed in a {@link StableIdIndex}. Each id the previous lock assigned stays its entity's for
+ * this lock, so no other entity can take it; where the previous lock gave one id to several
+ * entities, the first of them in entity id order keeps it.
+ *
+ * <p>An entity that wants an id another entity holds gets {@link StableIdIndex#extend} of it, and
+ * the id it wanted is recorded as its collision. It keeps the extension in later locks for as long
+ * as the id it wanted stays taken. Not thread-safe.
+ */
+final class StableIdAssigner {
+  /** @param collision the taken id that {@code id} extends, or null */
+  record Assignment(String id, String collision) {}
+
+  private final Map<String, String> previous;
+  private final Map<String, String> previousCollisions;
+  private final HashAlgo algo;
+  private final StableIdIndex ids;
+  private final Map<String, String> sharedOwners = new HashMap<>();
+
+  /**
+   * @param previous the previous lock's entity map; read as entities are assigned, so a caller may
+   *     keep it current
+   */
+  StableIdAssigner(
+      Map<String, String> previous, Map<String, String> previousCollisions, HashAlgo algo) {
+    this.previous = previous;
+    this.previousCollisions = previousCollisions;
+    this.algo = algo;
+    this.ids = new StableIdIndex(algo, previous.size());
+    for (var id : previous.values())
+      if (!id.isBlank() && !ids.reserve(id)) sharedOwners.put(id, "");
+    for (var entry : previous.entrySet()) {
+      var owner = sharedOwners.get(entry.getValue());
+      if (owner != null && (owner.isEmpty() || entry.getKey().compareTo(owner) < 0))
+        sharedOwners.put(entry.getValue(), entry.getKey());
+    }
+  }
+
+  Assignment assign(Entity e) {
+    var entityId = e.getEntityId();
+    var own = previous.get(entityId);
+    var wanted = e.getStableId().isBlank() ? own : e.getStableId();
+    if (wanted == null || wanted.isBlank()) {
+      var id = ids.claim(entityId);
+      return new Assignment(id, derivedCollision(entityId, id));
+    }
+    if (wanted.equals(own)) {
+      if (owns(entityId, own)) return new Assignment(own, carried(entityId, own));
+    } else if (ids.reserve(wanted)) {
+      return new Assignment(wanted, derivedCollision(entityId, wanted));
+    }
+    // another entity holds it; an extension it got in an earlier lock is kept
+    if (own != null && wanted.equals(previousCollisions.get(entityId)) && owns(entityId, own))
+      return new Assignment(own, wanted);
+    return new Assignment(ids.extend(wanted), wanted);
+  }
+
+  /** Frees an id no entity holds any more, for the next lock. */
+  void release(String id) {
+    ids.release(id);
+  }
+
+  StableIdIndex.Stats stats() {
+    return ids.stats();
+  }
+
+  private boolean owns(String entityId, String id) {
+    var owner = sharedOwners.get(id);
+    return owner == null || owner.equals(entityId);
+  }
+
+  /** The collision an entity keeping its previous id carries over. */
+  private String carried(String entityId, String id) {
+    var collision = previousCollisions.get(entityId);
+    return collision != null ? collision : derivedCollision(entityId, id);
+  }
+
+  /** The derived id that {@link StableIdIndex#claim} extended into {@code id}, or null. */
+  private String derivedCollision(String entityId, String id) {
+    if (!StableIdIndex.isExtended(id)) return null;
+    var derived = StableId.derive(entityId, algo);
+    return id.startsWith(derived) ? derived : null;
+  }
+}
@@ -0,0 +1,195 @@
+package io.pulseautomate.map.manifest.serde;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.WireFormat;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
+import io.pulseautomate.map.manifest.gen.model.Manifest;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes manifests in canonical form without building a canonical copy: {@link #write} visits the
+ * elements in canonical order (see {@link ManifestCanonicalizer#replay}) and entity attributes and
+ * service fields are written in key order, straight to the stream. The bytes are those of {@code
+ * ManifestCanonicalizer.canonicalize(m).toByteArray()}, so hashes match existing locks.
+ *
+ * <p>As a {@link ManifestSink} it encodes elements in the order they arrive and only puts their map
+ * fields in order. The stream is flushed at {@link #end()} but not closed.
+ */
+public final class CanonicalWriter implements ManifestSink {
+  private static final int KEY = 1;
+  private static final int VALUE = 2;
+
+  private final CodedOutputStream out;
+
+  public CanonicalWriter(OutputStream out) {
+    this.out = CodedOutputStream.newInstance(out);
+  }
+
+  public static void write(Manifest manifest, OutputStream out) throws IOException {
+    ManifestCanonicalizer.replay(manifest, new CanonicalWriter(out));
+  }
+
+  /** SHA-256 of the canonical bytes, hashed as they are encoded. */
+  public static byte[] sha256(Manifest manifest) {
+    var digest = HashAlgo.SHA256.digest();
+    try {
+      write(manifest, new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // nothing here does I/O
+    }
+    return digest.digest();
+  }
+
+  /** The canonical bytes of one entity, as {@link ManifestCanonicalizer#canonical} serializes. */
+  public static byte[] encode(Entity e) {
+    var keys = sortedKeys(e.getAttributesMap());
+    var bytes = new byte[entitySize(e, keys)];
+    var out = CodedOutputStream.newInstance(bytes);
+    try {
+      writeEntity(out, e, keys);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex); // the array is sized exactly
+    }
+    out.checkNoSpaceLeft();
+    return bytes;
+  }
+
+  /** The canonical bytes of one service. */
+  public static byte[] encode(Service s) {
+    var keys = sortedKeys(s.getFieldsMap());
+    var bytes = new byte[serviceSize(s, keys)];
+    var out = CodedOutputStream.newInstance(bytes);
+    try {
+      writeService(out, s, keys);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    out.checkNoSpaceLeft();
+    return bytes;
+  }
+
+  @Override
+  public void begin(int schema, String haVersion) throws IOException {
+    if (schema != 0) out.writeInt32(Manifest.SCHEMA_FIELD_NUMBER, schema);
+    if (!haVersion.isEmpty()) out.writeString(Manifest.HA_VERSION_FIELD_NUMBER, haVersion);
+  }
+
+  @Override
+  public void entity(Entity entity) throws IOException {
+    var keys = sortedKeys(entity.getAttributesMap());
+    out.writeTag(Manifest.ENTITIES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeUInt32NoTag(entitySize(entity, keys));
+    writeEntity(out, entity, keys);
+  }
+
+  @Override
+  public void service(Service service) throws IOException {
+    var keys = sortedKeys(service.getFieldsMap());
+    out.writeTag(Manifest.SERVICES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeUInt32NoTag(serviceSize(service, keys));
+    writeService(out, service, keys);
+  }
+
+  @Override
+  public void device(Device device) throws IOException {
+    out.writeMessage(Manifest.DEVICES_FIELD_NUMBER, device);
+  }
+
+  @Override
+  public void filter(EntityFilter filter) throws IOException {
+    out.writeMessage(Manifest.FILTER_FIELD_NUMBER, filter);
+  }
+
+  @Override
+  public void end() throws IOException {
+    out.flush();
+  }
+
+  private static String[] sortedKeys(Map<String, ?> map) {
+    var keys = map.keySet().toArray(String[]::new);
+    if (keys.length > 1) Arrays.sort(keys);
+    return keys;
+  }
+
+  private static int entitySize(Entity e, String[] keys) {
+    var size =
+        stringSize(Entity.STABLE_ID_FIELD_NUMBER, e.getStableId())
+            + stringSize(Entity.ENTITY_ID_FIELD_NUMBER, e.getEntityId())
+            + stringSize(Entity.DOMAIN_FIELD_NUMBER, e.getDomain())
+            + stringSize(Entity.DEVICE_CLASS_FIELD_NUMBER, e.getDeviceClass())
+            + stringSize(Entity.AREA_FIELD_NUMBER, e.getArea())
+            + stringSize(Entity.DEVICE_ID_FIELD_NUMBER, e.getDeviceId());
+    var attrs = e.getAttributesMap();
+    for (var k : keys) size += entryFieldSize(Entity.ATTRIBUTES_FIELD_NUMBER, k, attrs.get(k));
+    return size;
+  }
+
+  private static void writeEntity(CodedOutputStream out, Entity e, String[] keys)
+      throws IOException {
+    writeString(out, Entity.STABLE_ID_FIELD_NUMBER, e.getStableId());
+    writeString(out, Entity.ENTITY_ID_FIELD_NUMBER, e.getEntityId());
+    writeString(out, Entity.DOMAIN_FIELD_NUMBER, e.getDomain());
+    writeString(out, Entity.DEVICE_CLASS_FIELD_NUMBER, e.getDeviceClass());
+    writeString(out, Entity.AREA_FIELD_NUMBER, e.getArea());
+    var attrs = e.getAttributesMap();
+    for (var k : keys) writeEntry(out, Entity.ATTRIBUTES_FIELD_NUMBER, k, attrs.get(k));
+    writeString(out, Entity.DEVICE_ID_FIELD_NUMBER, e.getDeviceId());
+  }
+
+  private static int serviceSize(Service s, String[] keys) {
+    var size =
+        stringSize(Service.DOMAIN_FIELD_NUMBER, s.getDomain())
+            + stringSize(Service.SERVICE_FIELD_NUMBER, s.getService());
+    var fields = s.getFieldsMap();
+    for (var k : keys) size += entryFieldSize(Service.FIELDS_FIELD_NUMBER, k, fields.get(k));
+    return size;
+  }
+
+  private static void writeService(CodedOutputStream out, Service s, String[] keys)
+      throws IOException {
+    writeString(out, Service.DOMAIN_FIELD_NUMBER, s.getDomain());
+    writeString(out, Service.SERVICE_FIELD_NUMBER, s.getService());
+    var fields = s.getFieldsMap();
+    for (var k : keys) writeEntry(out, Service.FIELDS_FIELD_NUMBER, k, fields.get(k));
+  }
+
+  /** proto3 leaves empty strings out. */
+  private static int stringSize(int field, String s) {
+    return s.isEmpty() ? 0 : CodedOutputStream.computeStringSize(field, s);
+  }
+
+  private static void writeString(CodedOutputStream out, int field, String s) throws IOException {
+    if (!s.isEmpty()) out.writeString(field, s);
+  }
+
+  /** Map entries always carry both key and value, even when empty. */
+  private static int entrySize(String key, MessageLite value) {
+    return CodedOutputStream.computeStringSize(KEY, key)
+        + CodedOutputStream.computeMessageSize(VALUE, value);
+  }
+
+  private static int entryFieldSize(int field, String key, MessageLite value) {
+    var size = entrySize(key, value);
+    return CodedOutputStream.computeTagSize(field)
+        + CodedOutputStream.computeUInt32SizeNoTag(size)
+        + size;
+  }
+
+  private static void writeEntry(CodedOutputStream out, int field, String key, MessageLite value)
+      throws IOException {
+    out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    out.writeUInt32NoTag(entrySize(key, value));
+    out.writeString(KEY, key);
+    out.writeMessage(VALUE, value);
+  }
+}
@@ -1,12 +1,20 @@
 package io.pulseautomate.map.manifest.serde;
 
 import io.pulseautomate.map.manifest.gen.model.*;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 public final class ManifestCanonicalizer {
+  private static final Comparator<Entity> ENTITY_ORDER = Comparator.comparing(Entity::getStableId);
+  private static final Comparator<Service> SERVICE_ORDER =
+      Comparator.comparing(Service::getDomain).thenComparing(Service::getService);
+  private static final Comparator<Device> DEVICE_ORDER = Comparator.comparing(Device::getId);
+
   private ManifestCanonicalizer() {}
 
   public static Manifest canonicalize(Manifest m) {
@@ -14,24 +22,110 @@ public final class ManifestCanonicalizer {
         m.getEntitiesList().stream()
             .sorted(
                 Comparator.comparing(Entity::getStableId, Comparator.nullsLast(String::compareTo)))
-            .map(ManifestCanonicalizer::canonEntity)
+            .map(ManifestCanonicalizer::canonical)
             .toList();
 
     var services =
         m.getServicesList().stream()
-            .sorted(Comparator.comparing(Service::getDomain).thenComparing(Service::getService))
-            .map(ManifestCanonicalizer::canonService)
+            .sorted(SERVICE_ORDER)
+            .map(ManifestCanonicalizer::canonical)
             .toList();
 
-    return Manifest.newBuilder()
-        .setSchema(m.getSchema())
-        .setHaVersion(m.getHaVersion())
-        .addAllEntities(entities)
-        .addAllServices(services)
-        .build();
+    var devices = m.getDevicesList().stream().sorted(DEVICE_ORDER).toList();
+
+    var out =
+        Manifest.newBuilder()
+            .setSchema(m.getSchema())
+            .setHaVersion(m.getHaVersion())
+            .addAllEntities(entities)
+            .addAllServices(services)
+            .addAllDevices(devices);
+    if (m.hasFilter()) out.setFilter(m.getFilter());
+    return out.build();
+  }
+
+  /**
+   * Feeds {@code m}'s elements to {@code sink} in canonical order but as they are, without
+   * rebuilding them; {@link CanonicalWriter} puts their map fields in order as it encodes them. A
+   * list already in order, as built manifests are, is not copied.
+   */
+  public static void replay(Manifest m, ManifestSink sink) throws IOException {
+    sink.begin(m.getSchema(), m.getHaVersion());
+    for (var e : inOrder(m.getEntitiesList(), ENTITY_ORDER)) sink.entity(e);
+    for (var s : inOrder(m.getServicesList(), SERVICE_ORDER)) sink.service(s);
+    for (var d : inOrder(m.getDevicesList(), DEVICE_ORDER)) sink.device(d);
+    if (m.hasFilter()) sink.filter(m.getFilter());
+    sink.end();
+  }
+
+  private static <T> List<T> inOrder(List<T> list, Comparator<? super T> order) {
+    for (var i = 1; i < list.size(); i++) {
+      if (order.compare(list.get(i - 1), list.get(i)) > 0) {
+        var sorted = new ArrayList<>(list);
+        sorted.sort(order);
+        return sorted;
+      }
+    }
+    return list;
+  }
+
+  /**
+   * A sink that passes on the canonical form of what it receives. Entities must already arrive in
+   * stable-id order (builders leave stable ids blank, so build order qualifies); services and
+   * devices are held back and sorted, and the filter held back, until {@link ManifestSink#end()}.
+   */
+  public static ManifestSink canonicalizing(ManifestSink downstream) {
+    return new ManifestSink() {
+      private final List<Service> services = new ArrayList<>();
+      private final List<Device> devices = new ArrayList<>();
+      private EntityFilter filter;
+      private String lastStableId = "";
+
+      @Override
+      public void begin(int schema, String haVersion) throws IOException {
+        downstream.begin(schema, haVersion);
+      }
+
+      @Override
+      public void entity(Entity entity) throws IOException {
+        if (entity.getStableId().compareTo(lastStableId) < 0)
+          throw new IllegalStateException(
+              "entity " + entity.getEntityId() + " arrived out of stable-id order");
+        lastStableId = entity.getStableId();
+        downstream.entity(canonical(entity));
+      }
+
+      @Override
+      public void service(Service service) {
+        services.add(service);
+      }
+
+      @Override
+      public void device(Device device) {
+        devices.add(device);
+      }
+
+      @Override
+      public void filter(EntityFilter filter) {
+        this.filter = filter;
+      }
+
+      @Override
+      public void end() throws IOException {
+        services.sort(SERVICE_ORDER);
+        for (var s : services) downstream.service(canonical(s));
+        services.clear();
+        devices.sort(DEVICE_ORDER);
+        for (var d : devices) downstream.device(d);
+        devices.clear();
+        if (filter != null) downstream.filter(filter);
+        downstream.end();
+      }
+    };
   }
 
-  private static Entity canonEntity(Entity e) {
+  /** One entity as {@link #canonicalize} writes it. */
+  public static Entity canonical(Entity e) {
     Map<String, AttributeDesc> attrs = null;
     if (!e.getAttributesMap().isEmpty())
       attrs =
@@ -47,12 +141,14 @@ public final class ManifestCanonicalizer {
             .setEntityId(e.getEntityId())
             .setDomain(e.getDomain())
             .setDeviceClass(e.getDeviceClass())
-            .setArea(e.getArea());
+            .setArea(e.getArea())
+            .setDeviceId(e.getDeviceId());
     if (attrs != null) newEntity.putAllAttributes(attrs);
     return newEntity.build();
   }
 
-  private static Service canonService(Service s) {
+  /** One service as {@link #canonicalize} writes it. */
+  public static Service canonical(Service s) {
     Map<String, ServiceField> fields = null;
     if (!s.getFieldsMap().isEmpty())
       fields =
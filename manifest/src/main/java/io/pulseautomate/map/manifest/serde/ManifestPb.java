@@ -17,6 +17,14 @@ public final class ManifestPb {
     }
   }
 
+  /** Writes {@code manifest} in canonical form without building a canonical copy first. */
+  public static void writeCanonical(Path path, Manifest manifest) throws IOException {
+    Files.createDirectories(path.getParent());
+    try (OutputStream os = Files.newOutputStream(path)) {
+      CanonicalWriter.write(manifest, os);
+    }
+  }
+
   public static Manifest read(Path path) throws IOException {
     try (InputStream is = Files.newInputStream(path)) {
       return Manifest.parseFrom(is);
@@ -0,0 +1,63 @@
+package io.pulseautomate.map.manifest.serde;
+
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives a manifest one element at a time, in wire order: {@link #begin}, every entity, every
+ * service, every device, the filter if any, then {@link #end}. Lets a manifest be written or
+ * hashed without holding it all.
+ */
+public interface ManifestSink {
+  default void begin(int schema, String haVersion) throws IOException {}
+
+  void entity(Entity entity) throws IOException;
+
+  void service(Service service) throws IOException;
+
+  default void device(Device device) throws IOException {}
+
+  default void filter(EntityFilter filter) throws IOException {}
+
+  default void end() throws IOException {}
+
+  /** Forwards every call to each of {@code sinks}, in order. */
+  static ManifestSink tee(ManifestSink... sinks) {
+    var all = List.of(sinks);
+    return new ManifestSink() {
+      @Override
+      public void begin(int schema, String haVersion) throws IOException {
+        for (var s : all) s.begin(schema, haVersion);
+      }
+
+      @Override
+      public void entity(Entity entity) throws IOException {
+        for (var s : all) s.entity(entity);
+      }
+
+      @Override
+      public void service(Service service) throws IOException {
+        for (var s : all) s.service(service);
+      }
+
+      @Override
+      public void device(Device device) throws IOException {
+        for (var s : all) s.device(device);
+      }
+
+      @Override
+      public void filter(EntityFilter filter) throws IOException {
+        for (var s : all) s.filter(filter);
+      }
+
+      @Override
+      public void end() throws IOException {
+        for (var s : all) s.end();
+      }
+    };
+  }
+}
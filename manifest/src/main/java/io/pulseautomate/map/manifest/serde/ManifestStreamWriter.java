@@ -0,0 +1,63 @@
+package io.pulseautomate.map.manifest.serde;
+
+import com.google.protobuf.CodedOutputStream;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
+import io.pulseautomate.map.manifest.gen.model.Manifest;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link Manifest} field by field as elements arrive. The bytes are exactly those of
+ * {@link Manifest#writeTo} for the same content, so readers use {@link Manifest#parseFrom} and
+ * hashes do not change. The stream is flushed at {@link #end()} but not closed.
+ */
+public final class ManifestStreamWriter implements ManifestSink {
+  private final CodedOutputStream out;
+
+  public ManifestStreamWriter(OutputStream out) {
+    this.out = CodedOutputStream.newInstance(out);
+  }
+
+  @Override
+  public void begin(int schema, String haVersion) throws IOException {
+    if (schema != 0) out.writeInt32(Manifest.SCHEMA_FIELD_NUMBER, schema);
+    if (!haVersion.isEmpty()) out.writeString(Manifest.HA_VERSION_FIELD_NUMBER, haVersion);
+  }
+
+  @Override
+  public void entity(Entity entity) throws IOException {
+    out.writeMessage(Manifest.ENTITIES_FIELD_NUMBER, entity);
+  }
+
+  @Override
+  public void service(Service service) throws IOException {
+    out.writeMessage(Manifest.SERVICES_FIELD_NUMBER, service);
+  }
+
+  @Override
+  public void device(Device device) throws IOException {
+    out.writeMessage(Manifest.DEVICES_FIELD_NUMBER, device);
+  }
+
+  @Override
+  public void filter(EntityFilter filter) throws IOException {
+    out.writeMessage(Manifest.FILTER_FIELD_NUMBER, filter);
+  }
+
+  @Override
+  public void end() throws IOException {
+    out.flush();
+  }
+
+  /** Pushes buffered bytes to the stream, e.g. to cut the output into chunks between elements. */
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  public long bytesWritten() {
+    return out.getTotalBytesWritten();
+  }
+}
@@ -22,6 +22,7 @@ public final class Constants {
   // === Schema versions ===
   public static final int MANIFEST_SCHEMA_V1 = 1;
   public static final int LOCK_SCHEMA_V1 = 1;
+  public static final int LOCK_SCHEMA_V2 = 2;
 
   public static final String DEGREE_SYMBOL = "°";
 
@@ -2,20 +2,50 @@ package io.pulseautomate.map.manifest.util;
 
 import java.security.MessageDigest;
 
+/**
+ * Hash algorithms, named in locks by {@link #id}. Manifest hashes and service signatures are always
+ * SHA-256; stable ids may be derived with the faster, non-cryptographic XXH64.
+ */
 public enum HashAlgo {
-  SHA256("SHA-256");
+  SHA256("SHA-256", "sha256"),
+  XXH64(null, "xxh64");
 
+  /** The JCA name; null for algorithms implemented here. */
   public final String jca;
 
-  HashAlgo(String jca) {
+  public final String id;
+
+  private final ThreadLocal<MessageDigest> perThread;
+
+  HashAlgo(String jca, String id) {
     this.jca = jca;
+    this.id = id;
+    this.perThread = ThreadLocal.withInitial(this::newDigest);
   }
 
   public MessageDigest newDigest() {
+    if (jca == null) return new Xxh64();
     try {
       return MessageDigest.getInstance(jca);
     } catch (Exception e) {
       throw new RuntimeException("Missing JCA digest: " + jca, e);
     }
   }
+
+  /**
+   * This thread's digest, reset. Cheaper than {@link #newDigest()}, but the caller must be done
+   * with it before anything else on the thread asks for it again.
+   */
+  public MessageDigest digest() {
+    var md = perThread.get();
+    md.reset();
+    return md;
+  }
+
+  /** The algorithm named {@code id} in a lock; empty means SHA-256, as locks before ids had it. */
+  public static HashAlgo forId(String id) {
+    if (id.isEmpty()) return SHA256;
+    for (var a : values()) if (a.id.equals(id)) return a;
+    throw new IllegalArgumentException("unknown hash algorithm \"" + id + "\"");
+  }
 }
@@ -1,18 +1,68 @@
 package io.pulseautomate.map.manifest.util;
 
-import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.HexFormat;
 
 public final class Hashing {
+  private static final HexFormat HEX = HexFormat.of();
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[512]);
+
   private Hashing() {}
 
   public static String sha256Hex(String s) {
-    var md = HashAlgo.SHA256.newDigest();
-    return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+    var md = HashAlgo.SHA256.digest();
+    update(md, s);
+    return HEX.formatHex(md.digest());
   }
 
   public static String sha256Hex(byte[] bytes) {
-    var md = HashAlgo.SHA256.newDigest();
-    return HexFormat.of().formatHex(md.digest(bytes));
+    return HEX.formatHex(HashAlgo.SHA256.digest().digest(bytes));
+  }
+
+  public static String hex(byte[] bytes) {
+    return HEX.formatHex(bytes);
+  }
+
+  /** Hex of the first {@code length} bytes. */
+  public static String hex(byte[] bytes, int length) {
+    return HEX.formatHex(bytes, 0, length);
+  }
+
+  /**
+   * Feeds the UTF-8 bytes of {@code s} to {@code md} through a per-thread buffer, without
+   * allocating them; the same bytes as {@code s.toString().getBytes(UTF_8)}, down to unpaired
+   * surrogates becoming {@code '?'}.
+   */
+  public static void update(MessageDigest md, CharSequence s) {
+    var buf = SCRATCH.get();
+    var n = 0;
+    for (var i = 0; i < s.length(); i++) {
+      if (n > buf.length - 4) {
+        md.update(buf, 0, n);
+        n = 0;
+      }
+      var c = s.charAt(i);
+      if (c < 0x80) {
+        buf[n++] = (byte) c;
+      } else if (c < 0x800) {
+        buf[n++] = (byte) (0xC0 | c >> 6);
+        buf[n++] = (byte) (0x80 | c & 0x3F);
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        var cp = Character.toCodePoint(c, s.charAt(++i));
+        buf[n++] = (byte) (0xF0 | cp >> 18);
+        buf[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+        buf[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+        buf[n++] = (byte) (0x80 | cp & 0x3F);
+      } else if (Character.isSurrogate(c)) {
+        buf[n++] = '?';
+      } else {
+        buf[n++] = (byte) (0xE0 | c >> 12);
+        buf[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+        buf[n++] = (byte) (0x80 | c & 0x3F);
+      }
+    }
+    md.update(buf, 0, n);
   }
 }
@@ -0,0 +1,136 @@
+package io.pulseautomate.map.manifest.util;
+
+import java.security.MessageDigest;
+
+/** XXH64 with seed 0 as a {@link MessageDigest}; the 8-byte digest is big-endian. */
+final class Xxh64 extends MessageDigest {
+  private static final long P1 = 0x9E3779B185EBCA87L;
+  private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long P3 = 0x165667B19E3779F9L;
+  private static final long P4 = 0x85EBCA77C2B2AE63L;
+  private static final long P5 = 0x27D4EB2F165667C5L;
+
+  private final byte[] buf = new byte[32];
+  private int buffered;
+  private long total;
+  private long v1;
+  private long v2;
+  private long v3;
+  private long v4;
+
+  Xxh64() {
+    super("XXH64");
+    engineReset();
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return 8;
+  }
+
+  @Override
+  protected void engineReset() {
+    v1 = P1 + P2;
+    v2 = P2;
+    v3 = 0;
+    v4 = -P1;
+    buffered = 0;
+    total = 0;
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    buf[buffered++] = input;
+    total++;
+    if (buffered == 32) {
+      stripe(buf, 0);
+      buffered = 0;
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int len) {
+    total += len;
+    if (buffered > 0) {
+      var n = Math.min(len, 32 - buffered);
+      System.arraycopy(input, offset, buf, buffered, n);
+      buffered += n;
+      offset += n;
+      len -= n;
+      if (buffered < 32) return;
+      stripe(buf, 0);
+      buffered = 0;
+    }
+    for (; len >= 32; offset += 32, len -= 32) stripe(input, offset);
+    System.arraycopy(input, offset, buf, 0, len);
+    buffered = len;
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    long h;
+    if (total >= 32) {
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7);
+      h += Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = merge(h, v1);
+      h = merge(h, v2);
+      h = merge(h, v3);
+      h = merge(h, v4);
+    } else {
+      h = P5;
+    }
+    h += total;
+
+    var i = 0;
+    for (; i + 8 <= buffered; i += 8) {
+      h ^= round(0, le64(buf, i));
+      h = Long.rotateLeft(h, 27) * P1 + P4;
+    }
+    if (i + 4 <= buffered) {
+      h ^= (le32(buf, i) & 0xFFFFFFFFL) * P1;
+      h = Long.rotateLeft(h, 23) * P2 + P3;
+      i += 4;
+    }
+    for (; i < buffered; i++) {
+      h ^= (buf[i] & 0xFFL) * P5;
+      h = Long.rotateLeft(h, 11) * P1;
+    }
+
+    h ^= h >>> 33;
+    h *= P2;
+    h ^= h >>> 29;
+    h *= P3;
+    h ^= h >>> 32;
+
+    var out = new byte[8];
+    for (var b = 0; b < 8; b++) out[b] = (byte) (h >>> (56 - 8 * b));
+    engineReset();
+    return out;
+  }
+
+  private void stripe(byte[] b, int at) {
+    v1 = round(v1, le64(b, at));
+    v2 = round(v2, le64(b, at + 8));
+    v3 = round(v3, le64(b, at + 16));
+    v4 = round(v4, le64(b, at + 24));
+  }
+
+  private static long round(long acc, long input) {
+    return Long.rotateLeft(acc + input * P2, 31) * P1;
+  }
+
+  private static long merge(long h, long v) {
+    return (h ^ round(0, v)) * P1 + P4;
+  }
+
+  private static long le64(byte[] b, int i) {
+    return (le32(b, i) & 0xFFFFFFFFL) | ((long) le32(b, i + 4) << 32);
+  }
+
+  private static int le32(byte[] b, int i) {
+    return (b[i] & 0xFF)
+        | (b[i + 1] & 0xFF) << 8
+        | (b[i + 2] & 0xFF) << 16
+        | (b[i + 3] & 0xFF) << 24;
+  }
+}
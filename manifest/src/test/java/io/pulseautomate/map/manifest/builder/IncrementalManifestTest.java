@@ -0,0 +1,86 @@
+package io.pulseautomate.map.manifest.builder;
+
+import static io.pulseautomate.map.manifest.util.Names.Attr.*;
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.client.StateChange;
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class IncrementalManifestTest {
+
+  private static HAState light(String id, String state, int minMireds) {
+    return new HAState(
+        id,
+        state,
+        new HAAttributes.Builder()
+            .putLong("brightness", 120)
+            .put("supported_color_modes", List.of("color_temp"))
+            .putLong("min_mireds", minMireds)
+            .putLong("max_mireds", 500)
+            .build());
+  }
+
+  private static final List<Map<String, Object>> SERVICES =
+      List.of(
+          Map.of(
+              "domain",
+              "light",
+              "services",
+              Map.of("turn_on", Map.of("fields", Map.of("brightness_pct", Map.of())))));
+
+  @Test
+  void deltas_produce_the_same_manifest_as_a_full_rebuild() {
+    var builder = new ManifestBuilder();
+    var states = List.of(light("light.a", "on", 153), light("light.b", "off", 153));
+    var inc =
+        new IncrementalManifest(builder.buildFromStates("2025.6", states, SERVICES), builder);
+
+    assertThat(inc.putState(light("light.a", "off", 153))).isFalse();
+    assertThat(inc.putState(light("light.b", "on", 250))).isTrue();
+    assertThat(inc.putState(light("light.c", "on", 153))).isTrue();
+    assertThat(inc.removeState("light.a")).isTrue();
+    assertThat(inc.removeState("light.missing")).isFalse();
+
+    var expected =
+        builder.buildFromStates(
+            "2025.6", List.of(light("light.b", "on", 250), light("light.c", "on", 153)), SERVICES);
+    assertThat(inc.manifest()).isEqualTo(expected);
+
+    var changes = inc.drainChanges();
+    assertThat(changes.added()).containsExactly("light.c");
+    assertThat(changes.removed()).containsExactly("light.a");
+    assertThat(changes.changed()).containsExactly("light.b");
+    assertThat(changes.services()).isEmpty();
+    assertThat(inc.drainChanges().isEmpty()).isTrue();
+  }
+
+  @Test
+  void state_changed_events_and_services_are_tracked() {
+    var builder = new ManifestBuilder();
+    var inc =
+        new IncrementalManifest(
+            builder.buildFromStates("2025.6", List.of(light("light.a", "on", 153)), List.of()),
+            builder);
+    var before = inc.manifest();
+
+    inc.apply(new StateChange("light.a", light("light.a", "on", 153).toMap(), null));
+    inc.apply(new StateChange("light.z", null, light("light.z", "on", 153).toMap()));
+    assertThat(inc.putService("light", "turn_on", Map.of())).isTrue();
+    assertThat(inc.putService("light", "turn_on", Map.of())).isFalse();
+
+    var m = inc.manifest();
+    assertThat(m).isNotSameAs(before).isSameAs(inc.manifest());
+    assertThat(m.getEntitiesList()).extracting("entityId").containsExactly("light.z");
+    assertThat(m.getEntities(0).getAttributesMap()).containsKey(COLOR_TEMP_K);
+    assertThat(m.getServicesList()).extracting("service").containsExactly("turn_on");
+
+    var changes = inc.drainChanges();
+    assertThat(changes.added()).containsExactly("light.z");
+    assertThat(changes.removed()).containsExactly("light.a");
+    assertThat(changes.services()).containsExactly("light.turn_on");
+  }
+}
@@ -5,7 +5,10 @@ import static io.pulseautomate.map.manifest.util.Names.Attr.*;
 import static org.assertj.core.api.Assertions.*;
 import static org.assertj.core.api.Assertions.within;
 
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
 import io.pulseautomate.map.manifest.gen.model.FieldKind;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -89,4 +92,38 @@ class ManifestBuilderTest {
     assertThat(s.getFieldsMap().get("temperature").getType()).isEqualTo("number");
     assertThat(s.getFieldsMap().get("temperature").getUnit()).isEqualTo(UNIT_CELSIUS_WITH_SYMBOL);
   }
+
+  @Test
+  void parallel_build_matches_serial_order_and_content() {
+    var domains = List.of("climate", "light", "fan", "cover", "media_player", "number", "sensor");
+    var states = new ArrayList<HAState>();
+    for (var i = 0; i < 5_000; i++) {
+      var attrs =
+          new HAAttributes.Builder()
+              .put("hvac_modes", List.of("off", "heat"))
+              .put("supported_color_modes", List.of("hs", "color_temp"))
+              .putLong("min_mireds", 153)
+              .putLong("max_mireds", 500 + i % 7)
+              .putLong("percentage", i % 100)
+              .putLong("min", 0)
+              .putLong("max", i)
+              .build();
+      states.add(new HAState(domains.get(i % domains.size()) + ".e" + i, "on", attrs));
+    }
+    var services = new ArrayList<Map<String, Object>>();
+    for (var d : domains)
+      services.add(
+          Map.of(
+              "domain",
+              d,
+              "services",
+              Map.of("turn_on", Map.of("fields", Map.of("brightness_pct", Map.of())))));
+
+    var serial = new ManifestBuilder().buildFromStates("2025.6", states, services);
+    var parallel =
+        new ManifestBuilder().withParallelism(4).buildFromStates("2025.6", states, services);
+
+    assertThat(parallel).isEqualTo(serial);
+    assertThat(parallel.getEntities(4_999).getEntityId()).isEqualTo("light.e4999");
+  }
 }
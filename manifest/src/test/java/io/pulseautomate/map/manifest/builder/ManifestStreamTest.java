@@ -0,0 +1,140 @@
+package io.pulseautomate.map.manifest.builder;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.Manifest;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import io.pulseautomate.map.manifest.lock.LockBuilder;
+import io.pulseautomate.map.manifest.serde.ManifestCanonicalizer;
+import io.pulseautomate.map.manifest.serde.ManifestSink;
+import io.pulseautomate.map.manifest.serde.ManifestStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class ManifestStreamTest {
+
+  private static final List<Map<String, Object>> SERVICES =
+      List.of(
+          Map.of(
+              "domain",
+              "light",
+              "services",
+              Map.of("turn_on", Map.of("fields", Map.of("brightness_pct", Map.of())))),
+          Map.of("domain", "fan", "services", Map.of("set_percentage", Map.of())));
+
+  private static HAState state(int i) {
+    var domain = List.of("light", "fan", "climate", "sensor").get(i % 4);
+    return new HAState(
+        domain + ".e" + i,
+        "on",
+        new HAAttributes.Builder()
+            .putLong("brightness", i % 255)
+            .put("supported_color_modes", List.of(i % 3 == 0 ? "hs" : "color_temp"))
+            .putLong("min_mireds", 153)
+            .putLong("max_mireds", 500)
+            .putLong("percentage", 50)
+            .put("hvac_modes", List.of("off", "heat"))
+            .build());
+  }
+
+  @Test
+  void streamed_bytes_and_lock_match_the_materialized_build() throws Exception {
+    var states = IntStream.range(0, 5_000).mapToObj(ManifestStreamTest::state).toList();
+    var builder = new ManifestBuilder().withParallelism(2);
+    var now = Instant.parse("2025-06-01T00:00:00Z");
+
+    var raw = new ByteArrayOutputStream();
+    var canon = new ByteArrayOutputStream();
+    var lock = LockBuilder.streaming(null, now);
+    builder.stream(
+        "2025.6",
+        states.iterator(),
+        SERVICES,
+        ManifestSink.tee(
+            new ManifestStreamWriter(raw),
+            ManifestCanonicalizer.canonicalizing(
+                ManifestSink.tee(new ManifestStreamWriter(canon), lock))));
+
+    var manifest = builder.buildFromStates("2025.6", states, SERVICES);
+    assertThat(raw.toByteArray()).isEqualTo(manifest.toByteArray());
+    assertThat(Manifest.parseFrom(canon.toByteArray()))
+        .isEqualTo(ManifestCanonicalizer.canonicalize(manifest));
+    assertThat(lock.lock()).isEqualTo(LockBuilder.build(manifest, null, now));
+  }
+
+  @Test
+  void filtered_stream_drops_states_and_records_the_filter() throws Exception {
+    var states = IntStream.range(0, 2_000).mapToObj(ManifestStreamTest::state).toList();
+    var builder =
+        new ManifestBuilder()
+            .withParallelism(2)
+            .withFilter(StateFilter.of(List.of("light", "fan.e1*"), List.of("light.e4?")));
+
+    var raw = new ByteArrayOutputStream();
+    builder.stream("2025.6", states.iterator(), SERVICES, new ManifestStreamWriter(raw));
+
+    var manifest = builder.buildFromStates("2025.6", states, SERVICES);
+    assertThat(raw.toByteArray()).isEqualTo(manifest.toByteArray());
+    assertThat(manifest.getEntitiesList())
+        .extracting(Entity::getEntityId)
+        .allMatch(id -> id.startsWith("light.") || id.startsWith("fan.e1"))
+        .doesNotContain("light.e40", "light.e44")
+        .contains("light.e4", "light.e400", "fan.e1", "fan.e1997");
+    assertThat(manifest.getFilter().getIncludeList()).containsExactly("fan.e1*", "light");
+    assertThat(manifest.getFilter().getExcludeList()).containsExactly("light.e4?");
+    assertThat(ManifestCanonicalizer.canonicalize(manifest).getFilter())
+        .isEqualTo(manifest.getFilter());
+  }
+
+  @Test
+  void serial_stream_emits_each_entity_as_it_is_accepted() throws Exception {
+    var count = 20_000;
+    Iterator<HAState> states =
+        IntStream.range(0, count).mapToObj(ManifestStreamTest::state).iterator();
+    var seen = new int[2];
+    var sink =
+        new ManifestSink() {
+          @Override
+          public void entity(Entity entity) {
+            seen[0]++;
+          }
+
+          @Override
+          public void service(Service service) {
+            seen[1]++;
+          }
+        };
+
+    try (var stream = new ManifestBuilder().open("2025.6", sink)) {
+      while (states.hasNext()) {
+        stream.accept(states.next());
+        assertThat(stream.entities()).isEqualTo(seen[0]);
+      }
+      stream.services(SERVICES);
+      assertThat(stream.entities()).isEqualTo(count);
+      assertThatThrownBy(() -> stream.accept(state(0))).isInstanceOf(IllegalStateException.class);
+    }
+    assertThat(seen).containsExactly(count, 2);
+  }
+
+  @Test
+  void canonicalizing_sink_rejects_entities_out_of_stable_id_order() throws Exception {
+    var sink =
+        ManifestCanonicalizer.canonicalizing(new ManifestStreamWriter(new ByteArrayOutputStream()));
+    sink.entity(Entity.newBuilder().setStableId("b").setEntityId("light.b").build());
+
+    assertThatThrownBy(
+            () -> sink.entity(Entity.newBuilder().setStableId("a").setEntityId("light.a").build()))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("light.a");
+  }
+}
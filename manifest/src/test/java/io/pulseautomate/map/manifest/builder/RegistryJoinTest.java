@@ -0,0 +1,96 @@
+package io.pulseautomate.map.manifest.builder;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HARegistries;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.serde.ManifestCanonicalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class RegistryJoinTest {
+
+  private static HAState state(String entityId) {
+    return new HAState(entityId, "on", HAAttributes.EMPTY);
+  }
+
+  @Test
+  void entity_area_wins_over_device_area_and_unknown_areas_are_dropped() {
+    var registries =
+        new HARegistries(
+            List.of(
+                new HARegistries.EntityEntry("light.sofa", "dev2", null),
+                new HARegistries.EntityEntry("light.desk", "dev2", "office"),
+                new HARegistries.EntityEntry("sensor.ghost", null, "attic"),
+                new HARegistries.EntityEntry("switch.orphan", "missing", null)),
+            List.of(
+                new HARegistries.Device("dev2", "Sofa lamp", "Signify", "LCT015", "living_room"),
+                new HARegistries.Device("dev1", "Hub", null, null, null)),
+            List.of(
+                new HARegistries.Area("living_room", "Living Room"),
+                new HARegistries.Area("office", "Office")));
+
+    var m =
+        new ManifestBuilder()
+            .withRegistries(registries)
+            .buildFromStates(
+                "2025.6",
+                List.of(
+                    state("light.sofa"),
+                    state("light.desk"),
+                    state("sensor.ghost"),
+                    state("switch.orphan"),
+                    state("fan.unregistered")),
+                List.of());
+
+    assertThat(m.getEntitiesList())
+        .extracting(Entity::getEntityId, Entity::getDeviceId, Entity::getArea)
+        .containsExactly(
+            tuple("light.sofa", "dev2", "living_room"),
+            tuple("light.desk", "dev2", "office"),
+            tuple("sensor.ghost", "", ""),
+            tuple("switch.orphan", "", ""),
+            tuple("fan.unregistered", "", ""));
+    assertThat(m.getDevices(0))
+        .isEqualTo(
+            Device.newBuilder()
+                .setId("dev2")
+                .setName("Sofa lamp")
+                .setManufacturer("Signify")
+                .setModel("LCT015")
+                .setArea("living_room")
+                .build());
+    assertThat(ManifestCanonicalizer.canonicalize(m).getDevicesList())
+        .extracting(Device::getId)
+        .containsExactly("dev1", "dev2");
+  }
+
+  @Test
+  void joins_a_large_registry() {
+    var devices = new ArrayList<HARegistries.Device>();
+    for (var d = 0; d < 10_000; d++)
+      devices.add(new HARegistries.Device("d" + d, "Device " + d, null, null, "a" + d % 50));
+    var entries = new ArrayList<HARegistries.EntityEntry>();
+    for (var e = 0; e < 50_000; e++)
+      entries.add(
+          new HARegistries.EntityEntry("sensor.e" + e, "d" + e % 10_000, e % 7 == 0 ? "a0" : null));
+    var areas = IntStream.range(0, 50).mapToObj(a -> new HARegistries.Area("a" + a, null)).toList();
+    var states = IntStream.range(0, 50_000).mapToObj(e -> state("sensor.e" + e)).toList();
+
+    var m =
+        new ManifestBuilder()
+            .withParallelism(2)
+            .withRegistries(new HARegistries(entries, devices, areas))
+            .buildFromStates("2025.6", states, List.of());
+
+    assertThat(m.getDevicesCount()).isEqualTo(10_000);
+    assertThat(m.getEntities(7).getArea()).isEqualTo("a0");
+    assertThat(m.getEntities(12_345).getDeviceId()).isEqualTo("d2345");
+    assertThat(m.getEntities(12_345).getArea()).isEqualTo("a45");
+  }
+}
@@ -0,0 +1,72 @@
+package io.pulseautomate.map.manifest.builder;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.manifest.gen.model.ServiceField;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ServiceTypingTest {
+
+  @Test
+  void built_in_rules_type_number_set_value() {
+    var m =
+        new ManifestBuilder()
+            .build(
+                "2025.6",
+                List.of(),
+                List.of(
+                    Map.of(
+                        "domain",
+                        "number",
+                        "services",
+                        Map.of("set_value", Map.of("fields", Map.of("value", Map.of()))))));
+
+    assertThat(m.getServices(0).getFieldsMap().get("value").getType()).isEqualTo("number");
+  }
+
+  @Test
+  void overlay_adds_and_replaces_rules(@TempDir Path dir) throws Exception {
+    var file = dir.resolve("types.conf");
+    Files.writeString(
+        file,
+        """
+        # site-specific typing
+        water_heater.set_temperature.temperature = number °C
+        climate.set_temperature.temperature = number °F   # we run in Fahrenheit
+
+        """);
+
+    var typing = ServiceTyping.builtIn().withOverlay(file);
+
+    assertThat(typing.size()).isEqualTo(ServiceTyping.builtIn().size() + 1);
+    assertThat(typing.lookup("water_heater", "set_temperature", "temperature"))
+        .isEqualTo(new ServiceTyping.FieldType("number", "°C"));
+    assertThat(typing.lookup("climate", "set_temperature", "temperature").unit()).isEqualTo("°F");
+    assertThat(typing.lookup("climate", "set_hvac_mode", "hvac_mode").type()).isEqualTo("enum");
+    assertThat(ServiceTyping.builtIn().lookup("climate", "set_temperature", "temperature").unit())
+        .isEqualTo("°C");
+
+    var typed =
+        typing.apply(
+            "climate",
+            "set_temperature",
+            Map.of("temperature", ServiceField.newBuilder().setRequired(true).build()));
+    assertThat(typed.get("temperature").getUnit()).isEqualTo("°F");
+    assertThat(typed.get("temperature").getRequired()).isTrue();
+  }
+
+  @Test
+  void malformed_overlay_names_the_line() {
+    var builder = ServiceTyping.builder();
+    assertThatThrownBy(() -> builder.overlay(List.of("# ok", "light.turn_on = percent")))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("line 2: key must be domain.service.field");
+    assertThatThrownBy(() -> builder.overlay(List.of("light.turn_on.flash")))
+        .hasMessageStartingWith("line 1: expected");
+  }
+}
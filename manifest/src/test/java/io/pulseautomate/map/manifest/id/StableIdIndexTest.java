@@ -0,0 +1,65 @@
+package io.pulseautomate.map.manifest.id;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.util.HashSet;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class StableIdIndexTest {
+
+  @Test
+  void long_set_agrees_with_a_hash_set_through_growth_and_removal() {
+    var set = new LongHashSet(4);
+    var reference = new HashSet<Long>();
+    var random = new Random(7);
+    for (var i = 0; i < 20_000; i++) {
+      // a small key range, so adds hit present keys and removals find some
+      var v = (long) random.nextInt(5_000) << 36;
+      if (random.nextInt(3) == 0) assertThat(set.remove(v)).isEqualTo(reference.remove(v));
+      else assertThat(set.add(v)).isEqualTo(reference.add(v));
+    }
+    assertThat(set.size()).isEqualTo(reference.size());
+    for (var v = 0L; v < 5_000; v++)
+      assertThat(set.contains(v << 36)).isEqualTo(reference.contains(v << 36));
+    assertThat(set.bytes()).isLessThan(8L * 4 * reference.size() + 64);
+  }
+
+  @Test
+  void a_taken_id_is_extended_the_same_way_every_time() {
+    for (var algo : HashAlgo.values()) {
+      var index = new StableIdIndex(algo, 0);
+      var derived = StableId.derive("light.kitchen", algo);
+      assertThat(index.reserve(derived)).isTrue();
+      assertThat(index.reserve(derived)).isFalse();
+
+      var first = index.claim("light.kitchen");
+      var second = index.claim("light.kitchen");
+      assertThat(first).isEqualTo(StableId.derive("light.kitchen", algo, 16));
+      assertThat(StableIdIndex.isExtended(first)).isTrue();
+      assertThat(StableIdIndex.isExtended(derived)).isFalse();
+      if (algo == HashAlgo.XXH64) assertThat(second).isEqualTo(first + "-2");
+      else assertThat(second).isEqualTo(StableId.derive("light.kitchen", algo, 20));
+      assertThat(index.stats()).isEqualTo(new StableIdIndex.Stats(3, 2, index.stats().bytes()));
+
+      index.release(first);
+      assertThat(index.claim("light.kitchen")).isEqualTo(first);
+      assertThat(index.claim("light.hall")).isEqualTo(StableId.derive("light.hall", algo));
+    }
+  }
+
+  @Test
+  void only_lowercase_ascii_hex_ids_share_a_value() {
+    var index = new StableIdIndex(HashAlgo.SHA256, 0);
+    assertThat(index.reserve("stable:abcdef012345")).isTrue();
+    assertThat(index.reserve("stable:ABCDEF012345")).isTrue();
+    // fullwidth digits, which Character.digit also reads as hex
+    assertThat(index.reserve("stable:abcdef\uFF10\uFF11\uFF12\uFF13\uFF14\uFF15")).isTrue();
+    assertThat(index.stats().ids()).isEqualTo(3);
+
+    index.release("stable:ABCDEF012345");
+    assertThat(index.reserve("stable:abcdef012345")).isFalse();
+    assertThat(index.reserve("stable:ABCDEF012345")).isTrue();
+  }
+}
@@ -8,6 +8,9 @@ import io.pulseautomate.map.manifest.builder.MapHAState;
 import io.pulseautomate.map.manifest.gen.model.AttributeDesc;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 
 class AttributeRulesTest {
@@ -49,4 +52,85 @@ class AttributeRulesTest {
     assertThat(hueRule.infer(state)).isPresent();
     assertThat(satRule.infer(state)).isPresent();
   }
+
+  @Test
+  void plan_skips_rules_whose_trigger_keys_are_absent() {
+    var calls = new AtomicInteger();
+    AttributeRule counting =
+        state -> {
+          calls.incrementAndGet();
+          return Optional.empty();
+        };
+    var set =
+        new DomainRuleSet(
+            "fan",
+            List.of(
+                AttributeRules.presentIfAny(counting, PERCENTAGE),
+                AttributeRules.booleanFlag("oscillating", "oscillating"),
+                AttributeRules.percentPct(SPEED_PCT)));
+
+    var attrs = new LinkedHashMap<String, Object>();
+    attrs.put("oscillating", true);
+    var out = new LinkedHashMap<String, AttributeDesc>();
+    set.infer(new MapHAState("fan.ceiling", attrs), out::putIfAbsent);
+
+    assertThat(calls).hasValue(0);
+    assertThat(out).containsOnlyKeys("oscillating", SPEED_PCT);
+    assertThat(set.infer(new MapHAState("fan.ceiling", attrs))).isEqualTo(out);
+  }
+
+  @Test
+  void registry_output_matches_running_every_rule() {
+    var attrs = new LinkedHashMap<String, Object>();
+    attrs.put(BRIGHTNESS, 200);
+    attrs.put(SUPPORTED_COLOR_MODES, List.of("color_temp", "hs"));
+    attrs.put(MIN_MIREDS, 153);
+    attrs.put(MAX_MIREDS, 500);
+    attrs.put(EFFECT_LIST, List.of("colorloop"));
+    var state = new MapHAState("light.kitchen", attrs);
+
+    var expected = new LinkedHashMap<String, AttributeDesc>();
+    for (var rule :
+        List.of(
+            AttributeRules.presentIfAny(
+                AttributeRules.percentPct(BRIGHTNESS_PCT), BRIGHTNESS, SUPPORTED_COLOR_MODES),
+            AttributeRules.enumFrom(EFFECT, EFFECT_LIST, null, true),
+            AttributeRules.colorTempKelvinFromMireds(COLOR_TEMP_K, MIN_MIREDS, MAX_MIREDS),
+            AttributeRules.hueDegrees(HUE_DEG),
+            AttributeRules.saturationPct(SATURATION_PCT))) {
+      rule.infer(state).ifPresent(e -> expected.putIfAbsent(e.getKey(), e.getValue()));
+    }
+
+    var actual = RuleRegistry.defaultRegistry().forDomain("light").infer(state);
+    assertThat(actual).containsExactlyEntriesOf(expected);
+  }
+
+  @Test
+  void identical_shapes_share_one_memoized_result() {
+    var registry = RuleRegistry.defaultRegistry();
+    var light = registry.forDomain("light");
+
+    Map<String, AttributeDesc> first = null;
+    for (var i = 0; i < 50; i++) {
+      var attrs = new LinkedHashMap<String, Object>();
+      attrs.put(BRIGHTNESS, i); // live value, only its presence matters
+      attrs.put("friendly_name", "Bulb " + i);
+      attrs.put(SUPPORTED_COLOR_MODES, List.of("color_temp"));
+      attrs.put(MIN_MIREDS, 153);
+      attrs.put(MAX_MIREDS, 500);
+      var out = light.infer(new MapHAState("light.bulb_" + i, attrs));
+      if (first == null) first = out;
+      assertThat(out).isSameAs(first);
+    }
+
+    var other = new LinkedHashMap<String, Object>();
+    other.put(SUPPORTED_COLOR_MODES, List.of("color_temp"));
+    other.put(MIN_MIREDS, 153);
+    other.put(MAX_MIREDS, 454);
+    assertThat(light.infer(new MapHAState("light.other", other)))
+        .isNotSameAs(first)
+        .containsKey(COLOR_TEMP_K);
+
+    assertThat(registry.memoStats()).isEqualTo(new InferenceStats(49, 2, 2));
+  }
 }
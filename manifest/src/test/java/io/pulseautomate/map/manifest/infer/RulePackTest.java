@@ -0,0 +1,90 @@
+package io.pulseautomate.map.manifest.infer;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.manifest.builder.MapHAState;
+import io.pulseautomate.map.manifest.gen.model.FieldKind;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RulePackTest {
+
+  @Test
+  void built_in_pack_is_parsed_once_and_compiled_per_registry() {
+    var pack = RulePack.builtIn();
+
+    assertThat(RulePack.builtIn()).isSameAs(pack);
+    assertThat(pack.domains())
+        .containsOnlyKeys("climate", "light", "fan", "cover", "media_player", "number");
+    assertThat(pack.domains().get("light"))
+        .extracting(RulePack.Rule::attr)
+        .containsExactly("brightness_pct", "effect", "color_temp_k", "hue_deg", "saturation_pct");
+    assertThat(RuleRegistry.defaultRegistry()).isNotSameAs(RuleRegistry.defaultRegistry());
+  }
+
+  @Test
+  void site_pack_replaces_by_attribute_and_adds_domains(@TempDir Path dir) throws Exception {
+    var file = dir.resolve("site-rules.json");
+    Files.writeString(
+        file,
+        """
+        {"format": 1, "domains": {
+          "fan": [{"attr": "speed_pct", "kind": "number", "unit": "%",
+                   "caps": {"min": 0, "max": 100, "step": 25}, "when": {"any": ["percentage"]}}],
+          "water_heater": [
+            {"attr": "operation_mode", "kind": "enum", "source": {"list": "operation_list"}},
+            {"attr": "target_temp_c", "kind": "temperature", "unit": "°C",
+             "source": {"min": "min_temp", "max": "max_temp", "step": "target_temp_step",
+                        "unit": "temperature_unit"}}]}}
+        """);
+
+    var registry = RulePack.builtIn().plus(RulePack.load(file)).toRegistry();
+
+    var fan = new LinkedHashMap<String, Object>();
+    fan.put("percentage", 50);
+    fan.put("oscillating", false);
+    var fanOut = registry.forDomain("fan").infer(new MapHAState("fan.ceiling", fan));
+    assertThat(fanOut).containsOnlyKeys("speed_pct", "oscillating");
+    assertThat(fanOut.get("speed_pct").getCaps().getStep()).isEqualTo(25.0);
+
+    var heater =
+        registry
+            .forDomain("water_heater")
+            .infer(
+                new MapHAState(
+                    "water_heater.tank",
+                    Map.of("operation_list", List.of("eco", "performance"), "min_temp", 40)));
+    assertThat(heater.keySet()).containsExactly("operation_mode", "target_temp_c");
+    assertThat(heater.get("operation_mode").getKind()).isEqualTo(FieldKind.ENUM);
+    assertThat(heater.get("target_temp_c").getCaps().getMin()).isEqualTo(40.0);
+  }
+
+  @Test
+  void invalid_rules_name_the_domain_and_index() {
+    assertThatThrownBy(() -> parse("{\"fan\": [{\"attr\": \"x\", \"kind\": \"slider\"}]}"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("fan[0]: unknown kind \"slider\"");
+    assertThatThrownBy(
+            () ->
+                parse(
+                    "{\"fan\": [{\"attr\": \"x\", \"kind\": \"number\", \"unit\": \"%\"},"
+                        + " {\"attr\": \"y\", \"kind\": \"enum\"}]}"))
+        .hasMessage("fan[1]: missing source \"list\"");
+    assertThatThrownBy(
+            () ->
+                parse(
+                    "{\"fan\": [{\"attr\": \"x\", \"kind\": \"boolean\","
+                        + " \"source\": {\"list\": \"l\"}}]}"))
+        .hasMessage("fan[0]: boolean does not read source \"list\"");
+  }
+
+  private static RulePack parse(String domains) throws Exception {
+    return RulePack.parse(new StringReader("{\"format\": 1, \"domains\": " + domains + "}"));
+  }
+}
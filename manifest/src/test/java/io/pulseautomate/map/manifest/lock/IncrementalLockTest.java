@@ -0,0 +1,115 @@
+package io.pulseautomate.map.manifest.lock;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.manifest.builder.IncrementalManifest;
+import io.pulseautomate.map.manifest.builder.ManifestBuilder;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class IncrementalLockTest {
+  private static final Instant T0 = Instant.parse("2025-08-14T00:00:00Z");
+  private static final Instant T1 = Instant.parse("2025-08-14T00:01:00Z");
+
+  private static final List<Map<String, Object>> SERVICES =
+      List.of(
+          Map.of(
+              "domain",
+              "climate",
+              "services",
+              Map.of(
+                  "set_hvac_mode", Map.of("fields", Map.of("hvac_mode", Map.of())),
+                  "turn_off", Map.of())));
+
+  private static HAState climate(int i, List<String> modes) {
+    return new HAState(
+        "climate.trv_" + i,
+        "heat",
+        new HAAttributes.Builder().put("hvac_modes", modes).put("hvac_mode", "heat").build());
+  }
+
+  private static IncrementalManifest manifest(ManifestBuilder builder, int count) {
+    var states =
+        IntStream.range(0, count).mapToObj(i -> climate(i, List.of("off", "heat"))).toList();
+    return new IncrementalManifest(builder.buildFromStates("2025.6", states, SERVICES), builder);
+  }
+
+  @Test
+  void an_edit_rehashes_one_path_and_matches_a_full_rebuild() {
+    var builder = new ManifestBuilder();
+    var inc = manifest(builder, 1000);
+    var lock = IncrementalLock.of(inc, null, T0);
+    var full = LockBuilder.build(inc.manifest(), null, T0, 2);
+    assertThat(lock.lock()).isEqualTo(full);
+    assertThat(full.getSchema()).isEqualTo(2);
+    assertThat(full.getLeavesMap()).hasSize(1000 + 2 + 1);
+    assertThat(full.getManifestHash())
+        .isNotEqualTo(LockBuilder.build(inc.manifest(), null, T0).getManifestHash());
+
+    inc.putState(climate(500, List.of("off", "heat", "cool")));
+    var before = lock.nodeHashes();
+    var root = lock.apply(inc.drainChanges(), T1);
+    var next = lock.lock();
+
+    assertThat(lock.nodeHashes() - before).isLessThanOrEqualTo(20); // 2 * ceil(log2(1003))
+    assertThat(root).isEqualTo(next.getManifestHash());
+    assertThat(next).isEqualTo(LockBuilder.build(inc.manifest(), full, T1, 2));
+    assertThat(next.getAttrEnumsMap().get("climate.hvac_mode").getValuesList())
+        .containsExactly("cool", "heat", "off");
+    assertThat(next.getLeavesMap().get("e:climate.trv_500"))
+        .isNotEqualTo(full.getLeavesMap().get("e:climate.trv_500"));
+  }
+
+  @Test
+  void an_add_or_a_remove_rehashes_one_path() {
+    var builder = new ManifestBuilder();
+    var inc = manifest(builder, 1000);
+    var lock = IncrementalLock.of(inc, null, T0);
+
+    inc.putState(climate(1000, List.of("off")));
+    var before = lock.nodeHashes();
+    lock.apply(inc.drainChanges(), T1);
+    assertThat(lock.nodeHashes() - before).isBetween(1L, 20L);
+
+    var previous = lock.lock();
+    inc.removeState("climate.trv_17");
+    before = lock.nodeHashes();
+    lock.apply(inc.drainChanges(), T1);
+    assertThat(lock.nodeHashes() - before).isBetween(1L, 20L);
+    assertThat(lock.lock()).isEqualTo(LockBuilder.build(inc.manifest(), previous, T1, 2));
+  }
+
+  @Test
+  void adds_removes_and_a_resumed_lock_match_a_full_rebuild() {
+    var builder = new ManifestBuilder();
+    var inc = manifest(builder, 40);
+    var stored = LockBuilder.build(inc.manifest(), null, T0, 2);
+    var lock = IncrementalLock.resume(inc, stored);
+
+    inc.putState(climate(40, List.of("off", "dry")));
+    inc.removeState("climate.trv_3");
+    inc.putState(climate(7, List.of("off")));
+    inc.removeService("climate", "turn_off");
+    lock.apply(inc.drainChanges(), T1);
+    var next = lock.lock();
+
+    assertThat(next).isEqualTo(LockBuilder.build(inc.manifest(), stored, T1, 2));
+    assertThat(next.getEntityMapMap()).doesNotContainKey("climate.trv_3");
+    assertThat(next.getServiceSigMap()).doesNotContainKey("climate.turn_off");
+    assertThat(next.getAttrEnumsMap().get("climate.hvac_mode").getValuesList())
+        .containsExactly("dry", "heat", "off");
+
+    inc.removeState("climate.trv_40");
+    lock.apply(inc.drainChanges(), T1);
+    var last = lock.lock();
+    assertThat(last.getAttrEnumsMap().get("climate.hvac_mode").getValuesList())
+        .containsExactly("heat", "off");
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> IncrementalLock.resume(inc, LockBuilder.build(inc.manifest(), null, T0)));
+  }
+}
@@ -1,10 +1,15 @@
 package io.pulseautomate.map.manifest.lock;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 import io.pulseautomate.map.manifest.gen.model.*;
+import io.pulseautomate.map.manifest.id.StableId;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import io.pulseautomate.map.manifest.util.Hashing;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 class LockBuilderTest {
@@ -94,4 +99,98 @@ class LockBuilderTest {
 
     assertThat(lock.getEntityMapMap().get("sensor.outdoor_temp")).startsWith("stable:");
   }
+
+  @Test
+  void signs_services_by_their_shape() {
+    var lock = LockBuilder.build(sampleManifest(), null, Instant.parse("2025-08-14T00:00:00Z"));
+
+    assertThat(lock.getServiceSigMap().get("climate.set_temperature"))
+        .isEqualTo(Hashing.sha256Hex("climate.set_temperature|temperature:number:req:°C"));
+    assertThat(lock.getStableIdHash()).isEqualTo("sha256");
+  }
+
+  @Test
+  void records_the_stable_id_hash_and_keeps_it_for_later_builds() {
+    var now = Instant.parse("2025-08-14T00:00:00Z");
+    var first =
+        Manifest.newBuilder()
+            .setSchema(1)
+            .addEntities(Entity.newBuilder().setEntityId("sensor.outdoor_temp").setDomain("sensor"))
+            .build();
+    var xxh = LockBuilder.Options.DEFAULT.withStableIds(HashAlgo.XXH64);
+    var lock = LockBuilder.build(first, null, now, xxh);
+
+    assertThat(lock.getStableIdHash()).isEqualTo("xxh64");
+    assertThat(lock.getEntityMapMap().get("sensor.outdoor_temp"))
+        .isEqualTo(StableId.derive("sensor.outdoor_temp", HashAlgo.XXH64))
+        .isNotEqualTo(StableId.derive("sensor.outdoor_temp"));
+
+    var second =
+        first.toBuilder()
+            .addEntities(Entity.newBuilder().setEntityId("sensor.indoor_temp").setDomain("sensor"))
+            .build();
+    var next = LockBuilder.build(second, lock, now);
+
+    assertThat(next.getStableIdHash()).isEqualTo("xxh64");
+    assertThat(next.getEntityMapMap().get("sensor.indoor_temp"))
+        .isEqualTo(StableId.derive("sensor.indoor_temp", HashAlgo.XXH64));
+  }
+
+  @Test
+  void extends_a_stable_id_the_previous_lock_already_assigned_and_records_it() {
+    var now = Instant.parse("2025-08-14T00:00:00Z");
+    var taken = StableId.derive("light.kitchen");
+    var previous = LockFile.newBuilder().putEntityMap("light.old", taken).build();
+    var manifest =
+        Manifest.newBuilder()
+            .setSchema(1)
+            .addEntities(Entity.newBuilder().setEntityId("light.kitchen").setDomain("light"))
+            .addEntities(Entity.newBuilder().setEntityId("light.old").setDomain("light"))
+            .build();
+
+    var lock = LockBuilder.build(manifest, previous, now);
+
+    assertThat(lock.getEntityMapMap())
+        .containsEntry("light.old", taken)
+        .containsEntry("light.kitchen", StableId.derive("light.kitchen", HashAlgo.SHA256, 16));
+    assertThat(lock.getStableIdCollisionsMap()).containsExactly(entry("light.kitchen", taken));
+
+    var withoutOld = manifest.toBuilder().removeEntities(1).build();
+    var next = LockBuilder.build(withoutOld, lock, now);
+    assertThat(next.getEntityMapMap())
+        .isEqualTo(Map.of("light.kitchen", lock.getEntityMapMap().get("light.kitchen")));
+    assertThat(next.getStableIdCollisionsMap()).isEqualTo(lock.getStableIdCollisionsMap());
+  }
+
+  @Test
+  void an_id_held_twice_is_kept_by_the_first_entity_and_extended_for_the_others() {
+    var now = Instant.parse("2025-08-14T00:00:00Z");
+    var shared = StableId.derive("light.a");
+    var previous =
+        LockFile.newBuilder()
+            .putEntityMap("light.b", shared)
+            .putEntityMap("light.a", shared)
+            .build();
+    var manifest =
+        Manifest.newBuilder()
+            .setSchema(1)
+            .addEntities(Entity.newBuilder().setEntityId("light.b").setDomain("light"))
+            .addEntities(Entity.newBuilder().setEntityId("light.a").setDomain("light"))
+            .addEntities(
+                Entity.newBuilder().setEntityId("light.c").setDomain("light").setStableId(shared))
+            .build();
+
+    var lock = LockBuilder.build(manifest, previous, now);
+
+    assertThat(lock.getEntityMapMap())
+        .containsEntry("light.a", shared)
+        .containsEntry("light.b", shared + "-2")
+        .containsEntry("light.c", shared + "-3");
+    assertThat(lock.getStableIdCollisionsMap())
+        .containsOnly(entry("light.b", shared), entry("light.c", shared));
+
+    var next = LockBuilder.build(manifest, lock, now);
+    assertThat(next.getEntityMapMap()).isEqualTo(lock.getEntityMapMap());
+    assertThat(next.getStableIdCollisionsMap()).isEqualTo(lock.getStableIdCollisionsMap());
+  }
 }
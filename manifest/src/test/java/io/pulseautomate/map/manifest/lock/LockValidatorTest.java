@@ -0,0 +1,110 @@
+package io.pulseautomate.map.manifest.lock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import io.pulseautomate.map.manifest.gen.model.*;
+import io.pulseautomate.map.manifest.lock.LockValidator.HashCheck;
+import io.pulseautomate.map.manifest.lock.LockValidator.Issue;
+import io.pulseautomate.map.manifest.lock.LockValidator.IssueKind;
+import io.pulseautomate.map.manifest.serde.ManifestPb;
+import java.nio.file.Path;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LockValidatorTest {
+  private static final Instant T0 = Instant.parse("2025-08-14T00:00:00Z");
+
+  private static Manifest manifest() {
+    var m = Manifest.newBuilder().setSchema(1).setHaVersion("2025.6");
+    for (var i = 9; i >= 0; i--) {
+      m.addEntities(
+          Entity.newBuilder()
+              .setStableId("stable:" + i)
+              .setEntityId("light.e" + i)
+              .setDomain("light")
+              .putAttributes("brightness", AttributeDesc.newBuilder().build())
+              .putAttributes("effect", AttributeDesc.newBuilder().build()));
+    }
+    return m.addServices(Service.newBuilder().setDomain("light").setService("turn_on"))
+        .addServices(Service.newBuilder().setDomain("fan").setService("turn_on"))
+        .addDevices(Device.newBuilder().setId("dev2"))
+        .addDevices(Device.newBuilder().setId("dev1"))
+        .setFilter(EntityFilter.newBuilder().addInclude("light"))
+        .build();
+  }
+
+  @Test
+  void hashes_a_canonical_file_as_read_and_rereads_any_other(@TempDir Path dir)
+      throws Exception {
+    var m = manifest();
+    var path = dir.resolve("manifest.pb");
+    for (var schema : new int[] {1, 2}) {
+      var lock = LockBuilder.build(m, null, T0, schema);
+
+      ManifestPb.writeCanonical(path, m);
+      var report = LockValidator.validate(path, lock, false);
+      assertThat(report.ok()).isTrue();
+      assertThat(report.reread()).isFalse();
+      assertThat(report.actualHash()).isEqualTo(lock.getManifestHash());
+      assertThat(report.entities()).isEqualTo(10);
+      assertThat(report.devices()).isEqualTo(2);
+
+      ManifestPb.write(path, m);
+      report = LockValidator.validate(path, lock, false);
+      assertThat(report.ok()).isTrue();
+      assertThat(report.reread()).isEqualTo(schema == 1);
+    }
+  }
+
+  @Test
+  void reports_coverage_and_changed_elements_and_can_stop_early(@TempDir Path dir)
+      throws Exception {
+    var m = manifest();
+    var lock =
+        LockBuilder.build(m, null, T0, 2).toBuilder()
+            .removeEntityMap("light.e6")
+            .removeServiceSig("fan.turn_on")
+            .build();
+    var edited =
+        m.toBuilder()
+            .setEntities(1, m.getEntities(1).toBuilder().setArea("attic").build())
+            .removeEntities(0)
+            .build();
+    var path = dir.resolve("manifest.pb");
+    ManifestPb.writeCanonical(path, edited);
+
+    var report = LockValidator.validate(path, lock, false);
+    assertThat(report.hash()).isEqualTo(HashCheck.MISMATCH);
+    assertThat(report.issues())
+        .containsExactly(
+            new Issue(IssueKind.MISSING_STABLE_ID, "light.e6"),
+            new Issue(IssueKind.CHANGED, "e:light.e8"),
+            new Issue(IssueKind.MISSING_SERVICE_SIG, "fan.turn_on"),
+            new Issue(IssueKind.REMOVED, "e:light.e9"));
+
+    var first = LockValidator.validate(path, lock, true);
+    assertThat(first.stoppedEarly()).isTrue();
+    assertThat(first.hash()).isEqualTo(HashCheck.SKIPPED);
+    assertThat(first.issues()).containsExactly(new Issue(IssueKind.MISSING_STABLE_ID, "light.e6"));
+    assertThat(first.entities()).isEqualTo(7);
+  }
+
+  @Test
+  void rejects_a_lock_schema_it_cannot_check(@TempDir Path dir) throws Exception {
+    var m = manifest();
+    var path = dir.resolve("manifest.pb");
+    ManifestPb.writeCanonical(path, m);
+    var lock = LockBuilder.build(m, null, T0);
+
+    var unset = LockValidator.validate(path, lock.toBuilder().clearSchema().build(), false);
+    assertThat(unset.lockSchema()).isEqualTo(1);
+    assertThat(unset.ok()).isTrue();
+
+    var future = lock.toBuilder().setSchema(3).build();
+    assertThatIllegalArgumentException()
+        .isThrownBy(() -> LockValidator.validate(path, future, false))
+        .withMessage("unsupported lock schema 3");
+  }
+}
@@ -0,0 +1,99 @@
+package io.pulseautomate.map.manifest.serde;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.pulseautomate.map.manifest.gen.model.*;
+import io.pulseautomate.map.manifest.util.Hashing;
+import java.io.ByteArrayOutputStream;
+import java.util.HexFormat;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CanonicalWriterTest {
+
+  private static Manifest unordered() {
+    var m =
+        Manifest.newBuilder()
+            .setSchema(1)
+            .setHaVersion("2025.6")
+            .setFilter(EntityFilter.newBuilder().addInclude("climate").addInclude("light").build());
+    for (var i = 30; i > 0; i--) {
+      var e =
+          Entity.newBuilder()
+              .setStableId(i % 4 == 0 ? "" : "stable:" + (i * 7919 % 1000))
+              .setEntityId("climate.trv_" + i)
+              .setDomain("climate")
+              .setDeviceId(i % 3 == 0 ? "" : "dev" + i)
+              .putAttributes(
+                  "preset_mode",
+                  AttributeDesc.newBuilder()
+                      .setKind(FieldKind.ENUM)
+                      .addAllEnumValues(List.of("eco", "comfort"))
+                      .build())
+              .putAttributes(
+                  "current_temperature",
+                  AttributeDesc.newBuilder()
+                      .setKind(FieldKind.NUMBER)
+                      .setUnit("°C")
+                      .setCaps(CapabilityRange.newBuilder().setMin(5).setMax(30).setStep(0.5))
+                      .build())
+              .putAttributes("hvac_mode", AttributeDesc.newBuilder().build());
+      m.addEntities(e.build());
+    }
+    m.addServices(
+            Service.newBuilder()
+                .setDomain("light")
+                .setService("turn_on")
+                .putFields("transition", ServiceField.newBuilder().setType("number").build())
+                .putFields("brightness_pct", ServiceField.newBuilder().setUnit("%").build()))
+        .addServices(Service.newBuilder().setDomain("climate").setService("turn_off"))
+        .addDevices(Device.newBuilder().setId("dev9").setName("TRV 9"))
+        .addDevices(Device.newBuilder().setId("dev1"));
+    return m.build();
+  }
+
+  @Test
+  void writes_the_bytes_of_the_canonical_manifest() throws Exception {
+    var m = unordered();
+    var canon = ManifestCanonicalizer.canonicalize(m);
+
+    var out = new ByteArrayOutputStream();
+    CanonicalWriter.write(m, out);
+
+    assertThat(out.toByteArray()).isEqualTo(canon.toByteArray());
+    assertThat(HexFormat.of().formatHex(CanonicalWriter.sha256(m)))
+        .isEqualTo(Hashing.sha256Hex(canon.toByteArray()));
+    assertThat(CanonicalWriter.encode(m.getEntities(0)))
+        .isEqualTo(ManifestCanonicalizer.canonical(m.getEntities(0)).toByteArray());
+    assertThat(CanonicalWriter.encode(m.getServices(0)))
+        .isEqualTo(ManifestCanonicalizer.canonical(m.getServices(0)).toByteArray());
+  }
+
+  @Test
+  void keeps_the_golden_hash() {
+    var entity =
+        Entity.newBuilder()
+            .setStableId("stable:aa12…")
+            .setEntityId("climate.living_room_trv")
+            .setDomain("climate")
+            .putAttributes(
+                "preset_mode",
+                AttributeDesc.newBuilder()
+                    .setKind(FieldKind.ENUM)
+                    .setOptional(true)
+                    .addAllEnumValues(List.of("eco", "comfort"))
+                    .build())
+            .putAttributes(
+                "hvac_mode",
+                AttributeDesc.newBuilder()
+                    .setKind(FieldKind.ENUM)
+                    .addAllEnumValues(List.of("off", "heat", "auto"))
+                    .build())
+            .build();
+    var manifest =
+        Manifest.newBuilder().setSchema(1).setHaVersion("2025.6").addEntities(entity).build();
+
+    assertThat(HexFormat.of().formatHex(CanonicalWriter.sha256(manifest)))
+        .isEqualTo("67a9f71ffcd9e57fd929b499af59ea0af0704ea664e7bdc5935ab65beba1c809");
+  }
+}
@@ -0,0 +1,42 @@
+package io.pulseautomate.map.manifest.util;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import org.junit.jupiter.api.Test;
+
+class HashingTest {
+
+  private static String xxh64(String s) {
+    var bytes = s.getBytes(StandardCharsets.UTF_8);
+    return HexFormat.of().formatHex(HashAlgo.XXH64.newDigest().digest(bytes));
+  }
+
+  @Test
+  void xxh64_matches_the_reference_vectors() {
+    assertThat(xxh64("")).isEqualTo("ef46db3751d8e999");
+    assertThat(xxh64("a")).isEqualTo("d24ec4f1a98c6e5b");
+    assertThat(xxh64("abc")).isEqualTo("44bc2cf5ad770999");
+
+    var md = HashAlgo.XXH64.digest();
+    var text = "x".repeat(1000);
+    for (var i = 0; i < text.length(); i += 7) {
+      Hashing.update(md, text.substring(i, Math.min(i + 7, text.length())));
+    }
+    assertThat(HexFormat.of().formatHex(md.digest())).isEqualTo(xxh64(text));
+  }
+
+  @Test
+  void update_hashes_the_utf8_bytes() {
+    var s = "climate.séjour_°C_温度_😀_\uD800_end";
+    var md = HashAlgo.SHA256.digest();
+    Hashing.update(md, s);
+
+    assertThat(Hashing.hex(md.digest())).isEqualTo(Hashing.sha256Hex(s));
+    assertThat(Hashing.sha256Hex(s))
+        .isEqualTo(Hashing.sha256Hex(s.getBytes(StandardCharsets.UTF_8)));
+    assertThatIllegalArgumentException().isThrownBy(() -> HashAlgo.forId("md5"));
+    assertThat(HashAlgo.forId("")).isEqualTo(HashAlgo.SHA256);
+  }
+}
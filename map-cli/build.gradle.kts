@@ -58,7 +58,19 @@ graalvmNative {
                 listOf(
                     "--no-fallback",
                     "--install-exit-handlers",
-                    "-H:+ReportExceptionStackTraces"
+                    "--enable-monitoring=jfr",
+                    "-H:+ReportExceptionStackTraces",
+                    // Parse the built-in rule pack while building the image and keep the result
+                    // in the image heap, so startup does not read or parse JSON for it.
+                    "--initialize-at-build-time=" +
+                        listOf(
+                            "io.pulseautomate.map.manifest.infer.RulePack",
+                            "io.pulseautomate.map.manifest.infer.RulePack\$BuiltIn",
+                            "io.pulseautomate.map.manifest.infer.RulePack\$Rule",
+                            "io.pulseautomate.map.manifest.infer.RulePack\$Caps",
+                            "io.pulseautomate.map.manifest.infer.RulePack\$When",
+                            "io.pulseautomate.map.ha.json"
+                        ).joinToString(",")
                 )
             )
 
@@ -1,6 +1,7 @@
 package io.pulseautomate.map.cli;
 
 import io.pulseautomate.map.cli.commands.DiscoverCommand;
+import io.pulseautomate.map.cli.commands.FleetCommand;
 import io.pulseautomate.map.cli.commands.ProtoCommand;
 import io.pulseautomate.map.cli.commands.StatsCommand;
 import io.pulseautomate.map.cli.commands.ValidateCommand;
@@ -14,6 +15,7 @@ import picocli.CommandLine;
     description = "Pulse Map CLI",
     subcommands = {
       DiscoverCommand.class,
+      FleetCommand.class,
       ValidateCommand.class,
       StatsCommand.class,
       ProtoCommand.class
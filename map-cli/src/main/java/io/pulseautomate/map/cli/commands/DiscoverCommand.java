@@ -1,8 +1,23 @@
 package io.pulseautomate.map.cli.commands;
 
+import static io.pulseautomate.map.manifest.util.Constants.LOCK_SCHEMA_V1;
+import static io.pulseautomate.map.manifest.util.Constants.LOCK_SCHEMA_V2;
+
 import io.pulseautomate.map.cli.run.DiscoverRunner;
+import io.pulseautomate.map.ha.client.HAHttpException;
+import io.pulseautomate.map.ha.client.HAWebSocketClient;
+import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.ha.model.HARegistries;
+import io.pulseautomate.map.ha.model.StateFilter;
+import io.pulseautomate.map.ha.model.StringDictionary;
+import io.pulseautomate.map.manifest.builder.ServiceTyping;
+import io.pulseautomate.map.manifest.infer.RulePack;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.Callable;
 import picocli.CommandLine;
 
@@ -41,11 +56,106 @@ public final class DiscoverCommand implements Callable<Integer> {
       description = "Use built-in demo snapshot (ignores HA URL/token)")
   boolean demo;
 
+  @CommandLine.Option(
+      names = {"--capture"},
+      paramLabel = "<file>",
+      description =
+          "Also save the raw, unfiltered states and services to <file> for --replay"
+              + " (turns off --stream and --pipeline)")
+  Path capture;
+
+  @CommandLine.Option(
+      names = {"--replay"},
+      paramLabel = "<file>",
+      description = "Rebuild from a snapshot written by --capture (ignores HA URL/token)")
+  Path replay;
+
   @CommandLine.Option(
       names = {"--verbose", "-v"},
       description = "Enable verbose output (default: false)")
   boolean verbose;
 
+  @CommandLine.Option(
+      names = {"--compress"},
+      description = "Request gzip/deflate compressed responses from Home Assistant")
+  boolean compress;
+
+  @CommandLine.Option(
+      names = {"--http2"},
+      description = "Use HTTP/2 instead of HTTP/1.1 when talking to Home Assistant")
+  boolean http2;
+
+  @CommandLine.Option(
+      names = {"--build-threads"},
+      paramLabel = "<n>",
+      description = "Threads used to build the manifest from states (default: 1)")
+  int buildThreads = 1;
+
+  @CommandLine.Option(
+      names = {"--stream"},
+      description =
+          "Write manifest.pb while states are still being read, in bounded memory (protobuf only)")
+  boolean stream;
+
+  @CommandLine.Option(
+      names = {"--pipeline"},
+      description =
+          "Like --stream, with fetch, inference, encoding, hashing and writing run concurrently")
+  boolean pipeline;
+
+  @CommandLine.Option(
+      names = {"--lock-schema"},
+      paramLabel = "<1|2>",
+      description =
+          "Lock schema: 1 hashes manifest.pb, 2 stores a Merkle tree of per-element hashes"
+              + " (default: 1)")
+  int lockSchema = LOCK_SCHEMA_V1;
+
+  @CommandLine.Option(
+      names = {"--stable-id-hash"},
+      paramLabel = "<sha256|xxh64>",
+      description =
+          "Hash new stable ids are derived with; recorded in the lock (default: sha256)")
+  String stableIdHash = HashAlgo.SHA256.id;
+
+  @CommandLine.Option(
+      names = {"--service-types"},
+      paramLabel = "<file>",
+      description = "Extra service field typing rules (domain.service.field = type [unit])")
+  Path serviceTypes;
+
+  @CommandLine.Option(
+      names = {"--rules"},
+      paramLabel = "<file>",
+      description = "Site rule pack (JSON) added to the built-in attribute inference rules")
+  Path rulesFile;
+
+  @CommandLine.Option(
+      names = {"--registries"},
+      paramLabel = "<file>",
+      description = "Entity, device and area registries (JSON) used to fill in areas and devices")
+  Path registriesFile;
+
+  @CommandLine.Option(
+      names = {"--fetch-registries"},
+      description = "Fetch the entity, device and area registries from Home Assistant's websocket")
+  boolean fetchRegistries;
+
+  @CommandLine.Option(
+      names = {"--include"},
+      paramLabel = "<pattern>",
+      split = ",",
+      description =
+          "Keep only these domains (light) or entity-id globs (sensor.kitchen_*); repeatable")
+  List<String> include = List.of();
+
+  @CommandLine.Option(
+      names = {"--exclude"},
+      paramLabel = "<pattern>",
+      split = ",",
+      description = "Drop these domains or entity-id globs, even if included; repeatable")
+  List<String> exclude = List.of();
+
   @CommandLine.Option(
       names = {"--json"},
       description = "Output files in human-readable JSON format (default: false)")
@@ -55,22 +165,101 @@ public final class DiscoverCommand implements Callable<Integer> {
 
   @Override
   public Integer call() throws Exception {
+    if (buildThreads < 1) {
+      System.err.println("--build-threads must be at least 1");
+      return 2;
+    }
+    if (lockSchema != LOCK_SCHEMA_V1 && lockSchema != LOCK_SCHEMA_V2) {
+      System.err.println("--lock-schema must be 1 or 2");
+      return 2;
+    }
+    HashAlgo stableIds;
+    try {
+      stableIds = HashAlgo.forId(stableIdHash);
+    } catch (IllegalArgumentException e) {
+      System.err.println("--stable-id-hash: " + e.getMessage());
+      return 2;
+    }
+    var rules = RulePack.builtIn();
+    if (rulesFile != null) {
+      try {
+        rules = rules.plus(RulePack.load(rulesFile));
+      } catch (IOException e) {
+        System.err.println("cannot load rules: " + e.getMessage());
+        return 2;
+      }
+    }
+    var typing = ServiceTyping.builtIn();
+    if (serviceTypes != null) {
+      try {
+        typing = typing.withOverlay(serviceTypes);
+      } catch (IOException e) {
+        System.err.println("cannot load service types: " + e.getMessage());
+        return 2;
+      }
+    }
+
+    StateFilter filter;
+    try {
+      filter = StateFilter.of(include, exclude);
+    } catch (IllegalArgumentException e) {
+      System.err.println("invalid filter: " + e.getMessage());
+      return 2;
+    }
+
     final var url = haUrl != null ? haUrl : envUri("HA_URL");
     final var token = firstNonBlank(haToken, getEnv("HA_TOKEN"));
     final var version = firstNonBlank(haVersion, getEnv("HA_VERSION"));
 
     final var useHA = (url != null && !isBlank(token));
+
+    HARegistries registries = null;
+    try {
+      if (registriesFile != null) {
+        try (var in = Files.newBufferedReader(registriesFile)) {
+          registries = HARegistries.read(in);
+        }
+      } else if (fetchRegistries && useHA && !demo && replay == null) {
+        try (var ws = new HAWebSocketClient(HAConfig.of(url, token))) {
+          registries = ws.fetchRegistries();
+        }
+      }
+    } catch (IOException | HAHttpException e) {
+      System.err.println("cannot load registries: " + e.getMessage());
+      return 2;
+    }
+
     final var runner =
         demo
             ? DiscoverRunner.forDemo(version)
-            : (useHA
-                ? factory.create(url, token, version)
-                : DiscoverRunner.forSnapshotOnly(version));
+            : replay != null
+                ? DiscoverRunner.forReplay(replay, version)
+                : (useHA
+                    ? factory.create(
+                        HAConfig.of(url, token).withCompression(compress).withHttp2(http2), version)
+                    : DiscoverRunner.forSnapshotOnly(version));
+    if (capture != null) {
+      runner.captureTo(capture);
+      if (stream || pipeline)
+        System.err.println(
+            (pipeline ? "--pipeline" : "--stream") + " is ignored with --capture, which reads all"
+                + " states at once");
+    }
+    if (registries != null) runner.registries(registries);
+    runner
+        .buildParallelism(buildThreads)
+        .serviceTyping(typing)
+        .rules(rules.toRegistry())
+        .filter(filter)
+        .streaming(stream)
+        .pipelined(pipeline)
+        .lockSchema(lockSchema)
+        .stableIdHash(stableIds);
 
     if (verbose) {
       System.out.println(
           "[pulse-map] mode="
-              + (demo ? "demo" : (useHA ? "ha" : "snapshot"))
+              + (demo ? "demo" : replay != null ? "replay" : (useHA ? "ha" : "snapshot"))
               + " out="
               + outDir.toAbsolutePath()
               + " haUrl="
@@ -78,10 +267,48 @@ public final class DiscoverCommand implements Callable<Integer> {
               + " haVersion="
               + (version == null ? "(none)" : version)
               + " format="
-              + (jsonOutput ? "json" : "protobuf"));
+              + (jsonOutput ? "json" : "protobuf")
+              + (filter.isAll() ? "" : " filter=" + filter));
     }
 
-    var res = runner.run(outDir, jsonOutput);
+    DiscoverRunner.Result res;
+    try (runner) {
+      res = runner.run(outDir, jsonOutput);
+      if (verbose) {
+        runner
+            .transferStats()
+            .forEach(
+                (path, t) ->
+                    System.out.printf(
+                        "[pulse-map] %s: %d bytes on wire, %d decoded (%s)%n",
+                        path, t.wireBytes(), t.decodedBytes(), t.contentEncoding()));
+        var dict = StringDictionary.shared().stats();
+        System.out.printf(
+            "[pulse-map] strings: %d distinct, %d duplicates dropped, ~%d KiB saved%n",
+            dict.entries(), dict.hits(), dict.bytesSaved() / 1024);
+        var infer = runner.inferenceStats();
+        System.out.printf(
+            "[pulse-map] inference: %d computed, %d reused across %d attribute shapes%n",
+            infer.misses(), infer.hits(), infer.shapes());
+        var ids = runner.stableIdStats();
+        System.out.printf(
+            "[pulse-map] stable ids: %d indexed, %d extended on collision, index ~%d KiB%n",
+            ids.ids(), ids.extended(), ids.bytes() / 1024);
+        var pipelineStats = runner.pipelineStats();
+        if (pipelineStats != null) {
+          System.out.printf(
+              "[pulse-map] pipeline: %d ms end to end%n", pipelineStats.elapsed().toMillis());
+          for (var s : pipelineStats.stages())
+            System.out.printf(
+                "[pulse-map]   stage %-6s %8d items, busy %5d ms, blocked %5d ms%n",
+                s.name(), s.items(), s.busy().toMillis(), s.blocked().toMillis());
+          for (var q : pipelineStats.queues())
+            System.out.printf(
+                "[pulse-map]   queue %-8s max %d/%d, mean %.1f%n",
+                q.name(), q.maxDepth(), q.capacity(), q.meanDepth());
+        }
+      }
+    }
 
     System.out.printf("Wrote:%n %s%n %s%n", res.manifestPath(), res.lockPath());
     System.out.printf("Entities: %d, Services: %d%n", res.entities(), res.services());
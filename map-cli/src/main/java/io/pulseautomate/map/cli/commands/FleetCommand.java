@@ -0,0 +1,152 @@
+package io.pulseautomate.map.cli.commands;
+
+import io.pulseautomate.map.cli.run.DiscoverRunner;
+import io.pulseautomate.map.cli.run.FleetRunner;
+import io.pulseautomate.map.ha.client.HAHttpClient;
+import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.manifest.builder.ManifestBuilder;
+import io.pulseautomate.map.manifest.builder.ServiceTyping;
+import io.pulseautomate.map.manifest.infer.RulePack;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import picocli.CommandLine;
+
+@CommandLine.Command(
+    name = "fleet",
+    mixinStandardHelpOptions = true,
+    description = "Discover many Home Assistant instances concurrently, one directory each")
+public final class FleetCommand implements Callable<Integer> {
+  @CommandLine.Option(
+      names = {"--instances"},
+      paramLabel = "<file>",
+      description = "Lines of name,url,token[,version]; a token of $VAR is read from the env",
+      required = true)
+  Path instancesFile;
+
+  @CommandLine.Option(
+      names = {"--out"},
+      paramLabel = "<dir>",
+      description = "Root directory; each instance is written to <dir>/<name>",
+      required = true)
+  Path outDir;
+
+  @CommandLine.Option(
+      names = {"--parallel"},
+      paramLabel = "<n>",
+      description = "Maximum instances discovered at once (default: ${DEFAULT-VALUE})",
+      defaultValue = "16")
+  int parallel;
+
+  @CommandLine.Option(
+      names = {"--compress"},
+      description = "Request gzip/deflate compressed responses from Home Assistant")
+  boolean compress;
+
+  @CommandLine.Option(
+      names = {"--http2"},
+      description = "Use HTTP/2 instead of HTTP/1.1 when talking to Home Assistant")
+  boolean http2;
+
+  @CommandLine.Option(
+      names = {"--service-types"},
+      paramLabel = "<file>",
+      description = "Extra service field typing rules (domain.service.field = type [unit])")
+  Path serviceTypes;
+
+  @CommandLine.Option(
+      names = {"--rules"},
+      paramLabel = "<file>",
+      description = "Site rule pack (JSON) added to the built-in attribute inference rules")
+  Path rulesFile;
+
+  @CommandLine.Option(
+      names = {"--json"},
+      description = "Output files in human-readable JSON format (default: false)")
+  boolean jsonOutput;
+
+  @Override
+  public Integer call() throws Exception {
+    if (parallel < 1) {
+      System.err.println("--parallel must be at least 1");
+      return 2;
+    }
+    if (!Files.exists(instancesFile)) {
+      System.err.println("instances file not found: " + instancesFile.toAbsolutePath());
+      return 2;
+    }
+
+    List<FleetRunner.Instance> instances;
+    try {
+      instances = FleetRunner.parse(Files.readAllLines(instancesFile), System::getenv);
+    } catch (IllegalArgumentException e) {
+      System.err.println(instancesFile + ": " + e.getMessage());
+      return 2;
+    }
+    if (instances.isEmpty()) {
+      System.err.println(instancesFile + ": no instances");
+      return 2;
+    }
+
+    var rules = RulePack.builtIn();
+    if (rulesFile != null) {
+      try {
+        rules = rules.plus(RulePack.load(rulesFile));
+      } catch (IOException e) {
+        System.err.println("cannot load rules: " + e.getMessage());
+        return 2;
+      }
+    }
+    var typing = ServiceTyping.builtIn();
+    if (serviceTypes != null) {
+      try {
+        typing = typing.withOverlay(serviceTypes);
+      } catch (IOException e) {
+        System.err.println("cannot load service types: " + e.getMessage());
+        return 2;
+      }
+    }
+
+    // One connection pool and one rule registry for the whole fleet; timeouts and protocol are
+    // the same for every instance, so any instance's config describes the shared client.
+    var builder = new ManifestBuilder(rules.toRegistry()).withServiceTyping(typing);
+    List<FleetRunner.Outcome> outcomes;
+    var started = System.nanoTime();
+    try (var http = HAHttpClient.newHttpClient(config(instances.getFirst()))) {
+      FleetRunner.RunnerFactory factory =
+          i -> DiscoverRunner.forHomeAssistant(config(i), i.haVersion(), http, builder);
+      outcomes = new FleetRunner(factory, parallel).run(instances, outDir, jsonOutput);
+    }
+    var wall = (System.nanoTime() - started) / 1_000_000;
+
+    var failed = 0;
+    for (var o : outcomes) {
+      var ms = o.elapsed().toMillis();
+      if (o.ok()) {
+        System.out.printf(
+            " %-24s OK    %6d ms  entities=%d services=%d%n",
+            o.instance().name(), ms, o.result().entities(), o.result().services());
+      } else {
+        failed++;
+        System.out.printf(
+            " %-24s FAIL  %6d ms  %s%n", o.instance().name(), ms, describe(o.error()));
+      }
+    }
+    System.out.printf(
+        "Instances: %d, OK: %d, Failed: %d, Wall time: %d ms%n",
+        outcomes.size(), outcomes.size() - failed, failed, wall);
+
+    return failed == 0 ? 0 : 1;
+  }
+
+  private HAConfig config(FleetRunner.Instance i) {
+    return HAConfig.of(i.url(), i.token()).withCompression(compress).withHttp2(http2);
+  }
+
+  private static String describe(Exception e) {
+    var msg = e.getMessage();
+    return msg == null || msg.isBlank() ? e.getClass().getSimpleName() : msg;
+  }
+}
@@ -1,19 +1,25 @@
 package io.pulseautomate.map.cli.commands;
 
-import io.pulseautomate.map.manifest.lock.LockBuilder;
+import static io.pulseautomate.map.manifest.util.Constants.LOCK_SCHEMA_V2;
+
+import io.pulseautomate.map.ha.json.JsonWriter;
 import io.pulseautomate.map.manifest.lock.LockPb;
-import io.pulseautomate.map.manifest.serde.ManifestCanonicalizer;
-import io.pulseautomate.map.manifest.serde.ManifestPb;
+import io.pulseautomate.map.manifest.lock.LockValidator;
+import io.pulseautomate.map.manifest.lock.LockValidator.IssueKind;
+import io.pulseautomate.map.manifest.util.HashAlgo;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import picocli.CommandLine;
 
 @CommandLine.Command(
     name = "validate",
     mixinStandardHelpOptions = true,
-    description = "Validate manifest.pb against map.lock.pb (hash and coverage).")
+    description = "Validate manifest.pb against map.lock.pb (hash and coverage) in one pass.")
 public final class ValidateCommand implements Callable<Integer> {
   @CommandLine.Option(
       names = {"--dir"},
@@ -27,6 +33,16 @@ public final class ValidateCommand implements Callable<Integer> {
       description = "Exit with non-zero status if any validation issue is found")
   boolean strict;
 
+  @CommandLine.Option(
+      names = {"--fail-fast"},
+      description = "Stop at the first issue and exit with non-zero status (implies --strict)")
+  boolean failFast;
+
+  @CommandLine.Option(
+      names = {"--json"},
+      description = "Print the report as JSON on stdout instead of text")
+  boolean json;
+
   @Override
   public Integer call() throws Exception {
     var manifestPath = dir.resolve("manifest.pb");
@@ -42,38 +58,85 @@ public final class ValidateCommand implements Callable<Integer> {
       return 2;
     }
 
-    var manifest = ManifestPb.read(manifestPath);
-    var canon = ManifestCanonicalizer.canonicalize(manifest);
     var lock = LockPb.read(lockPath);
 
-    var recomputedHash = LockBuilder.build(canon, null, Instant.EPOCH).getManifestHash();
-    var hashOk = recomputedHash.equals(lock.getManifestHash());
-
-    var missingStable = 0;
-    for (var e : canon.getEntitiesList()) {
-      var stable = lock.getEntityMapMap().get(e.getEntityId());
-      if (stable == null || stable.isBlank()) {
-        System.err.println("[MISSING] stable_id for " + e.getEntityId());
-        missingStable++;
-      }
+    try {
+      HashAlgo.forId(lock.getStableIdHash());
+    } catch (IllegalArgumentException e) {
+      System.err.println("map.lock.pb: stable ids use an " + e.getMessage());
+      return 2;
     }
 
-    var missingServiceSig = 0;
-    for (var s : canon.getServicesList()) {
-      var key = s.getDomain() + "." + s.getService();
-      var sig = lock.getServiceSigMap().get(key);
-      if (sig == null || sig.isBlank()) {
-        System.err.println("[MISSING] service signature for " + key);
-        missingServiceSig++;
-      }
+    try {
+      LockValidator.schema(lock);
+    } catch (IllegalArgumentException e) {
+      System.err.println("map.lock.pb: " + e.getMessage() + "; this version reads schemas 1 and 2");
+      return 2;
     }
 
-    System.out.println("Hash match: " + (hashOk ? "OK" : "FAIL"));
-    System.out.println("Entities without stable_id: " + missingStable);
-    System.out.println("Services without signature: " + missingServiceSig);
+    var report = LockValidator.validate(manifestPath, lock, failFast);
+    if (json) {
+      System.out.println(JsonWriter.write(toJson(report)));
+    } else {
+      for (var issue : report.issues()) System.err.println(describe(issue));
+      if (report.stoppedEarly()) System.err.println("Stopped at the first issue (--fail-fast)");
+      System.out.println("Hash match: " + hashLine(report.hash()));
+      System.out.println(
+          "Entities without stable_id: " + report.count(IssueKind.MISSING_STABLE_ID));
+      System.out.println(
+          "Services without signature: " + report.count(IssueKind.MISSING_SERVICE_SIG));
+      if (report.lockSchema() == LOCK_SCHEMA_V2)
+        System.out.println(
+            "Elements added/changed/removed: "
+                + report.count(IssueKind.ADDED)
+                + "/"
+                + report.count(IssueKind.CHANGED)
+                + "/"
+                + report.count(IssueKind.REMOVED));
+    }
 
-    var ok = hashOk && missingStable == 0 && missingServiceSig == 0;
-    if (!ok && strict) return 1;
+    if (!report.ok() && (strict || failFast)) return 1;
     return 0;
   }
+
+  private static String describe(LockValidator.Issue issue) {
+    return switch (issue.kind()) {
+      case MISSING_STABLE_ID -> "[MISSING] stable_id for " + issue.key();
+      case MISSING_SERVICE_SIG -> "[MISSING] service signature for " + issue.key();
+      case ADDED -> "[ADDED] " + issue.key() + " has no leaf in the lock";
+      case CHANGED -> "[CHANGED] " + issue.key() + " differs from its leaf in the lock";
+      case REMOVED -> "[REMOVED] " + issue.key() + " is in the lock but not the manifest";
+    };
+  }
+
+  private static String hashLine(LockValidator.HashCheck check) {
+    return switch (check) {
+      case MATCH -> "OK";
+      case MISMATCH -> "FAIL";
+      case SKIPPED -> "SKIPPED";
+    };
+  }
+
+  private static Map<String, Object> toJson(LockValidator.Report report) {
+    var issues = new ArrayList<Map<String, Object>>();
+    for (var issue : report.issues()) {
+      var i = new LinkedHashMap<String, Object>();
+      i.put("kind", issue.kind().name().toLowerCase(Locale.ROOT));
+      i.put("key", issue.key());
+      issues.add(i);
+    }
+    var out = new LinkedHashMap<String, Object>();
+    out.put("ok", report.ok());
+    out.put("lock_schema", report.lockSchema());
+    out.put("hash", report.hash().name().toLowerCase(Locale.ROOT));
+    out.put("expected_hash", report.expectedHash());
+    out.put("actual_hash", report.actualHash());
+    out.put("entities", report.entities());
+    out.put("services", report.services());
+    out.put("devices", report.devices());
+    out.put("reread", report.reread());
+    out.put("stopped_early", report.stoppedEarly());
+    out.put("issues", issues);
+    return out;
+  }
 }
@@ -0,0 +1,357 @@
+package io.pulseautomate.map.cli.run;
+
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.manifest.builder.ManifestBuilder;
+import io.pulseautomate.map.manifest.gen.model.Device;
+import io.pulseautomate.map.manifest.gen.model.Entity;
+import io.pulseautomate.map.manifest.gen.model.EntityFilter;
+import io.pulseautomate.map.manifest.gen.model.Service;
+import io.pulseautomate.map.manifest.id.StableIdIndex;
+import io.pulseautomate.map.manifest.lock.LockBuilder;
+import io.pulseautomate.map.manifest.lock.LockPb;
+import io.pulseautomate.map.manifest.serde.ManifestCanonicalizer;
+import io.pulseautomate.map.manifest.serde.ManifestSink;
+import io.pulseautomate.map.manifest.serde.ManifestStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The streaming discover as five stages that run at the same time, connected by bounded queues:
+ *
+ * <ol>
+ *   <li>fetch: reads and parses states from the provider;
+ *   <li>infer: builds entities and services and puts them in canonical order;
+ *   <li>encode: turns them into manifest bytes, cut into chunks;
+ *   <li>lock: hashes the chunks and collects the lock entries;
+ *   <li>write: writes the chunks to {@code manifest.pb}.
+ * </ol>
+ *
+ * <p>A full queue blocks its producer, so memory stays bounded and a discover takes about as long
+ * as its slowest stage rather than the sum of all of them. The files are byte-identical to the
+ * sequential paths of {@link DiscoverRunner}.
+ */
+public final class DiscoverPipeline {
+  static final int STATE_QUEUE = 4096;
+  static final int ELEMENT_QUEUE = 4096;
+  static final int CHUNK_QUEUE = 16;
+  static final int CHUNK_BYTES = 64 * 1024;
+
+  /**
+   * How long a stage worked and how long it waited on its queues.
+   *
+   * @param items states for fetch and infer, manifest elements for encode and lock, chunks for
+   *     write
+   */
+  public record StageStats(String name, long items, Duration busy, Duration blocked) {}
+
+  /** How full a queue got, sampled on every put. */
+  public record QueueStats(String name, int capacity, int maxDepth, double meanDepth) {}
+
+  public record Stats(Duration elapsed, List<StageStats> stages, List<QueueStats> queues) {}
+
+  private static final Object END = new Object();
+
+  private record Begin(int schema, String haVersion) {}
+
+  private record Chunk(List<Object> elements, byte[] bytes) {}
+
+  private final DiscoverRunner.SnapshotProvider provider;
+  private final ManifestBuilder builder;
+  private final LockBuilder.Options lockOptions;
+  private int entities;
+  private int services;
+  private Stats stats;
+  private StableIdIndex.Stats stableIdStats;
+
+  DiscoverPipeline(
+      DiscoverRunner.SnapshotProvider provider,
+      ManifestBuilder builder,
+      LockBuilder.Options lockOptions) {
+    this.provider = provider;
+    this.builder = builder;
+    this.lockOptions = lockOptions;
+  }
+
+  DiscoverRunner.Result run(Path manifestPath, Path lockPath) throws Exception {
+    var states = new Channel("states", STATE_QUEUE);
+    var elements = new Channel("elements", ELEMENT_QUEUE);
+    var toLock = new Channel("lock", CHUNK_QUEUE);
+    var toWrite = new Channel("write", CHUNK_QUEUE);
+    var fetch = new Stage("fetch");
+    var infer = new Stage("infer");
+    var encode = new Stage("encode");
+    var hash = new Stage("lock");
+    var write = new Stage("write");
+    var lock = LockBuilder.streamingEncoded(null, Instant.now(), lockOptions);
+
+    var started = System.nanoTime();
+    try (var exec = Executors.newVirtualThreadPerTaskExecutor();
+        var out = new BufferedOutputStream(Files.newOutputStream(manifestPath))) {
+      var servicesF = exec.submit(provider::fetchServices);
+      var done = new ExecutorCompletionService<Void>(exec);
+      var tasks =
+          List.of(
+              fetch.start(done, () -> fetch(fetch, states)),
+              infer.start(done, () -> infer(infer, states, elements, servicesF)),
+              encode.start(done, () -> encode(encode, elements, toLock, toWrite)),
+              hash.start(done, () -> lock(hash, toLock, lock)),
+              write.start(done, () -> write(write, toWrite, out)));
+      awaitAll(done, tasks, servicesF);
+    }
+    LockPb.write(lockPath, lock.lock());
+    stableIdStats = lock.stableIdStats();
+
+    stats =
+        new Stats(
+            Duration.ofNanos(System.nanoTime() - started),
+            List.of(fetch.stats(), infer.stats(), encode.stats(), hash.stats(), write.stats()),
+            List.of(states.stats(), elements.stats(), toLock.stats(), toWrite.stats()));
+    return new DiscoverRunner.Result(manifestPath, lockPath, entities, services);
+  }
+
+  /** Timings of the last run; null before one has finished. */
+  Stats stats() {
+    return stats;
+  }
+
+  StableIdIndex.Stats stableIdStats() {
+    return stableIdStats;
+  }
+
+  private void fetch(Stage stage, Channel states) throws Exception {
+    provider.forEachState(
+        builder.filter(),
+        state -> {
+          try {
+            states.put(stage, state);
+          } catch (InterruptedIOException e) {
+            throw new CancellationException("fetch interrupted");
+          }
+          stage.items++;
+        });
+    states.put(stage, END);
+  }
+
+  private void infer(
+      Stage stage, Channel states, Channel elements, Future<List<Map<String, Object>>> servicesF)
+      throws Exception {
+    var sink =
+        ManifestCanonicalizer.canonicalizing(
+            new ManifestSink() {
+              @Override
+              public void begin(int schema, String haVersion) throws IOException {
+                elements.put(stage, new Begin(schema, haVersion));
+              }
+
+              @Override
+              public void entity(Entity entity) throws IOException {
+                elements.put(stage, entity);
+              }
+
+              @Override
+              public void service(Service service) throws IOException {
+                elements.put(stage, service);
+              }
+
+              @Override
+              public void device(Device device) throws IOException {
+                elements.put(stage, device);
+              }
+
+              @Override
+              public void filter(EntityFilter filter) throws IOException {
+                elements.put(stage, filter);
+              }
+
+              @Override
+              public void end() throws IOException {
+                elements.put(stage, END);
+              }
+            });
+
+    var stream = builder.open(provider.haVersion(), sink);
+    try (stream) {
+      for (var s = states.take(stage); s != END; s = states.take(stage)) {
+        stream.accept((HAState) s);
+        stage.items++;
+      }
+      var waited = System.nanoTime();
+      var fetched = DiscoverRunner.await(servicesF, null);
+      stage.blockedNanos += System.nanoTime() - waited;
+      stream.services(fetched);
+    }
+    entities = stream.entities();
+    services = stream.services();
+  }
+
+  private static void encode(Stage stage, Channel elements, Channel toLock, Channel toWrite)
+      throws IOException {
+    var buf = new ByteArrayOutputStream(CHUNK_BYTES + 8 * 1024);
+    var writer = new ManifestStreamWriter(buf);
+    var pending = new ArrayList<Object>();
+    var chunkStart = 0L;
+    for (var e = elements.take(stage); e != END; e = elements.take(stage)) {
+      feed(writer, e);
+      pending.add(e);
+      stage.items++;
+      if (writer.bytesWritten() - chunkStart >= CHUNK_BYTES) {
+        writer.flush();
+        chunkStart = writer.bytesWritten();
+        emit(stage, new Chunk(List.copyOf(pending), buf.toByteArray()), toLock, toWrite);
+        buf.reset();
+        pending.clear();
+      }
+    }
+    writer.end();
+    if (!pending.isEmpty() || buf.size() > 0)
+      emit(stage, new Chunk(List.copyOf(pending), buf.toByteArray()), toLock, toWrite);
+    toLock.put(stage, END);
+    toWrite.put(stage, END);
+  }
+
+  private static void emit(Stage stage, Chunk chunk, Channel toLock, Channel toWrite)
+      throws IOException {
+    toLock.put(stage, chunk);
+    toWrite.put(stage, chunk);
+  }
+
+  private static void lock(Stage stage, Channel toLock, LockBuilder.Streaming lock)
+      throws IOException {
+    for (var c = toLock.take(stage); c != END; c = toLock.take(stage)) {
+      var chunk = (Chunk) c;
+      for (var e : chunk.elements()) feed(lock, e);
+      lock.hash(chunk.bytes());
+      stage.items += chunk.elements().size();
+    }
+    lock.end();
+  }
+
+  private static void write(Stage stage, Channel toWrite, BufferedOutputStream out)
+      throws IOException {
+    for (var c = toWrite.take(stage); c != END; c = toWrite.take(stage)) {
+      out.write(((Chunk) c).bytes());
+      stage.items++;
+    }
+    out.flush();
+  }
+
+  private static void feed(ManifestSink sink, Object element) throws IOException {
+    if (element instanceof Entity e) sink.entity(e);
+    else if (element instanceof Service s) sink.service(s);
+    else if (element instanceof Device d) sink.device(d);
+    else if (element instanceof EntityFilter f) sink.filter(f);
+    else if (element instanceof Begin b) sink.begin(b.schema(), b.haVersion());
+    else throw new IllegalArgumentException("unexpected element " + element);
+  }
+
+  /** Waits for every stage; on the first failure cancels the others and rethrows its cause. */
+  private static void awaitAll(
+      ExecutorCompletionService<Void> done, List<Future<Void>> tasks, Future<?> servicesF)
+      throws Exception {
+    try {
+      for (var i = 0; i < tasks.size(); i++) DiscoverRunner.await(done.take(), null);
+    } catch (Exception e) {
+      for (var t : tasks) t.cancel(true);
+      servicesF.cancel(true);
+      throw e;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Body {
+    void run() throws Exception;
+  }
+
+  /** Counters for one stage; written only by the stage's thread, read after it has finished. */
+  private static final class Stage {
+    private final String name;
+    private long items;
+    private long blockedNanos;
+    private long startNanos;
+    private long endNanos;
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    Future<Void> start(ExecutorCompletionService<Void> done, Body body) {
+      return done.submit(
+          () -> {
+            startNanos = System.nanoTime();
+            try {
+              body.run();
+            } finally {
+              endNanos = System.nanoTime();
+            }
+            return null;
+          });
+    }
+
+    StageStats stats() {
+      var wall = endNanos - startNanos;
+      return new StageStats(
+          name, items, Duration.ofNanos(wall - blockedNanos), Duration.ofNanos(blockedNanos));
+    }
+  }
+
+  /** A bounded queue with one producer and one consumer that tracks its depth. */
+  private static final class Channel {
+    private final String name;
+    private final int capacity;
+    private final ArrayBlockingQueue<Object> queue;
+    private int maxDepth;
+    private long depthSum;
+    private long puts;
+
+    Channel(String name, int capacity) {
+      this.name = name;
+      this.capacity = capacity;
+      this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void put(Stage by, Object item) throws InterruptedIOException {
+      var t = System.nanoTime();
+      try {
+        queue.put(item);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(name + " queue");
+      }
+      by.blockedNanos += System.nanoTime() - t;
+      var depth = queue.size();
+      if (depth > maxDepth) maxDepth = depth;
+      depthSum += depth;
+      puts++;
+    }
+
+    Object take(Stage by) throws InterruptedIOException {
+      var t = System.nanoTime();
+      try {
+        return queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(name + " queue");
+      } finally {
+        by.blockedNanos += System.nanoTime() - t;
+      }
+    }
+
+    QueueStats stats() {
+      return new QueueStats(name, capacity, maxDepth, puts == 0 ? 0 : depthSum / (double) puts);
+    }
+  }
+}
@@ -2,38 +2,80 @@ package io.pulseautomate.map.cli.run;
 
 import com.google.protobuf.util.JsonFormat;
 import io.pulseautomate.map.ha.client.HAHttpClient;
+import io.pulseautomate.map.ha.client.RequestListener;
+import io.pulseautomate.map.ha.client.TransferStats;
 import io.pulseautomate.map.ha.config.HAConfig;
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HARegistries;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
+import io.pulseautomate.map.ha.snapshot.SnapshotReader;
+import io.pulseautomate.map.ha.snapshot.SnapshotWriter;
 import io.pulseautomate.map.manifest.builder.ManifestBuilder;
+import io.pulseautomate.map.manifest.builder.ManifestStream;
+import io.pulseautomate.map.manifest.builder.ServiceTyping;
+import io.pulseautomate.map.manifest.id.StableIdIndex;
+import io.pulseautomate.map.manifest.infer.InferenceStats;
+import io.pulseautomate.map.manifest.infer.RuleRegistry;
 import io.pulseautomate.map.manifest.lock.LockBuilder;
 import io.pulseautomate.map.manifest.lock.LockPb;
 import io.pulseautomate.map.manifest.serde.ManifestCanonicalizer;
 import io.pulseautomate.map.manifest.serde.ManifestPb;
+import io.pulseautomate.map.manifest.serde.ManifestSink;
+import io.pulseautomate.map.manifest.serde.ManifestStreamWriter;
+import io.pulseautomate.map.manifest.util.HashAlgo;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.http.HttpClient;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
-public final class DiscoverRunner {
+public final class DiscoverRunner implements AutoCloseable {
 
   public interface Factory {
-    DiscoverRunner create(URI haUrl, String token, String haVersionOpt);
+    DiscoverRunner create(HAConfig config, String haVersionOpt);
   }
 
   public static DiscoverRunner forHomeAssistant(URI haUrl, String token, String haVersionOpt) {
     Objects.requireNonNull(haUrl);
     Objects.requireNonNull(token);
+    return forHomeAssistant(HAConfig.of(haUrl, token), haVersionOpt);
+  }
+
+  public static DiscoverRunner forHomeAssistant(HAConfig config, String haVersionOpt) {
+    Objects.requireNonNull(config);
 
-    SnapshotProvider provider = new HAProvider(haUrl, token, haVersionOpt);
+    SnapshotProvider provider = new HAProvider(new HAHttpClient(config), haVersionOpt);
     return new DiscoverRunner(provider, new ManifestBuilder());
   }
 
+  /**
+   * Discovers through a shared {@link HttpClient} and {@link ManifestBuilder}, so many runners can
+   * work side by side without each building their own. Closing the runner leaves {@code http} open.
+   */
+  public static DiscoverRunner forHomeAssistant(
+      HAConfig config, String haVersionOpt, HttpClient http, ManifestBuilder builder) {
+    Objects.requireNonNull(config);
+    Objects.requireNonNull(http);
+
+    var client = new HAHttpClient(config, http, RequestListener.jfr());
+    return new DiscoverRunner(new HAProvider(client, haVersionOpt), builder);
+  }
+
   public static DiscoverRunner forSnapshotOnly(String haVersionOpt) {
     SnapshotProvider provider =
         new SnapshotProvider() {
           @Override
-          public List<Map<String, Object>> fetchStates() throws Exception {
+          public List<HAState> fetchStates() throws Exception {
             return Collections.emptyList();
           }
 
@@ -51,6 +93,12 @@ public final class DiscoverRunner {
     return new DiscoverRunner(provider, new ManifestBuilder());
   }
 
+  /** Rebuilds from a file written by {@link #captureTo(Path)}, without contacting HA. */
+  public static DiscoverRunner forReplay(Path snapshot, String haVersionOpt) throws IOException {
+    Objects.requireNonNull(snapshot);
+    return new DiscoverRunner(new ReplayProvider(snapshot, haVersionOpt), new ManifestBuilder());
+  }
+
   public static DiscoverRunner forDemo(String haVersionOpt) {
     var provider = new DemoProvider(haVersionOpt);
     return new DiscoverRunner(provider, new ManifestBuilder());
@@ -58,33 +106,171 @@ public final class DiscoverRunner {
 
   public record Result(Path manifestPath, Path lockPath, int entities, int services) {}
 
-  public interface SnapshotProvider {
-    List<Map<String, Object>> fetchStates() throws Exception;
+  /**
+   * Source of raw HA states and services. {@link #fetchStates()} and {@link #fetchServices()} are
+   * called concurrently, so implementations must tolerate being used from two threads at once.
+   */
+  public interface SnapshotProvider extends AutoCloseable {
+    List<HAState> fetchStates() throws Exception;
 
     List<Map<String, Object>> fetchServices() throws Exception;
 
     String haVersion() throws Exception;
+
+    /** Hands states over one at a time; providers that can decode incrementally override this. */
+    default void forEachState(Consumer<? super HAState> sink) throws Exception {
+      fetchStates().forEach(sink);
+    }
+
+    /** The states {@code filter} keeps; providers that parse should drop the rest while parsing. */
+    default List<HAState> fetchStates(StateFilter filter) throws Exception {
+      var states = fetchStates();
+      if (filter.isAll()) return states;
+      return states.stream().filter(s -> filter.keeps(s.entityId())).toList();
+    }
+
+    /** Like {@link #forEachState(Consumer)}, for the states {@code filter} keeps. */
+    default void forEachState(StateFilter filter, Consumer<? super HAState> sink)
+        throws Exception {
+      forEachState(
+          state -> {
+            if (filter.keeps(state.entityId())) sink.accept(state);
+          });
+    }
+
+    /** Per-request byte counts, when the provider talks to a network. */
+    default Map<String, TransferStats> transferStats() {
+      return Map.of();
+    }
+
+    @Override
+    default void close() throws Exception {}
   }
 
   private final SnapshotProvider provider;
-  private final ManifestBuilder builder;
+  private ManifestBuilder builder;
+  private Path capturePath;
+  private boolean streaming;
+  private boolean pipelined;
+  private LockBuilder.Options lockOptions = LockBuilder.Options.DEFAULT;
+  private DiscoverPipeline.Stats pipelineStats;
+  private StableIdIndex.Stats stableIdStats;
 
   public DiscoverRunner(SnapshotProvider provider, ManifestBuilder builder) {
     this.provider = provider;
     this.builder = builder;
   }
 
+  /**
+   * Also writes the raw states and services to {@code snapshot} for later replay. The snapshot
+   * holds every state, whatever {@link #filter} is set, and the run is never streamed.
+   */
+  public DiscoverRunner captureTo(Path snapshot) {
+    this.capturePath = snapshot;
+    return this;
+  }
+
+  /**
+   * Streams states from the provider through the builder straight into {@code manifest.pb} and the
+   * lock, instead of holding the states and the manifest in memory. The files are identical either
+   * way. Not used for JSON output or when capturing, which need everything at once.
+   */
+  public DiscoverRunner streaming(boolean streaming) {
+    this.streaming = streaming;
+    return this;
+  }
+
+  /**
+   * Like {@link #streaming}, but fetching, inference, encoding, hashing and writing run as
+   * concurrent stages over bounded queues; see {@link DiscoverPipeline}.
+   */
+  public DiscoverRunner pipelined(boolean pipelined) {
+    this.pipelined = pipelined;
+    return this;
+  }
+
+  /** Writes a lock of {@code schema}, 1 or 2; the manifest is the same either way. */
+  public DiscoverRunner lockSchema(int schema) {
+    this.lockOptions = lockOptions.withSchema(schema);
+    return this;
+  }
+
+  /** Derives stable ids with {@code algo}, which is recorded in the lock. */
+  public DiscoverRunner stableIdHash(HashAlgo algo) {
+    this.lockOptions = lockOptions.withStableIds(algo);
+    return this;
+  }
+
+  /** Per-stage timings and queue depths of the last pipelined run; null otherwise. */
+  public DiscoverPipeline.Stats pipelineStats() {
+    return pipelineStats;
+  }
+
+  /** Size of the stable id index the last run's lock was built with; null before a run. */
+  public StableIdIndex.Stats stableIdStats() {
+    return stableIdStats;
+  }
+
+  /** Builds the manifest on up to {@code threads} threads; the output does not change. */
+  public DiscoverRunner buildParallelism(int threads) {
+    this.builder = builder.withParallelism(threads);
+    return this;
+  }
+
+  /**
+   * Keeps only the states {@code filter} keeps, dropping the others as they are parsed, and records
+   * the filter in the manifest.
+   */
+  public DiscoverRunner filter(StateFilter filter) {
+    this.builder = builder.withFilter(filter);
+    return this;
+  }
+
+  /** Fills in entity areas and devices from {@code registries}. */
+  public DiscoverRunner registries(HARegistries registries) {
+    this.builder = builder.withRegistries(registries);
+    return this;
+  }
+
+  /** Infers attributes with {@code rules} instead of the built-in rule pack. */
+  public DiscoverRunner rules(RuleRegistry rules) {
+    this.builder = builder.withRules(rules);
+    return this;
+  }
+
+  /** Types service fields with {@code typing} instead of the built-in table. */
+  public DiscoverRunner serviceTyping(ServiceTyping typing) {
+    this.builder = builder.withServiceTyping(typing);
+    return this;
+  }
+
   public Result run(Path outDir, boolean jsonOutput) throws Exception {
     Files.createDirectories(outDir);
     cleanupOldFiles(outDir);
-
-    var states = provider.fetchStates();
-    var services = provider.fetchServices();
+    if ((streaming || pipelined) && !jsonOutput && capturePath == null)
+      return pipelined ? runPipelined(outDir) : runStreaming(outDir);
+
+    List<HAState> states;
+    List<Map<String, Object>> services;
+    try (var exec = Executors.newVirtualThreadPerTaskExecutor()) {
+      // a capture keeps every state; buildFromStates applies the filter afterwards
+      var filter = capturePath != null ? StateFilter.ALL : builder.filter();
+      var statesF = exec.submit(() -> provider.fetchStates(filter));
+      var servicesF = exec.submit(provider::fetchServices);
+      states = await(statesF, servicesF);
+      services = await(servicesF, statesF);
+    }
     var haVersion = provider.haVersion();
+    if (capturePath != null) {
+      var raw = states.stream().map(HAState::toMap).toList();
+      SnapshotWriter.write(capturePath, haVersion, Instant.now(), raw, services);
+    }
 
-    var manifest = builder.build(haVersion, states, services);
-    var canon = ManifestCanonicalizer.canonicalize(manifest);
-    var lock = LockBuilder.build(canon, null, Instant.now());
+    var manifest = builder.buildFromStates(haVersion, states, services);
+    var lockBuilder = LockBuilder.streaming(null, Instant.now(), lockOptions);
+    ManifestCanonicalizer.replay(manifest, lockBuilder);
+    var lock = lockBuilder.lock();
+    stableIdStats = lockBuilder.stableIdStats();
 
     var manifestExt = jsonOutput ? ".json" : ".pb";
     var lockExt = jsonOutput ? ".json" : ".pb";
@@ -98,14 +284,116 @@ public final class DiscoverRunner {
               .preservingProtoFieldNames()
               .sortingMapKeys()
               .alwaysPrintFieldsWithNoPresence();
-      Files.writeString(manifestPath, printer.print(canon));
+      Files.writeString(manifestPath, printer.print(ManifestCanonicalizer.canonicalize(manifest)));
       Files.writeString(lockPath, printer.print(lock));
     } else {
-      ManifestPb.write(manifestPath, canon);
+      ManifestPb.writeCanonical(manifestPath, manifest);
       LockPb.write(lockPath, lock);
     }
 
-    return new Result(manifestPath, lockPath, canon.getEntitiesCount(), canon.getServicesCount());
+    return new Result(
+        manifestPath, lockPath, manifest.getEntitiesCount(), manifest.getServicesCount());
+  }
+
+  private Result runStreaming(Path outDir) throws Exception {
+    var lock = LockBuilder.streaming(null, Instant.now(), lockOptions);
+
+    ManifestStream stream;
+    try (var files = new StagedOutput(outDir)) {
+      try (var exec = Executors.newVirtualThreadPerTaskExecutor();
+          var out = new BufferedOutputStream(Files.newOutputStream(files.manifestTmp))) {
+        var servicesF = exec.submit(provider::fetchServices);
+        var sink =
+            ManifestCanonicalizer.canonicalizing(
+                ManifestSink.tee(new ManifestStreamWriter(out), lock));
+        stream = builder.open(provider.haVersion(), sink);
+        try (stream) {
+          provider.forEachState(
+              builder.filter(),
+              state -> {
+                try {
+                  stream.accept(state);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+          stream.services(await(servicesF, null));
+        } catch (UncheckedIOException e) {
+          servicesF.cancel(true);
+          throw e.getCause();
+        }
+      }
+      LockPb.write(files.lockTmp, lock.lock());
+      files.publish();
+      stableIdStats = lock.stableIdStats();
+      return new Result(files.manifest, files.lock, stream.entities(), stream.services());
+    }
+  }
+
+  private Result runPipelined(Path outDir) throws Exception {
+    var pipeline = new DiscoverPipeline(provider, builder, lockOptions);
+    try (var files = new StagedOutput(outDir)) {
+      var staged = pipeline.run(files.manifestTmp, files.lockTmp);
+      files.publish();
+      pipelineStats = pipeline.stats();
+      stableIdStats = pipeline.stableIdStats();
+      return new Result(files.manifest, files.lock, staged.entities(), staged.services());
+    }
+  }
+
+  public Map<String, TransferStats> transferStats() {
+    return provider.transferStats();
+  }
+
+  public InferenceStats inferenceStats() {
+    return builder.inferenceStats();
+  }
+
+  @Override
+  public void close() throws Exception {
+    provider.close();
+  }
+
+  /** Waits for {@code f}; on failure cancels {@code sibling}, if any, and rethrows the cause. */
+  static <T> T await(Future<T> f, Future<?> sibling) throws Exception {
+    try {
+      return f.get();
+    } catch (ExecutionException e) {
+      if (sibling != null) sibling.cancel(true);
+      if (e.getCause() instanceof Exception cause) throw cause;
+      throw e;
+    }
+  }
+
+  /**
+   * manifest.pb and map.lock.pb written under temporary names in the output directory, for the
+   * streaming and pipelined runs, which write the manifest while it is still being built. {@link
+   * #publish} moves both into place once they are complete; closing removes whatever a failed run
+   * left.
+   */
+  private static final class StagedOutput implements AutoCloseable {
+    final Path manifest;
+    final Path lock;
+    final Path manifestTmp;
+    final Path lockTmp;
+
+    StagedOutput(Path outDir) throws IOException {
+      this.manifest = outDir.resolve("manifest.pb");
+      this.lock = outDir.resolve("map.lock.pb");
+      this.manifestTmp = Files.createTempFile(outDir, "manifest.pb.", ".tmp");
+      this.lockTmp = Files.createTempFile(outDir, "map.lock.pb.", ".tmp");
+    }
+
+    void publish() throws IOException {
+      Files.move(manifestTmp, manifest, StandardCopyOption.ATOMIC_MOVE);
+      Files.move(lockTmp, lock, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+      Files.deleteIfExists(manifestTmp);
+      Files.deleteIfExists(lockTmp);
+    }
   }
 
   private void cleanupOldFiles(Path outDir) throws IOException {
@@ -116,34 +404,101 @@ public final class DiscoverRunner {
   }
 
   private static final class HAProvider implements SnapshotProvider {
-    private final URI url;
-    private final String token;
+    private final HAHttpClient client;
     private final String haVersionOpt;
 
-    public HAProvider(URI url, String token, String haVersionOpt) {
-      this.url = url;
-      this.token = token;
+    HAProvider(HAHttpClient client, String haVersionOpt) {
+      this.client = client;
       this.haVersionOpt = haVersionOpt;
     }
 
     @Override
-    public List<Map<String, Object>> fetchStates() throws Exception {
-      try (var client = new HAHttpClient(HAConfig.of(url, token))) {
-        return client.fetchStates();
-      }
+    public List<HAState> fetchStates() throws Exception {
+      return client.fetchHAStates();
+    }
+
+    @Override
+    public void forEachState(Consumer<? super HAState> sink) throws Exception {
+      client.streamHAStates(sink);
+    }
+
+    @Override
+    public List<HAState> fetchStates(StateFilter filter) throws Exception {
+      var out = new ArrayList<HAState>();
+      client.streamHAStates(filter, out::add);
+      return out;
+    }
+
+    @Override
+    public void forEachState(StateFilter filter, Consumer<? super HAState> sink)
+        throws Exception {
+      client.streamHAStates(filter, sink);
     }
 
     @Override
     public List<Map<String, Object>> fetchServices() throws Exception {
-      try (var client = new HAHttpClient(HAConfig.of(url, token))) {
-        return client.fetchServices();
-      }
+      return client.fetchServices();
     }
 
     @Override
     public String haVersion() throws Exception {
       return (haVersionOpt != null && !haVersionOpt.isBlank()) ? haVersionOpt : "unknown";
     }
+
+    @Override
+    public Map<String, TransferStats> transferStats() {
+      return client.transferStats();
+    }
+
+    @Override
+    public void close() {
+      client.close();
+    }
+  }
+
+  private static final class ReplayProvider implements SnapshotProvider {
+    private final SnapshotReader reader;
+    private final String haVersionOpt;
+
+    ReplayProvider(Path snapshot, String haVersionOpt) throws IOException {
+      this.reader = SnapshotReader.open(snapshot);
+      this.haVersionOpt = haVersionOpt;
+    }
+
+    @Override
+    public List<HAState> fetchStates() throws IOException {
+      var out = new ArrayList<HAState>();
+      reader.forEachState(state -> out.add(HAState.from(state)));
+      return out;
+    }
+
+    @Override
+    public void forEachState(Consumer<? super HAState> sink) throws IOException {
+      reader.forEachState(state -> sink.accept(HAState.from(state)));
+    }
+
+    @Override
+    public List<HAState> fetchStates(StateFilter filter) throws IOException {
+      var out = new ArrayList<HAState>();
+      reader.forEachState(filter, state -> out.add(HAState.from(state)));
+      return out;
+    }
+
+    @Override
+    public void forEachState(StateFilter filter, Consumer<? super HAState> sink)
+        throws IOException {
+      reader.forEachState(filter, state -> sink.accept(HAState.from(state)));
+    }
+
+    @Override
+    public List<Map<String, Object>> fetchServices() throws IOException {
+      return reader.readServices();
+    }
+
+    @Override
+    public String haVersion() {
+      return (haVersionOpt != null && !haVersionOpt.isBlank()) ? haVersionOpt : reader.haVersion();
+    }
   }
 
   private static final class DemoProvider implements SnapshotProvider {
@@ -154,22 +509,18 @@ public final class DiscoverRunner {
     }
 
     @Override
-    public List<Map<String, Object>> fetchStates() {
+    public List<HAState> fetchStates() {
       return List.of(
-          // Example climate entity as a map
-          Map.of(
-              "entity_id",
+          // Example climate entity
+          new HAState(
               "climate.living_room_trv",
-              "attributes",
-              Map.of(
-                  "hvac_modes",
-                  List.of("off", "heat", "auto"),
-                  "min_temp",
-                  5.0,
-                  "max_temp",
-                  30.0,
-                  "temperature_unit",
-                  "°C")));
+              null,
+              new HAAttributes.Builder()
+                  .put("hvac_modes", List.of("off", "heat", "auto"))
+                  .putDouble("min_temp", 5.0)
+                  .putDouble("max_temp", 30.0)
+                  .put("temperature_unit", "°C")
+                  .build()));
     }
 
     @Override
@@ -0,0 +1,132 @@
+package io.pulseautomate.map.cli.run;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@link DiscoverRunner} for many Home Assistant instances, each on its own virtual thread and
+ * into its own {@code <out>/<name>} directory, with at most {@code parallelism} running at once.
+ */
+public final class FleetRunner {
+
+  /** One line of a fleet file: {@code name,url,token[,version]}. */
+  public record Instance(String name, URI url, String token, String haVersion) {}
+
+  public record Outcome(
+      Instance instance, Duration elapsed, DiscoverRunner.Result result, Exception error) {
+    public boolean ok() {
+      return error == null;
+    }
+  }
+
+  public interface RunnerFactory {
+    DiscoverRunner create(Instance instance) throws Exception;
+  }
+
+  private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+  private final RunnerFactory factory;
+  private final int parallelism;
+
+  public FleetRunner(RunnerFactory factory, int parallelism) {
+    if (parallelism < 1) throw new IllegalArgumentException("parallelism must be >= 1");
+    this.factory = factory;
+    this.parallelism = parallelism;
+  }
+
+  /** Outcomes in the order of {@code instances}; one instance failing never stops the others. */
+  public List<Outcome> run(List<Instance> instances, Path outRoot, boolean jsonOutput)
+      throws InterruptedException {
+    var permits = new Semaphore(parallelism);
+    var futures = new ArrayList<Future<Outcome>>(instances.size());
+    try (var exec = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (var instance : instances) {
+        futures.add(
+            exec.submit(
+                () -> {
+                  permits.acquire();
+                  try {
+                    return runOne(instance, outRoot.resolve(instance.name()), jsonOutput);
+                  } finally {
+                    permits.release();
+                  }
+                }));
+      }
+
+      var out = new ArrayList<Outcome>(futures.size());
+      for (var f : futures) {
+        try {
+          out.add(f.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("Fleet worker failed", e.getCause());
+        }
+      }
+      return out;
+    }
+  }
+
+  private Outcome runOne(Instance instance, Path outDir, boolean jsonOutput) {
+    var started = System.nanoTime();
+    try (var runner = factory.create(instance)) {
+      var result = runner.run(outDir, jsonOutput);
+      return new Outcome(instance, Duration.ofNanos(System.nanoTime() - started), result, null);
+    } catch (Exception e) {
+      return new Outcome(instance, Duration.ofNanos(System.nanoTime() - started), null, e);
+    }
+  }
+
+  /**
+   * Parses fleet lines. Blank lines and {@code #} comments are skipped; a token of the form
+   * {@code $NAME} is looked up with {@code env}.
+   *
+   * @throws IllegalArgumentException naming the offending line
+   */
+  public static List<Instance> parse(List<String> lines, UnaryOperator<String> env) {
+    var out = new ArrayList<Instance>();
+    var names = new HashSet<String>();
+    for (var i = 0; i < lines.size(); i++) {
+      var line = lines.get(i).strip();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+
+      var where = "line " + (i + 1) + ": ";
+      var parts = line.split(",", -1);
+      if (parts.length < 3 || parts.length > 4)
+        throw new IllegalArgumentException(where + "expected name,url,token[,version]");
+
+      var name = parts[0].strip();
+      if (!NAME.matcher(name).matches())
+        throw new IllegalArgumentException(where + "name must match " + NAME.pattern());
+      if (!names.add(name)) throw new IllegalArgumentException(where + "duplicate name " + name);
+
+      URI url;
+      try {
+        url = URI.create(parts[1].strip());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(where + "bad url " + parts[1].strip());
+      }
+
+      var token = parts[2].strip();
+      if (token.startsWith("$")) {
+        var resolved = env.apply(token.substring(1));
+        if (resolved == null || resolved.isBlank())
+          throw new IllegalArgumentException(where + token + " is not set");
+        token = resolved;
+      }
+      if (token.isEmpty()) throw new IllegalArgumentException(where + "empty token");
+
+      var version = parts.length == 4 && !parts[3].isBlank() ? parts[3].strip() : null;
+      out.add(new Instance(name, url, token, version));
+    }
+    return out;
+  }
+}
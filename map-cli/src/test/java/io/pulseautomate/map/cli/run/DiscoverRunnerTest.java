@@ -2,16 +2,26 @@ package io.pulseautomate.map.cli.run;
 
 import static io.pulseautomate.map.manifest.util.Names.Attr.HVAC_MODE;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.ha.model.StateFilter;
+import io.pulseautomate.map.manifest.builder.ManifestBuilder;
 import io.pulseautomate.map.manifest.gen.model.LockFile;
 import io.pulseautomate.map.manifest.gen.model.Manifest;
 import io.pulseautomate.map.manifest.lock.LockPb;
 import io.pulseautomate.map.manifest.serde.ManifestPb;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
@@ -44,8 +54,8 @@ final class DiscoverRunnerTest {
     var provider =
         new DiscoverRunner.SnapshotProvider() {
           @Override
-          public List<Map<String, Object>> fetchStates() {
-            return List.of(state);
+          public List<HAState> fetchStates() {
+            return List.of(HAState.from(state));
           }
 
           @Override
@@ -84,4 +94,277 @@ final class DiscoverRunnerTest {
     // 5. Assert that the stable ID was correctly preserved
     assertThat(stable2).isEqualTo(stable1);
   }
+
+  @Test
+  void fetches_states_and_services_concurrently() throws Exception {
+    // Each fetch waits for the other to have started; a sequential runner would time out.
+    var statesStarted = new CountDownLatch(1);
+    var servicesStarted = new CountDownLatch(1);
+
+    var provider =
+        new DiscoverRunner.SnapshotProvider() {
+          @Override
+          public List<HAState> fetchStates() throws Exception {
+            statesStarted.countDown();
+            assertThat(servicesStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            return List.of(new HAState("light.kitchen", "on", HAAttributes.EMPTY));
+          }
+
+          @Override
+          public List<Map<String, Object>> fetchServices() throws Exception {
+            servicesStarted.countDown();
+            assertThat(statesStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            return List.of();
+          }
+
+          @Override
+          public String haVersion() {
+            return "2025.6";
+          }
+        };
+
+    try (var runner =
+        new DiscoverRunner(provider, new io.pulseautomate.map.manifest.builder.ManifestBuilder())) {
+      var result = runner.run(tmp, false);
+      assertThat(result.entities()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void replays_a_captured_snapshot_to_the_same_lock() throws Exception {
+    var provider =
+        new DiscoverRunner.SnapshotProvider() {
+          @Override
+          public List<HAState> fetchStates() {
+            var attributes =
+                new HAAttributes.Builder()
+                    .put("hvac_modes", List.of("off", "heat"))
+                    .putDouble("min_temp", 7.0)
+                    .build();
+            return List.of(new HAState("climate.office", "off", attributes));
+          }
+
+          @Override
+          public List<Map<String, Object>> fetchServices() {
+            return List.of();
+          }
+
+          @Override
+          public String haVersion() {
+            return "2025.6";
+          }
+        };
+
+    var snapshot = tmp.resolve("home.snap");
+    var live = tmp.resolve("live");
+    var offline = tmp.resolve("offline");
+
+    try (var runner =
+        new DiscoverRunner(provider, new io.pulseautomate.map.manifest.builder.ManifestBuilder())
+            .captureTo(snapshot)) {
+      runner.run(live, false);
+    }
+    try (var runner = DiscoverRunner.forReplay(snapshot, null)) {
+      runner.run(offline, false);
+    }
+
+    var liveLock = LockPb.read(live.resolve("map.lock.pb"));
+    var offlineLock = LockPb.read(offline.resolve("map.lock.pb"));
+    assertThat(offlineLock.getManifestHash()).isEqualTo(liveLock.getManifestHash());
+    assertThat(ManifestPb.read(offline.resolve("manifest.pb")).getHaVersion()).isEqualTo("2025.6");
+  }
+
+  @Test
+  void a_filtered_capture_still_saves_every_state() throws Exception {
+    var provider =
+        new DiscoverRunner.SnapshotProvider() {
+          @Override
+          public List<HAState> fetchStates() {
+            return List.of(
+                new HAState("climate.office", "off", new HAAttributes.Builder().build()),
+                new HAState("light.kitchen", "on", new HAAttributes.Builder().build()));
+          }
+
+          @Override
+          public List<Map<String, Object>> fetchServices() {
+            return List.of();
+          }
+
+          @Override
+          public String haVersion() {
+            return "2025.6";
+          }
+        };
+
+    var snapshot = tmp.resolve("home.snap");
+    try (var runner =
+        new DiscoverRunner(provider, new ManifestBuilder())
+            .filter(StateFilter.of(List.of("climate"), List.of()))
+            .streaming(true)
+            .captureTo(snapshot)) {
+      assertThat(runner.run(tmp.resolve("live"), false).entities()).isEqualTo(1);
+    }
+    try (var runner = DiscoverRunner.forReplay(snapshot, null)) {
+      assertThat(runner.run(tmp.resolve("offline"), false).entities()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  void streaming_replay_writes_the_same_files() throws Exception {
+    var snapshot = tmp.resolve("demo.snap");
+    try (var runner = DiscoverRunner.forDemo("2025.6").captureTo(snapshot)) {
+      runner.run(tmp.resolve("demo"), false);
+    }
+
+    var materialized = tmp.resolve("materialized");
+    var streamed = tmp.resolve("streamed");
+    try (var runner = DiscoverRunner.forReplay(snapshot, null)) {
+      runner.run(materialized, false);
+    }
+    DiscoverRunner.Result result;
+    try (var runner = DiscoverRunner.forReplay(snapshot, null).streaming(true)) {
+      result = runner.run(streamed, false);
+    }
+
+    assertThat(Files.readAllBytes(streamed.resolve("manifest.pb")))
+        .isEqualTo(Files.readAllBytes(materialized.resolve("manifest.pb")));
+    var expected = LockPb.read(materialized.resolve("map.lock.pb")).toBuilder().clearGeneratedAt();
+    var actual = LockPb.read(streamed.resolve("map.lock.pb")).toBuilder().clearGeneratedAt();
+    assertThat(actual.build()).isEqualTo(expected.build());
+    assertThat(result.entities())
+        .isEqualTo(ManifestPb.read(streamed.resolve("manifest.pb")).getEntitiesCount());
+  }
+
+  private static DiscoverRunner.SnapshotProvider generated(int count, String failWith) {
+    return new DiscoverRunner.SnapshotProvider() {
+      @Override
+      public List<HAState> fetchStates() throws Exception {
+        var out = new ArrayList<HAState>();
+        forEachState(out::add);
+        return out;
+      }
+
+      @Override
+      public void forEachState(Consumer<? super HAState> sink) throws Exception {
+        for (var i = 0; i < count; i++) {
+          var domain = List.of("light", "climate", "fan").get(i % 3);
+          sink.accept(
+              new HAState(
+                  domain + ".e" + i,
+                  "on",
+                  new HAAttributes.Builder()
+                      .putLong("brightness", i % 255)
+                      .put("hvac_modes", List.of("off", "heat"))
+                      .putLong("percentage", 50)
+                      .build()));
+        }
+        if (failWith != null) throw new IOException(failWith);
+      }
+
+      @Override
+      public List<Map<String, Object>> fetchServices() {
+        return List.of(
+            Map.of("domain", "fan", "services", Map.of("set_percentage", Map.of())),
+            Map.of("domain", "light", "services", Map.of("turn_on", Map.of())));
+      }
+
+      @Override
+      public String haVersion() {
+        return "2025.6";
+      }
+    };
+  }
+
+  @Test
+  void pipelined_run_writes_the_same_files_and_reports_its_stages() throws Exception {
+    var sequential = tmp.resolve("sequential");
+    var pipelined = tmp.resolve("pipelined");
+    try (var runner = new DiscoverRunner(generated(20_000, null), new ManifestBuilder())) {
+      runner.run(sequential, false);
+    }
+    DiscoverRunner.Result result;
+    DiscoverPipeline.Stats stats;
+    try (var runner =
+        new DiscoverRunner(generated(20_000, null), new ManifestBuilder()).pipelined(true)) {
+      result = runner.run(pipelined, false);
+      stats = runner.pipelineStats();
+    }
+
+    assertThat(Files.readAllBytes(pipelined.resolve("manifest.pb")))
+        .isEqualTo(Files.readAllBytes(sequential.resolve("manifest.pb")));
+    var expected = LockPb.read(sequential.resolve("map.lock.pb")).toBuilder().clearGeneratedAt();
+    var actual = LockPb.read(pipelined.resolve("map.lock.pb")).toBuilder().clearGeneratedAt();
+    assertThat(actual.build()).isEqualTo(expected.build());
+    assertThat(result.entities()).isEqualTo(20_000);
+    assertThat(result.services()).isEqualTo(2);
+
+    assertThat(stats.stages())
+        .extracting(DiscoverPipeline.StageStats::name)
+        .containsExactly("fetch", "infer", "encode", "lock", "write");
+    assertThat(stats.stages().get(0).items()).isEqualTo(20_000);
+    assertThat(stats.stages().get(2).items()).isEqualTo(20_000 + 2 + 1);
+    assertThat(stats.queues())
+        .allSatisfy(q -> assertThat(q.maxDepth()).isBetween(0, q.capacity()));
+  }
+
+  @Test
+  void streaming_run_that_fails_leaves_no_files() throws Exception {
+    var out = tmp.resolve("failed");
+    try (var runner =
+        new DiscoverRunner(generated(5_000, "connection reset"), new ManifestBuilder())
+            .streaming(true)) {
+      assertThatThrownBy(() -> runner.run(out, false))
+          .isInstanceOf(IOException.class)
+          .hasMessage("connection reset");
+    }
+    try (var files = Files.list(out)) {
+      assertThat(files).isEmpty();
+    }
+  }
+
+  @Test
+  void pipelined_run_fails_with_the_first_stage_error() throws Exception {
+    var out = tmp.resolve("failed");
+    try (var runner =
+        new DiscoverRunner(generated(50_000, "connection reset"), new ManifestBuilder())
+            .pipelined(true)) {
+      assertThatThrownBy(() -> runner.run(out, false))
+          .isInstanceOf(IOException.class)
+          .hasMessage("connection reset");
+      assertThat(runner.pipelineStats()).isNull();
+    }
+    try (var files = Files.list(out)) {
+      assertThat(files).isEmpty();
+    }
+  }
+
+  @Test
+  void filter_drops_states_while_replaying_and_is_recorded() throws Exception {
+    var snapshot = tmp.resolve("demo.snap");
+    try (var runner = DiscoverRunner.forDemo("2025.6").captureTo(snapshot)) {
+      runner.run(tmp.resolve("demo"), false);
+    }
+
+    for (var streaming : List.of(false, true)) {
+      var kept = tmp.resolve("kept-" + streaming);
+      try (var runner =
+          DiscoverRunner.forReplay(snapshot, null)
+              .filter(StateFilter.of(List.of("climate"), List.of()))
+              .streaming(streaming)) {
+        assertThat(runner.run(kept, false).entities()).isEqualTo(1);
+      }
+      assertThat(ManifestPb.read(kept.resolve("manifest.pb")).getFilter().getIncludeList())
+          .containsExactly("climate");
+
+      var dropped = tmp.resolve("dropped-" + streaming);
+      try (var runner =
+          DiscoverRunner.forReplay(snapshot, null)
+              .filter(StateFilter.of(List.of(), List.of("climate.*_trv")))
+              .streaming(streaming)) {
+        var result = runner.run(dropped, false);
+        assertThat(result.entities()).isZero();
+        assertThat(result.services()).isEqualTo(1);
+      }
+    }
+  }
 }
@@ -0,0 +1,106 @@
+package io.pulseautomate.map.cli.run;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.pulseautomate.map.ha.model.HAAttributes;
+import io.pulseautomate.map.ha.model.HAState;
+import io.pulseautomate.map.manifest.builder.ManifestBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+final class FleetRunnerTest {
+
+  @TempDir Path tmp;
+
+  @Test
+  void parses_instances_and_resolves_env_tokens() {
+    var lines =
+        List.of(
+            "# name,url,token[,version]",
+            "office, https://office.example.net:8123 ,$OFFICE_TOKEN",
+            "",
+            "cabin,http://10.0.4.2:8123,literal-token,2025.6");
+    var env = Map.of("OFFICE_TOKEN", "from-env");
+
+    var instances = FleetRunner.parse(lines, env::get);
+
+    assertThat(instances).hasSize(2);
+    assertThat(instances.get(0).name()).isEqualTo("office");
+    assertThat(instances.get(0).url().toString()).isEqualTo("https://office.example.net:8123");
+    assertThat(instances.get(0).token()).isEqualTo("from-env");
+    assertThat(instances.get(0).haVersion()).isNull();
+    assertThat(instances.get(1).token()).isEqualTo("literal-token");
+    assertThat(instances.get(1).haVersion()).isEqualTo("2025.6");
+  }
+
+  @Test
+  void rejects_bad_lines_with_their_line_number() {
+    assertThatThrownBy(() -> FleetRunner.parse(List.of("a,http://x,$MISSING"), k -> null))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("line 1")
+        .hasMessageContaining("$MISSING");
+    assertThatThrownBy(() -> FleetRunner.parse(List.of("a,http://x,t", "a,http://y,t"), k -> null))
+        .hasMessageContaining("line 2")
+        .hasMessageContaining("duplicate");
+    assertThatThrownBy(() -> FleetRunner.parse(List.of("../etc,http://x,t"), k -> null))
+        .hasMessageContaining("name must match");
+  }
+
+  @Test
+  void runs_each_instance_into_its_own_directory_and_isolates_failures() throws Exception {
+    var instances =
+        FleetRunner.parse(
+            List.of("a,http://a:8123,t", "broken,http://b:8123,t", "c,http://c:8123,t"),
+            k -> null);
+    var running = new AtomicInteger();
+    var peak = new AtomicInteger();
+    var builder = new ManifestBuilder();
+
+    FleetRunner.RunnerFactory factory =
+        instance ->
+            new DiscoverRunner(
+                new DiscoverRunner.SnapshotProvider() {
+                  @Override
+                  public List<HAState> fetchStates() throws Exception {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                      Thread.sleep(50);
+                      if (instance.name().equals("broken")) throw new IOException("unreachable");
+                      return List.of(
+                          new HAState("light." + instance.name(), "on", HAAttributes.EMPTY));
+                    } finally {
+                      running.decrementAndGet();
+                    }
+                  }
+
+                  @Override
+                  public List<Map<String, Object>> fetchServices() {
+                    return List.of();
+                  }
+
+                  @Override
+                  public String haVersion() {
+                    return "2025.6";
+                  }
+                },
+                builder);
+
+    var outcomes = new FleetRunner(factory, 2).run(instances, tmp, false);
+
+    assertThat(outcomes).extracting(o -> o.instance().name()).containsExactly("a", "broken", "c");
+    assertThat(outcomes).extracting(FleetRunner.Outcome::ok).containsExactly(true, false, true);
+    assertThat(outcomes.get(1).error()).hasMessage("unreachable");
+    assertThat(outcomes.get(0).result().entities()).isEqualTo(1);
+    assertThat(Files.exists(tmp.resolve("a").resolve("manifest.pb"))).isTrue();
+    assertThat(Files.exists(tmp.resolve("c").resolve("map.lock.pb"))).isTrue();
+    assertThat(Files.exists(tmp.resolve("broken").resolve("manifest.pb"))).isFalse();
+    assertThat(peak.get()).isLessThanOrEqualTo(2);
+  }
+}